@@ -81,6 +81,17 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
     public static final String ALERT_AUDIO_VIBRATE_EXTRA =
             "com.android.cellbroadcastreceiver.ALERT_AUDIO_VIBRATE";
 
+    /** Extra for the {@link CellBroadcastChannelTable} flags of the alert channel. */
+    public static final String ALERT_AUDIO_CHANNEL_FLAGS_EXTRA =
+            "com.android.cellbroadcastreceiver.ALERT_AUDIO_CHANNEL_FLAGS";
+
+    /**
+     * Extra for updating the speech text of the alert that is playing, e.g. with the text of
+     * an ETWS secondary notification, without restarting its alert sound.
+     */
+    public static final String ALERT_AUDIO_UPDATE_EXTRA =
+            "com.android.cellbroadcastreceiver.ALERT_AUDIO_UPDATE";
+
     /** Extra for alert audio ETWS behavior (always vibrate, even in silent mode). */
     public static final String ALERT_AUDIO_ETWS_VIBRATE_EXTRA =
             "com.android.cellbroadcastreceiver.ALERT_AUDIO_ETWS_VIBRATE";
@@ -112,7 +123,6 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
     private boolean mTtsLanguageSupported;
     private boolean mEnableVibrate;
     private boolean mEnableAudio;
-    private int mMcc;
 
     private Vibrator mVibrator;
     private AudioManager mAudioManager;
@@ -145,6 +155,11 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
     private float mPlaySpeedRate = 1.0f;
     private int mDuration;
 
+    // CellBroadcastLatency receive time and priority of the alert, recorded at its first
+    // sound; 0 once recorded or if there is nothing to record.
+    private long mPendingReceiveTime;
+    private int mPendingPriority;
+
     // Internal messages
     private static final int ALERT_SOUND_FINISHED = 1000;
     private static final int ALERT_PAUSE_FINISHED = 1001;
@@ -298,10 +313,9 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         mEnableTts = sp.getBoolean("mEnableTts",false);
         mEnableVsOnSilent= sp.getBoolean("mEnableVsOnSilent", false);
         mEnableVsOnDndSilent = sp.getBoolean("mEnableVsOnDndSilent",false);
-        mMcc = sp.getInt("mMcc", 001);
         if (DBG){
             Log.d(TAG, "initCustomParms  : mEnableTts = " + mEnableTts + " mEnableVsOnSilent = " + mEnableVsOnSilent +
-                    " mEnableVsOnDndSilent = " + mEnableVsOnDndSilent + " mMcc = " + mMcc);
+                    " mEnableVsOnDndSilent = " + mEnableVsOnDndSilent);
         }
     }
 
@@ -355,13 +369,21 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         Log.d(TAG, "onStartCommand: duration = " + duration);
 
         int messageId = intent.getIntExtra(MESSAGE_ID, 0);
-        Log.d(TAG, "onStartCommand: messageId = " + messageId);
+        int channelFlags = intent.getIntExtra(ALERT_AUDIO_CHANNEL_FLAGS_EXTRA, 0);
+        Log.d(TAG, "onStartCommand: messageId = " + messageId + " channelFlags = " + channelFlags);
         if (DBG) log("Duration: " + duration);
         // Get text to speak (if enabled by user)
         mMessageBody = intent.getStringExtra(ALERT_AUDIO_MESSAGE_BODY);
         mMessagePreferredLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_PREFERRED_LANGUAGE);
         mMessageDefaultLanguage = intent.getStringExtra(ALERT_AUDIO_MESSAGE_DEFAULT_LANGUAGE);
 
+        if (intent.getBooleanExtra(ALERT_AUDIO_UPDATE_EXTRA, false) && mState == STATE_ALERTING) {
+            // The alert sound keeps playing; the new text is spoken once it finishes.
+            Log.d(TAG, "onStartCommand: updating the text of the playing alert");
+            prepareTts();
+            return START_STICKY;
+        }
+
         mEnableVibrate = intent.getBooleanExtra(ALERT_AUDIO_VIBRATE_EXTRA, true);
         if (intent.getBooleanExtra(ALERT_AUDIO_ETWS_VIBRATE_EXTRA, false)) {
             mEnableVibrate = true;  // force enable vibration for ETWS alerts
@@ -373,15 +395,11 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
             mEnableVibrate = true;
         }
 
-        if (mMessageBody != null && mEnableAudio) {
-            if (mTts == null) {
-                mTts = new TextToSpeech(this, this);
-            } else if (mTtsEngineReady) {
-                setTtsLanguage();
-            }
-        }
+        prepareTts();
+        mPendingReceiveTime = CellBroadcastLatency.getReceiveTime(intent);
+        mPendingPriority = CellBroadcastLatency.getPriority(intent);
         if (mEnableAudio || mEnableVibrate) {
-            play(duration, messageId);     // in milliseconds
+            play(duration, channelFlags);     // in milliseconds
         } else {
             stopSelf();
             return START_NOT_STICKY;
@@ -394,6 +412,17 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         return START_STICKY;
     }
 
+    /** Starts the TTS engine, or sets its language, if there is text to speak. */
+    private void prepareTts() {
+        if (mMessageBody != null && mEnableAudio) {
+            if (mTts == null) {
+                mTts = new TextToSpeech(this, this);
+            } else if (mTtsEngineReady) {
+                setTtsLanguage();
+            }
+        }
+    }
+
     private void resetEnableVibrate() {
         switch (mCurrentRingerMode) {
             case AudioManager.RINGER_MODE_SILENT:
@@ -420,16 +449,13 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
     /**
      * Start playing the alert sound, and send delayed message when it's time to stop.
      * @param duration the alert sound duration in milliseconds
+     * @param channelFlags the {@link CellBroadcastChannelTable} flags of the alert channel
      */
-    private void play(int duration, int messageId) {
+    private void play(int duration, int channelFlags) {
         // stop() checks to see if we are already playing.
         stop();
 
-        boolean mSmsTone = false;
-        if (mMcc == 424 && (messageId == 4380 || messageId == 4393 || messageId == 4396
-                || messageId == 4397 || messageId == 4398 || messageId == 4399)) {
-            mSmsTone = true;
-        }
+        boolean mSmsTone = (channelFlags & CellBroadcastChannelTable.INFO_TONE) != 0;
 
         Log.d(TAG,"play()  mCurrentRingerMode :" + mAudioManager.getRingerModeInternal());
         if (OsUtil.isAtAndroidO() || OsUtil.isAtAndroidO_MR1()) {
@@ -460,6 +486,7 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
                 // reuse the loaded res
                 if (mStreamID != DEFAULT_INVALID_ID) {
                     mSoundPool.resume(mStreamID);
+                    recordFirstPlay();
                 }
             }
 
@@ -586,6 +613,7 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
                 if (mStreamID == DEFAULT_INVALID_ID) {
                     final int cnt = (int) (10 * mDuration / SOUND_TIMESPAN);
                     mStreamID = mSoundPool.play(mSoundId, volume, volume, PRIORITY, (cnt % 10 == 0 ? cnt / 10 : (int) cnt / 10 + 1) - 1, mPlaySpeedRate);
+                    recordFirstPlay();
                     doVibrator();
                     mState = STATE_ALERTING;
                     forceDelayStop(mDuration);
@@ -594,6 +622,15 @@ public class CellBroadcastAlertAudio extends Service implements TextToSpeech.OnI
         }
     };
 
+    /** Records the latency of the first sound of the alert being played. */
+    private void recordFirstPlay() {
+        if (mPendingReceiveTime != 0) {
+            CellBroadcastLatency.record(CellBroadcastLatency.FIRST_PLAY, mPendingPriority,
+                    mPendingReceiveTime);
+            mPendingReceiveTime = 0;
+        }
+    }
+
     private void doVibrator() {
         if (mEnableVibrate) {
             if(mDuration != CMAS_DURATION_MSEC){
@@ -25,11 +25,9 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.provider.Settings;
-import android.provider.Telephony;
 import android.telephony.CellBroadcastMessage;
 import android.telephony.SmsCbCmasInfo;
 import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
 import android.text.util.Linkify;
 import android.util.Log;
 import android.view.*;
@@ -70,6 +68,11 @@ public class CellBroadcastAlertFullScreen extends Activity {
      */
     protected ArrayList<CellBroadcastMessage> mMessageList;
 
+    /**
+     * Body fingerprints of {@link #mMessageList}, in list order.
+     */
+    private final ArrayList<Long> mFingerprintList = new ArrayList<Long>();
+
     /**
      * Animation handler for the flashing warning icon (emergency alerts only).
      */
@@ -88,6 +91,13 @@ public class CellBroadcastAlertFullScreen extends Activity {
     private View mAlertDialogView;
     private boolean mUseLinkfy;
 
+    /**
+     * {@link CellBroadcastLatency} receive time and priority of the alert that started this
+     * activity or was added to it, recorded at the next {@link #onResume}; 0 if none.
+     */
+    private long mPendingReceiveTime;
+    private int mPendingPriority;
+
     /**
      * Returns the currently displayed message.
      */
@@ -106,6 +116,7 @@ public class CellBroadcastAlertFullScreen extends Activity {
     public CellBroadcastMessage removeLatestMessage() {
         int index = mMessageList.size() - 1;
         if (index >= 0) {
+            mFingerprintList.remove(index);
             return mMessageList.remove(index);
         } else {
             return null;
@@ -119,15 +130,22 @@ public class CellBroadcastAlertFullScreen extends Activity {
         Intent intent = getIntent();
         initCustomParms(intent);
         // Get message list from saved Bundle or from Intent.
-        mMessageList = intent.getParcelableArrayListExtra(
-                CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+        ArrayList<Long> fingerprintList = new ArrayList<Long>();
+        mMessageList = getMessageList(intent, fingerprintList);
+        long[] fingerprints = toArray(fingerprintList);
         Log.d(TAG, "onCreate getting message list from intent");
         // If we were started from a notification, dismiss it.
         clearNotification(intent);
         if ((mMessageList == null || mMessageList.size() == 0) && savedInstanceState != null) {
             Log.d(TAG, "onCreate getting message list from saved instance state");
-            mMessageList = savedInstanceState.getParcelableArrayList(
-                    CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+            fingerprintList.clear();
+            ArrayList<CellBroadcastMessage> messages =
+                    CellBroadcastMessageRegistry.restoreMessages(this, savedInstanceState,
+                            fingerprintList);
+            if (messages != null) {
+                mMessageList = messages;
+                fingerprints = toArray(fingerprintList);
+            }
         }
 
         if (mMessageList == null || mMessageList.size() == 0) {
@@ -135,6 +153,13 @@ public class CellBroadcastAlertFullScreen extends Activity {
             finish();
             return;
         }
+        for (long fingerprint : CellBroadcastFingerprint.forList(mMessageList, fingerprints)) {
+            mFingerprintList.add(fingerprint);
+        }
+        if (savedInstanceState == null) {
+            mPendingReceiveTime = CellBroadcastLatency.getReceiveTime(intent);
+            mPendingPriority = CellBroadcastLatency.getPriority(intent);
+        }
         final Window win = getWindow();
         // We use a custom title, so remove the standard dialog title bar
         win.requestFeature(Window.FEATURE_NO_TITLE);
@@ -155,7 +180,9 @@ public class CellBroadcastAlertFullScreen extends Activity {
             // For emergency alerts, keep screen on so the user can read it, unless this is a
             // full screen alert created by CellBroadcastAlertDialog when the screen turned off.
             CellBroadcastMessage message = getLatestMessage();
-            if ((CellBroadcastConfigService.isEmergencyAlertMessage(message) || message.getServiceCategory() == 919 || (message.getServiceCategory() >= 4396 && message.getServiceCategory() <= 4399)) &&
+            if ((CellBroadcastConfigService.isEmergencyAlertMessage(message)
+                    || CellBroadcastChannelTable.get(this, message.getSubId())
+                            .hasFlags(message, CellBroadcastChannelTable.KEEP_SCREEN_ON)) &&
                     (savedInstanceState != null || !getIntent().getBooleanExtra(SCREEN_OFF_EXTRA,
                             false))) {
                 Log.d(TAG, "onCreate setting screen on timer for emergency alert");
@@ -184,41 +211,119 @@ public class CellBroadcastAlertFullScreen extends Activity {
      */
     @Override
     protected void onNewIntent(Intent intent) {
-        ArrayList<CellBroadcastMessage> newMessageList = intent.getParcelableArrayListExtra(
-                CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+        ArrayList<Long> newFingerprintList = new ArrayList<Long>();
+        ArrayList<CellBroadcastMessage> newMessageList =
+                getMessageList(intent, newFingerprintList);
         initCustomParms(intent);
         if (newMessageList != null) {
             Log.d(TAG, "onNewIntent called with message list of size " + newMessageList.size());
-            if (mMessageList.size() == 0) {
+            long[] newFingerprints = toArray(newFingerprintList);
+            long etwsPrimaryTime = intent.getLongExtra(
+                    CellBroadcastAlertService.ETWS_PRIMARY_TIME_EXTRA,
+                    CellBroadcastEtwsCoalescer.NO_PRIMARY);
+            if (etwsPrimaryTime != CellBroadcastEtwsCoalescer.NO_PRIMARY
+                    && newMessageList.size() == 1
+                    && replaceEtwsPrimary(etwsPrimaryTime, newMessageList.get(0),
+                            newFingerprints[0])) {
+                Log.d(TAG, "onNewIntent upgraded ETWS primary at " + etwsPrimaryTime);
+            } else if (mMessageList.size() == 0) {
                 mMessageList.addAll(newMessageList);
+                for (long fingerprint : newFingerprints) {
+                    mFingerprintList.add(fingerprint);
+                }
             } else {
                 for (int i = 0; i < newMessageList.size(); i++) {
                     final CellBroadcastMessage n = newMessageList.get(i);
                     boolean dup = false;
                     for (int j = 0; j < mMessageList.size(); j++) {
                         final CellBroadcastMessage m = mMessageList.get(j);
-                        dup = isDupCbm(n, m);
+                        dup = isDupCbm(n, newFingerprints[i], m, mFingerprintList.get(j));
                         if (dup) {
                             break;
                         }
                     }
                     if (!dup) {
                         mMessageList.add(n);
+                        mFingerprintList.add(newFingerprints[i]);
                     }
                 }
             }
 
+            mPendingReceiveTime = CellBroadcastLatency.getReceiveTime(intent);
+            mPendingPriority = CellBroadcastLatency.getPriority(intent);
         } else {
             Log.e(TAG, "onNewIntent called without SMS_CB_MESSAGE_EXTRA, ignoring");
         }
         clearNotification(intent);
     }
 
-    private boolean isDupCbm(final CellBroadcastMessage n, final CellBroadcastMessage m) {
+    /**
+     * Returns the messages of an intent, which carries their
+     * {@link CellBroadcastMessageRegistry} handles or, if it comes from the notification, the
+     * handles of unread messages. Adds the fingerprints of the messages to
+     * {@code fingerprints}.
+     * @return the messages, or null if the intent has none
+     */
+    private ArrayList<CellBroadcastMessage> getMessageList(Intent intent,
+            ArrayList<Long> fingerprints) {
+        long[] keys = intent.getLongArrayExtra(CellBroadcastReceiverApp.NEW_MESSAGE_KEYS_EXTRA);
+        if (keys != null) {
+            ArrayList<CellBroadcastMessage> messages =
+                    CellBroadcastReceiverApp.getNewMessages(keys, fingerprints);
+            if (!messages.isEmpty()) {
+                return messages;
+            }
+            // The unread list is gone, e.g. the process was restarted.
+            return CellBroadcastMessageRegistry.getMessages(this, keys, fingerprints);
+        }
+        long[] handles = intent.getLongArrayExtra(CellBroadcastMessageRegistry.HANDLES_EXTRA);
+        if (handles != null) {
+            return CellBroadcastMessageRegistry.getMessages(this, handles, fingerprints);
+        }
+        ArrayList<CellBroadcastMessage> messages = intent.getParcelableArrayListExtra(
+                CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA);
+        if (messages == null) {
+            return null;
+        }
+        for (long fingerprint : CellBroadcastFingerprint.forList(messages,
+                intent.getLongArrayExtra(CellBroadcastFingerprint.LIST_EXTRA))) {
+            fingerprints.add(fingerprint);
+        }
+        return messages;
+    }
+
+    private static long[] toArray(ArrayList<Long> list) {
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Replaces the entry of an ETWS primary notification with its secondary notification.
+     * @return true if the primary was found and replaced
+     */
+    private boolean replaceEtwsPrimary(long primaryDeliveryTime,
+            CellBroadcastMessage secondary, long fingerprint) {
+        for (int j = 0; j < mMessageList.size(); j++) {
+            final CellBroadcastMessage m = mMessageList.get(j);
+            if (m.isEtwsMessage() && m.getDeliveryTime() == primaryDeliveryTime
+                    && m.getSubId() == secondary.getSubId()) {
+                mMessageList.set(j, secondary);
+                mFingerprintList.set(j, fingerprint);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isDupCbm(final CellBroadcastMessage n, long nFingerprint,
+            final CellBroadcastMessage m, long mFingerprint) {
         if (n.getDeliveryTime() == m.getDeliveryTime()
                 && n.getSerialNumber() == m.getSerialNumber()
                 && n.getServiceCategory() == m.getServiceCategory()
-                && n.getMessageBody().equals(m.getMessageBody())) {
+                && nFingerprint == mFingerprint) {
             return true;
         }
         return false;
@@ -232,8 +337,10 @@ public class CellBroadcastAlertFullScreen extends Activity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putParcelableArrayList(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, mMessageList);
-        Log.d(TAG, "onSaveInstanceState saved message list to bundle");
+        // The handles are saved, and the messages that may not be in the database yet.
+        CellBroadcastMessageRegistry.saveMessages(outState, mMessageList,
+                toArray(mFingerprintList));
+        Log.d(TAG, "onSaveInstanceState saved message handles to bundle");
     }
 
     /**
@@ -254,6 +361,11 @@ public class CellBroadcastAlertFullScreen extends Activity {
         }
         Log.d(TAG, "onResume showAlertMessage");
         showAlertMessage(message);
+        if (mPendingReceiveTime != 0) {
+            CellBroadcastLatency.record(CellBroadcastLatency.ON_RESUME, mPendingPriority,
+                    mPendingReceiveTime);
+            mPendingReceiveTime = 0;
+        }
     }
 
     @Override
@@ -387,7 +499,11 @@ public class CellBroadcastAlertFullScreen extends Activity {
                 final Intent alertIntent =
                         new Intent(CellBroadcastAlertService.SHOW_NEW_ALERT_ACTION);
                 alertIntent.setClass(context, CellBroadcastAlertService.class);
-                alertIntent.putExtra("message", getLatestMessage());
+                int latest = mMessageList.size() - 1;
+                if (latest >= 0) {
+                    CellBroadcastMessageRegistry.putMessage(alertIntent,
+                            mMessageList.get(latest), mFingerprintList.get(latest));
+                }
                 Log.d(TAG," new message : ");
                 startService(alertIntent);
             }
@@ -481,9 +597,8 @@ public class CellBroadcastAlertFullScreen extends Activity {
         }
 
         String messageBody = message.getMessageBody();
-        TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        boolean supportPeru = "pe".equals(tm.getSimCountryIso(message.getSubId()))
-                 || "pe".equals(tm.getNetworkCountryIso(message.getSubId()));
+        CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(this, message.getSubId());
+        boolean supportPeru = region.isIn(CellBroadcastRegionProfile.REGION_PERU);
         if (limitContentLength && messageBody != null && messageBody.length() >= 90) {
             if (supportPeru) {
                 messageBody = messageBody.substring(0, 82);
@@ -499,9 +614,8 @@ public class CellBroadcastAlertFullScreen extends Activity {
                     Linkify.WEB_URLS);
         }
 
-        boolean supportAreas =
-                "ae".equals(tm.getSimCountryIso(message.getSubId())) || "pe".equals(tm.getSimCountryIso(message.getSubId()))
-                        || "cl".equals(tm.getSimCountryIso(message.getSubId()));
+        boolean supportAreas = region.isSimIn(CellBroadcastRegionProfile.REGION_DUBAI
+                | CellBroadcastRegionProfile.REGION_PERU | CellBroadcastRegionProfile.REGION_CHILE);
         if (supportAreas) {
             int buttonId = CellBroadcastResources.getDialogButtonResource(mContext, message);
             final Button btn = (Button) warningView.findViewById(R.id.dismissButton);
@@ -518,13 +632,10 @@ public class CellBroadcastAlertFullScreen extends Activity {
             return;
         final int subId = message.getSubId();
         final int categoryId = message.getServiceCategory();
-        final TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        final String simIso = tm.getSimCountryIso(subId);
-        final String networkIso = tm.getNetworkCountryIso(subId);
-        final boolean isChileArea = CellBroadcastConfigService.COUNTRY_CHL.equals(simIso);
-        final boolean isPeruArea = CellBroadcastConfigService.COUNTRY_PERU.equals(simIso);
-        Log.d(TAG, "subId = " + subId + ", simIso = " + simIso + ", networkIso = " + networkIso);
-        if (CellBroadcastConfigService.isEmergencyAlertMessage(message) || (isPeruArea && categoryId == 50) || (categoryId == 919 && (isChileArea || isPeruArea)) || (categoryId >= 4396 && categoryId <= 4399)) {
+        Log.d(TAG, "subId = " + subId + ", categoryId = " + categoryId);
+        if (CellBroadcastConfigService.isEmergencyAlertMessage(message)
+                || CellBroadcastChannelTable.get(this, subId)
+                        .hasFlags(message, CellBroadcastChannelTable.ANIMATE_ICON)) {
             if (mAnimationHandler != null) {
                 mAnimationHandler.stopIconAnimation();
             }
@@ -565,13 +676,13 @@ public class CellBroadcastAlertFullScreen extends Activity {
         // Set the opt-out dialog flag if this is a CMAS alert (other than Presidential Alert).
         if (!isOpenAlertDialog && message.isCmasMessage() && message.getCmasMessageClass() !=
                 SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT) {
-            boolean boolResult = SubscriptionManager.getBooleanSubscriptionProperty(
-                    message.getSubId(), SubscriptionManager.CB_OPT_OUT_DIALOG, true, this);
+            boolean boolResult = CellBroadcastSubSettings.get(this, message.getSubId())
+                    .isEnabled(CellBroadcastSubSettings.OPT_OUT_DIALOG);
 
             if (boolResult) {
                 // Clear the flag so the user will only see the opt-out dialog once.
                 Log.d(TAG, "subscriptionId of last message = " + message.getSubId());
-                SubscriptionManager.setSubscriptionProperty(message.getSubId(),
+                CellBroadcastSubSettings.setSubscriptionProperty(message.getSubId(),
                         SubscriptionManager.CB_OPT_OUT_DIALOG, "0");
                 KeyguardManager km = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
                 if (km.inKeyguardRestrictedInputMode()) {
@@ -591,14 +702,12 @@ public class CellBroadcastAlertFullScreen extends Activity {
         if (message == null) {
             return;
         }
-        final long deliveryTime = message.getDeliveryTime();
         // Mark broadcast as read on a background thread.
         new CellBroadcastContentProvider.AsyncCellBroadcastTask(getContentResolver())
                 .execute(new CellBroadcastContentProvider.CellBroadcastOperation() {
                     @Override
                     public boolean execute(CellBroadcastContentProvider provider) {
-                        return provider.markBroadcastRead(
-                                Telephony.CellBroadcasts.DELIVERY_TIME, deliveryTime);
+                        return provider.markBroadcastRead(message);
                     }
                 });
     }
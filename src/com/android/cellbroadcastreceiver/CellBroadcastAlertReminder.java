@@ -29,7 +29,6 @@ import android.os.IBinder;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.telephony.CellBroadcastMessage;
-import android.telephony.SubscriptionManager;
 import android.util.Log;
 import android.media.AudioManager;
 import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
@@ -110,8 +109,8 @@ public class CellBroadcastAlertReminder extends Service {
             loge("can't get Alarm Service");
             return false;
         }
-        int interval = SubscriptionManager.getIntegerSubscriptionProperty(subId,
-                SubscriptionManager.CB_ALERT_REMINDER_INTERVAL, 0, context);
+        int interval = CellBroadcastSubSettings.get(context, subId)
+                .getReminderInterval();
         if (interval == 0) {
             loge("can't reminder");
             return false;
@@ -134,8 +133,8 @@ public class CellBroadcastAlertReminder extends Service {
         // Stop any alert reminder sound and cancel any previously queued reminders.
         cancelAlertReminder();
 
-        int interval = SubscriptionManager.getIntegerSubscriptionProperty(subId,
-                SubscriptionManager.CB_ALERT_REMINDER_INTERVAL, 0, context);
+        int interval = CellBroadcastSubSettings.get(context, subId)
+                .getReminderInterval();
 
         if (interval == 0 || !firstTime) {
             return false;
@@ -26,12 +26,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
@@ -42,17 +42,17 @@ import android.telephony.SmsCbEtwsInfo;
 import android.telephony.SmsCbLocation;
 import android.telephony.SmsCbMessage;
 import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.gsm.SmsCbConstants;
-import com.sprd.cellbroadcastreceiver.provider.CommonSettingTableDefine;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Locale;
 
 /**
@@ -67,6 +67,15 @@ public class CellBroadcastAlertService extends Service {
     /** Intent action to display alert dialog/notification, after verifying the alert is new. */
     static final String SHOW_NEW_ALERT_ACTION = "cellbroadcastreceiver.SHOW_NEW_ALERT";
 
+    /** Intent extra: whether the new alert is shown full screen, classified on receipt. */
+    private static final String FULL_SCREEN_EXTRA = "full_screen";
+
+    /**
+     * Intent extra: delivery time of the ETWS primary notification that this secondary
+     * notification upgrades in place.
+     */
+    static final String ETWS_PRIMARY_TIME_EXTRA = "etws_primary_time";
+
     /** Use the same notification ID for non-emergency alerts. */
     static final int NOTIFICATION_ID = 1;
 
@@ -74,8 +83,7 @@ public class CellBroadcastAlertService extends Service {
     static final String CB_AREA_INFO_RECEIVED_ACTION =
             "android.cellbroadcastreceiver.CB_AREA_INFO_RECEIVED";
     // add for bug 951608 start
-    private boolean mCanNotify = true;
-    private static boolean DBG =true;
+    private static final boolean DBG = CellBroadcastReceiver.DBG;
 
 
     public static boolean DEPEND_ON_SLOT = isDependOnSlot();//SystemProperties.get("depend_on_sim", false);
@@ -98,69 +106,139 @@ public class CellBroadcastAlertService extends Service {
         }
     }
     // add for bug 951608 end
+
+    /** Maximum number of message IDs to save before removing the oldest message ID. */
+    private static final int MAX_MESSAGE_ID_SIZE = 65535;
+
     /**
-     *  Container for service category, serial number, location, body hash code, and ETWS primary/
-     *  secondary information for duplication detection.
+     * Cache of received message IDs, for duplicate message detection. Backed by a file so that
+     * it survives the process being killed.
      */
-    private static final class MessageServiceCategoryAndScope {
-        private final int mServiceCategory;
-        private final int mSerialNumber;
-        private final SmsCbLocation mLocation;
-        private final int mBodyHash;
-        private final boolean mIsEtwsPrimary;
-
-        MessageServiceCategoryAndScope(int serviceCategory, int serialNumber,
-                SmsCbLocation location, int bodyHash, boolean isEtwsPrimary) {
-            mServiceCategory = serviceCategory;
-            mSerialNumber = serialNumber;
-            mLocation = location;
-            mBodyHash = bodyHash;
-            mIsEtwsPrimary = isEtwsPrimary;
-        }
-
-        @Override
-        public int hashCode() {
-            return mLocation.hashCode() + 5 * mServiceCategory + 7 * mSerialNumber + 13 * mBodyHash
-                    + 17 * Boolean.hashCode(mIsEtwsPrimary);
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (o == this) {
-                return true;
-            }
-            if (o instanceof MessageServiceCategoryAndScope) {
-                MessageServiceCategoryAndScope other = (MessageServiceCategoryAndScope) o;
-                return (mServiceCategory == other.mServiceCategory &&
-                        mSerialNumber == other.mSerialNumber &&
-                        mLocation.equals(other.mLocation) &&
-                        mBodyHash == other.mBodyHash &&
-                        mIsEtwsPrimary == other.mIsEtwsPrimary);
-            }
-            return false;
-        }
+    private static CellBroadcastDuplicateTable sDuplicateTable;
+
+    /** Unit of the duplicate expiry windows in custom_config. */
+    private static final long DUPLICATE_EXPIRY_UNIT_MILLIS = 60 * 1000;
+
+    /** Duplicate policy of the current region, or null until it is resolved. */
+    private static CellBroadcastDuplicatePolicy sDuplicatePolicy;
+    private static final Object sDuplicatePolicyLock = new Object();
 
-        @Override
-        public String toString() {
-            return "{mServiceCategory: " + mServiceCategory + " serial number: " + mSerialNumber +
-                    " location: " + mLocation.toString() + " body hash: " + mBodyHash +
-                    " mIsEtwsPrimary: " + mIsEtwsPrimary + "}";
+    /** Recent alerts, for collapsing the copy received on the other SIM of a dual-SIM device. */
+    private static final CellBroadcastCrossSubSuppressor sCrossSubSuppressor =
+            new CellBroadcastCrossSubSuppressor();
+
+    /** Unit of the cross subscription window in custom_config. */
+    private static final long CROSS_SUB_WINDOW_UNIT_MILLIS = 1000;
+
+    /** Recent ETWS primary notifications, for upgrading them with their secondary. */
+    private static final CellBroadcastEtwsCoalescer sEtwsCoalescer =
+            new CellBroadcastEtwsCoalescer();
+
+    /**
+     * Schedules the database work of new broadcasts by priority, batching it into one
+     * transaction during broadcast storms.
+     */
+    private static CellBroadcastIngestWriter sIngestWriter;
+
+    /**
+     * Overrides the emergency_display_first config while not null, so that the latency
+     * benchmark can compare both orders in one run.
+     */
+    @VisibleForTesting
+    static volatile Boolean sDisplayFirstOverride;
+
+    /** Runs the display stage of alerts handed off in process by the ingest writer. */
+    private final Handler mMainHandler = new Handler();
+
+    /** Rate limits the notification updates of non-emergency broadcasts; see onCreate(). */
+    private CellBroadcastNotificationThrottle mNotificationThrottle;
+
+    /**
+     * Takes the alert of a written broadcast straight to {@link #showNewAlert} on the main
+     * thread, instead of parceling it into a startService round trip.
+     */
+    private final CellBroadcastIngestWriter.AlertDispatcher mAlertDispatcher =
+            new CellBroadcastIngestWriter.AlertDispatcher() {
+                @Override
+                public void dispatchAlert(final Intent alertIntent) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isCurrentUser()) {
+                                showNewAlert(alertIntent);
+                            } else {
+                                Log.d(TAG, "Not active user, ignore the alert display");
+                            }
+                        }
+                    });
+                }
+            };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (sDuplicateTable == null) {
+            sDuplicateTable = CellBroadcastDuplicateTable.open(this, MAX_MESSAGE_ID_SIZE);
+        }
+        if (sIngestWriter == null) {
+            Resources res = getResources();
+            sIngestWriter = new CellBroadcastIngestWriter(this,
+                    res.getInteger(R.integer.ingest_batch_size),
+                    res.getInteger(R.integer.ingest_flush_delay_ms),
+                    res.getInteger(R.integer.ingest_queue_capacity),
+                    CellBroadcastJournal.open(this));
         }
+        sIngestWriter.setAlertDispatcher(mAlertDispatcher);
+        mNotificationThrottle = new CellBroadcastNotificationThrottle(mMainHandler,
+                new CellBroadcastNotificationThrottle.Notifier() {
+                    @Override
+                    public void updateNotification(CellBroadcastMessage latest,
+                            boolean alert) {
+                        CellBroadcastAlertService.this.updateNotification(latest, alert);
+                    }
+                }, getResources().getInteger(R.integer.notification_min_interval_ms));
     }
 
-    /** Cache of received message IDs, for duplicate message detection. */
-    private static final HashSet<MessageServiceCategoryAndScope> sCmasIdSet =
-            new HashSet<MessageServiceCategoryAndScope>(8);
-
-    /** Maximum number of message IDs to save before removing the oldest message ID. */
-    private static final int MAX_MESSAGE_ID_SIZE = 65535;
+    @Override
+    public void onDestroy() {
+        // Alerts written from now on go through startService, which creates a new instance.
+        sIngestWriter.clearAlertDispatcher(mAlertDispatcher);
+        mNotificationThrottle.flushAll();
+        super.onDestroy();
+    }
 
-    /** List of message IDs received, for removing oldest ID when max message IDs are received. */
-    private static final ArrayList<MessageServiceCategoryAndScope> sCmasIdList =
-            new ArrayList<MessageServiceCategoryAndScope>(8);
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && "trace".equals(args[0])) {
+            CellBroadcastTrace.dump(pw);
+            return;
+        }
+        if (sIngestWriter != null) {
+            sIngestWriter.dump(pw);
+        }
+        CellBroadcastSubSettings.dump(pw);
+        CellBroadcastNotificationSettings.dump(pw);
+        CellBroadcastLanguageFilter.dump(pw);
+        CellBroadcastMessageRegistry.dump(pw);
+        CellBroadcastReceiverApp.dumpAreaInfo(pw);
+        mNotificationThrottle.dump(pw);
+        CellBroadcastTrace.dumpSummary(pw);
+        CellBroadcastRegionProfile.dump(pw,
+                CellBroadcastLatency.getCount(CellBroadcastLatency.DISPLAY));
+        pw.println("ETWS notifications coalesced=" + sEtwsCoalescer.getCoalescedCount());
+        CellBroadcastLatency.dump(pw);
+    }
 
-    /** Index of message ID to replace with new message ID when max message IDs are received. */
-    private static int sCmasIdListIndex = 0;
+    /** Returns true if this process runs as the foreground user, who may see alerts. */
+    private static boolean isCurrentUser() {
+        try {
+            return UserHandle.myUserId()
+                    == ActivityManagerNative.getDefault().getCurrentUser().id;
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
@@ -171,15 +249,10 @@ public class CellBroadcastAlertService extends Service {
                 Telephony.Sms.Intents.SMS_CB_RECEIVED_ACTION.equals(action)) {
             handleCellBroadcastIntent(intent);
         } else if (SHOW_NEW_ALERT_ACTION.equals(action)) {
-            try {
-                if (UserHandle.myUserId() ==
-                        ActivityManagerNative.getDefault().getCurrentUser().id) {
-                    showNewAlert(intent);
-                } else {
-                    Log.d(TAG,"Not active user, ignore the alert display");
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            if (isCurrentUser()) {
+                showNewAlert(intent);
+            } else {
+                Log.d(TAG,"Not active user, ignore the alert display");
             }
         } else {
             Log.e(TAG, "Unrecognized intent action: " + action);
@@ -188,6 +261,10 @@ public class CellBroadcastAlertService extends Service {
     }
 
     private void handleCellBroadcastIntent(Intent intent) {
+        long receiveTime = CellBroadcastLatency.getReceiveTime(intent);
+        if (receiveTime == 0) {
+            receiveTime = SystemClock.elapsedRealtimeNanos();
+        }
         Bundle extras = intent.getExtras();
         if (extras == null) {
             Log.e(TAG, "received SMS_CB_RECEIVED_ACTION with no extras!");
@@ -203,24 +280,43 @@ public class CellBroadcastAlertService extends Service {
 
         final CellBroadcastMessage cbm = new CellBroadcastMessage(message);
         int subId = intent.getExtras().getInt(PhoneConstants.SUBSCRIPTION_KEY);
-        Log.d(TAG, "handleCellBroadcastIntent: subId = " + subId);
+        if (DBG) Log.d(TAG, "handleCellBroadcastIntent: subId = " + subId);
         if (SubscriptionManager.isValidSubscriptionId(subId)) {
             cbm.setSubId(subId);
         } else {
             Log.e(TAG, "Invalid subscription id");
         }
+        CellBroadcastTrace.event(CellBroadcastTrace.RECEIVED, cbm);
+        final int priority = CellBroadcastIngestWriter.priorityOf(cbm);
+        CellBroadcastLatency.record(CellBroadcastLatency.SERVICE, priority, receiveTime);
         if (!isMessageEnabledByUser(cbm)) {
-            Log.d(TAG, "ignoring alert of type " + cbm.getServiceCategory() +
-                    " by user preference");
+            CellBroadcastTrace.event(CellBroadcastTrace.REJECTED_BY_USER, cbm);
+            if (DBG) {
+                Log.d(TAG, "ignoring alert of type " + cbm.getServiceCategory()
+                        + " by user preference");
+            }
             return;
         }
+        if (getResources().getBoolean(R.bool.filter_broadcast_languages)
+                && !CellBroadcastLanguageFilter.accept(this, cbm)) {
+            CellBroadcastTrace.event(CellBroadcastTrace.REJECTED_BY_LANGUAGE, cbm);
+            if (DBG) {
+                Log.d(TAG, "ignoring broadcast in " + cbm.getLanguageCode()
+                        + " by language preference");
+            }
+            return;
+        }
+        CellBroadcastLatency.record(CellBroadcastLatency.FILTER, priority, receiveTime);
+
+        // The body fingerprint is computed once here and carried along with the message.
+        final long fingerprint = CellBroadcastFingerprint.of(message.getMessageBody());
 
         // If this is an ETWS message, then we want to include the body message to be a factor for
         // duplication detection. We found that some Japanese carriers send ETWS messages
         // with the same serial number, therefore the subsequent messages were all ignored.
         // In the other hand, US carriers have the requirement that only serial number, location,
         // and category should be used for duplicate detection.
-        int hashCode = message.isEtwsMessage() ? message.getMessageBody().hashCode() : 0;
+        long bodyFingerprint = message.isEtwsMessage() ? fingerprint : 0;
 
         // If this is an ETWS message, we need to include primary/secondary message information to
         // be a factor for duplication detection as well. Per 3GPP TS 23.041 section 8.2,
@@ -237,61 +333,238 @@ public class CellBroadcastAlertService extends Service {
         }
 
         // Check for duplicate message IDs according to CMAS carrier requirements. Message IDs
-        // are stored in volatile memory. If the maximum of 65535 messages is reached, the
-        // message ID of the oldest message is deleted from the list.
-        MessageServiceCategoryAndScope newCmasId = new MessageServiceCategoryAndScope(
-                message.getServiceCategory(), message.getSerialNumber(), message.getLocation(),
-                hashCode, isEtwsPrimary);
-
-        Log.d(TAG, "message ID = " + newCmasId);
-
-        // Add the new message ID to the list. It's okay if this is a duplicate message ID,
-        // because the list is only used for removing old message IDs from the hash set.
-        if (sCmasIdList.size() < MAX_MESSAGE_ID_SIZE) {
-            sCmasIdList.add(newCmasId);
-        } else {
-            // Get oldest message ID from the list and replace with the new message ID.
-            MessageServiceCategoryAndScope oldestCmasId = sCmasIdList.get(sCmasIdListIndex);
-            sCmasIdList.set(sCmasIdListIndex, newCmasId);
-            Log.d(TAG, "message ID limit reached, removing oldest message ID " + oldestCmasId);
-            // Remove oldest message ID from the set.
-            sCmasIdSet.remove(oldestCmasId);
-            if (++sCmasIdListIndex >= MAX_MESSAGE_ID_SIZE) {
-                sCmasIdListIndex = 0;
+        // are stored in a memory-mapped file. If the maximum of 65535 messages is reached, the
+        // message ID of the oldest message is deleted from the table. Regions with a duplicate
+        // expiry window also drop message IDs once the window has passed.
+        SmsCbLocation location = message.getLocation();
+        long key = CellBroadcastDuplicateTable.packKey(message.getServiceCategory(),
+                message.getSerialNumber(), location.getLac(), isEtwsPrimary);
+        long packedLocation = CellBroadcastDuplicateTable.packLocation(location);
+
+        if (DBG) {
+            Log.d(TAG, "message ID = {mServiceCategory: " + message.getServiceCategory()
+                    + " serial number: " + message.getSerialNumber() + " location: " + location
+                    + " body fingerprint: " + bodyFingerprint + " mIsEtwsPrimary: "
+                    + isEtwsPrimary + "}");
+        }
+
+        // Returns false if the message ID has already been added and has not expired
+        long now = System.currentTimeMillis();
+        long expiryTime = getDuplicatePolicy().getExpiryTime(message, now);
+        if (!sDuplicateTable.add(key, packedLocation, bodyFingerprint, expiryTime, now)) {
+            CellBroadcastTrace.event(CellBroadcastTrace.DUPLICATE, cbm);
+            if (DBG) {
+                Log.d(TAG, "ignoring duplicate alert with category "
+                        + message.getServiceCategory() + " serial number "
+                        + message.getSerialNumber());
             }
+            return;
         }
-        // Set.add() returns false if message ID has already been added
-        if (!sCmasIdSet.add(newCmasId)) {
-            Log.d(TAG, "ignoring duplicate alert with " + newCmasId);
+
+        if (collapseCrossSubCopy(message, cbm, subId, fingerprint, now)) {
+            CellBroadcastTrace.event(CellBroadcastTrace.CROSS_SUB_COPY, cbm);
             return;
         }
+        CellBroadcastLatency.record(CellBroadcastLatency.DEDUP, priority, receiveTime);
+
+        boolean hasBody = cbm.getServiceCategory()
+                == SmsCbConstants.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL
+                || TextUtils.getTrimmedLength(cbm.getMessageBody()) > 0; //Bug 984772
+
+        // An empty notification is dropped below, so it must not consume the entry of an ETWS
+        // primary, which a valid secondary that follows it should still upgrade.
+        final long etwsPrimaryTime = hasBody ? coalesceEtwsNotification(message, subId,
+                cbm.getDeliveryTime(), now) : CellBroadcastEtwsCoalescer.NO_PRIMARY;
 
-        if (cbm.getServiceCategory() == SmsCbConstants.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL || TextUtils.getTrimmedLength(cbm.getMessageBody()) > 0) { //Bug 984772
+        if (hasBody) {
             final Intent alertIntent = new Intent(SHOW_NEW_ALERT_ACTION);
             alertIntent.setClass(this, CellBroadcastAlertService.class);
-            alertIntent.putExtra("message", cbm);
-
-            // write to database on a background thread
-            new CellBroadcastContentProvider.AsyncCellBroadcastTask(getContentResolver())
-                    .execute(new CellBroadcastContentProvider.CellBroadcastOperation() {
-                        @Override
-                        public boolean execute(CellBroadcastContentProvider provider) {
-                            if (provider.insertNewBroadcast(cbm)) {
-                                // new message, show the alert or notification on UI thread
-                                startService(alertIntent);
-                                return true;
-                            } else {
-                                return false;
+            CellBroadcastMessageRegistry.putMessage(alertIntent, cbm, fingerprint);
+            alertIntent.putExtra(FULL_SCREEN_EXTRA, isFullScreenAlert(cbm));
+            CellBroadcastLatency.putReceiveTime(alertIntent, receiveTime, priority);
+
+            if (etwsPrimaryTime != CellBroadcastEtwsCoalescer.NO_PRIMARY) {
+                // The secondary takes over the row and the dialog entry of its primary, whose
+                // alert tone keeps playing. Queued behind the insert of the primary, and
+                // journaled so that a replay stores it as a row of its own.
+                alertIntent.putExtra(ETWS_PRIMARY_TIME_EXTRA, etwsPrimaryTime);
+                CellBroadcastTrace.event(CellBroadcastTrace.ETWS_UPGRADE, cbm);
+                boolean displayFirst = displayFirst(priority);
+                sIngestWriter.enqueue(cbm,
+                        new CellBroadcastContentProvider.CellBroadcastOperation() {
+                            @Override
+                            public boolean execute(CellBroadcastContentProvider provider) {
+                                int result = provider.upgradeEtwsPrimary(etwsPrimaryTime, cbm);
+                                // The upgraded row keeps the delivery time of the primary,
+                                // so only an inserted secondary resolves by its own handle.
+                                if (result == CellBroadcastContentProvider.WRITE_STORED) {
+                                    CellBroadcastMessageRegistry.markStored(cbm);
+                                }
+                                return result != CellBroadcastContentProvider.WRITE_FAILED;
                             }
-                        }
-                    });
+                        }, displayFirst ? null : alertIntent, priority, receiveTime);
+                if (!displayFirst) {
+                    CellBroadcastTrace.event(CellBroadcastTrace.QUEUED, cbm);
+                } else if (isCurrentUser()) {
+                    showNewAlert(alertIntent);
+                } else {
+                    Log.d(TAG, "Not active user, ignore the alert display");
+                }
+                return;
+            }
+            if (displayFirst(priority)) {
+                // Display-first fast lane: start the alert and its audio now, so that the
+                // database write is not on the path to the alert tone. The ingest writer
+                // retries the write until it succeeds.
+                sIngestWriter.enqueue(cbm, null, priority, receiveTime);
+                CellBroadcastTrace.event(CellBroadcastTrace.FAST_LANE, cbm);
+                if (isCurrentUser()) {
+                    showNewAlert(alertIntent);
+                } else {
+                    Log.d(TAG, "Not active user, ignore the alert display");
+                }
+                return;
+            }
+
+            // write to database on the ingest thread, batched with other broadcasts received
+            // at the same time; the alert or notification is shown once the batch is written,
+            // normally by handing the intent back to this service in process.
+            // Emergency alerts go ahead of other work and are written right away.
+            sIngestWriter.enqueue(cbm, alertIntent, priority, receiveTime);
+            CellBroadcastTrace.event(CellBroadcastTrace.QUEUED, cbm);
         //Bug 984772 begin
         } else {
-            Log.d(TAG, "cbm messsageBody is empty, discard it.");
+            CellBroadcastTrace.event(CellBroadcastTrace.EMPTY_BODY, cbm);
+            if (DBG) Log.d(TAG, "cbm messsageBody is empty, discard it.");
         }
         //Bug 984772 end
     }
 
+    /** Returns true if alerts of a priority class are shown before they are written. */
+    private boolean displayFirst(int priority) {
+        if (!CellBroadcastIngestWriter.isUrgent(priority)) {
+            return false;
+        }
+        Boolean override = sDisplayFirstOverride;
+        return override != null ? override
+                : getResources().getBoolean(R.bool.emergency_display_first);
+    }
+
+    /**
+     * Collapses a copy of an alert already received on the other subscription into the row of
+     * the first copy, if the current region enables cross subscription suppression.
+     * @return true if the message was collapsed and needs no further handling
+     */
+    private boolean collapseCrossSubCopy(SmsCbMessage message, CellBroadcastMessage cbm,
+            final int subId, long fingerprint, long now) {
+        SharedPreferences prefs = getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        long window = prefs.getInt("mCrossSubWindow", 0) * CROSS_SUB_WINDOW_UNIT_MILLIS;
+        if (window <= 0 || !SubscriptionManager.isValidSubscriptionId(subId)) {
+            return false;
+        }
+        int keyFlags = prefs.getInt("mCrossSubKey",
+                CellBroadcastCrossSubSuppressor.DEFAULT_KEY_FLAGS);
+        int entry = sCrossSubSuppressor.findOrAdd(message, subId, cbm.getDeliveryTime(),
+                fingerprint, window, keyFlags, now);
+        if (entry < 0) {
+            return false;
+        }
+
+        final int firstSubId = sCrossSubSuppressor.getSubId(entry);
+        final long firstDeliveryTime = sCrossSubSuppressor.getDeliveryTime(entry);
+        if (DBG) {
+            Log.d(TAG, "alert with category " + message.getServiceCategory()
+                    + " serial number " + message.getSerialNumber()
+                    + " already received on sub " + firstSubId);
+        }
+        // Queued behind the insert of the first copy, which has the same priority.
+        sIngestWriter.enqueue(new CellBroadcastContentProvider.CellBroadcastOperation() {
+                    @Override
+                    public boolean execute(CellBroadcastContentProvider provider) {
+                        return provider.markAlsoReceivedOnSub(firstDeliveryTime, firstSubId,
+                                subId);
+                    }
+                }, CellBroadcastIngestWriter.priorityOf(cbm));
+        return true;
+    }
+
+    /**
+     * Records an ETWS primary notification, or finds the primary that an ETWS secondary
+     * notification received within the coalescing window upgrades.
+     * @return the delivery time of the primary to upgrade, or
+     *         {@link CellBroadcastEtwsCoalescer#NO_PRIMARY}
+     */
+    private long coalesceEtwsNotification(SmsCbMessage message, int subId, long deliveryTime,
+            long now) {
+        SmsCbEtwsInfo etwsInfo = message.getEtwsWarningInfo();
+        long window = getResources().getInteger(R.integer.etws_coalesce_window_ms);
+        if (!message.isEtwsMessage() || etwsInfo == null || window <= 0) {
+            return CellBroadcastEtwsCoalescer.NO_PRIMARY;
+        }
+        if (etwsInfo.isPrimary()) {
+            sEtwsCoalescer.addPrimary(message, subId, deliveryTime, now);
+            return CellBroadcastEtwsCoalescer.NO_PRIMARY;
+        }
+        long primaryTime = sEtwsCoalescer.takePrimary(message, subId, window, now);
+        if (DBG && primaryTime != CellBroadcastEtwsCoalescer.NO_PRIMARY) {
+            Log.d(TAG, "ETWS secondary notification with serial number "
+                    + message.getSerialNumber() + " upgrades its primary");
+        }
+        return primaryTime;
+    }
+
+    /**
+     * Returns the duplicate detection policy of the current region, resolving it if the
+     * config_mnc_mcc match changed since it was last resolved.
+     */
+    private CellBroadcastDuplicatePolicy getDuplicatePolicy() {
+        synchronized (sDuplicatePolicyLock) {
+            if (sDuplicatePolicy == null) {
+                sDuplicatePolicy = resolveDuplicatePolicy();
+                Log.d(TAG, "duplicate policy: " + sDuplicatePolicy);
+            }
+            return sDuplicatePolicy;
+        }
+    }
+
+    /**
+     * Drops the cached duplicate detection policy. Called once the config_mnc_mcc entry of
+     * the current network has been matched again.
+     */
+    static void invalidateDuplicatePolicy() {
+        synchronized (sDuplicatePolicyLock) {
+            sDuplicatePolicy = null;
+        }
+    }
+
+    /**
+     * Count-based unless the matched config_mnc_mcc entry sets a duplicate expiry window, for
+     * all broadcasts or for some channels.
+     */
+    private CellBroadcastDuplicatePolicy resolveDuplicatePolicy() {
+        SharedPreferences prefs = getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        long window = prefs.getInt("mDupExpiry", 0) * DUPLICATE_EXPIRY_UNIT_MILLIS;
+        long emergencyWindow = prefs.getInt("mDupExpiryEmergency", 0)
+                * DUPLICATE_EXPIRY_UNIT_MILLIS;
+        String channelWindows = prefs.getString("mDupExpiryChannels", "");
+        if (!TextUtils.isEmpty(channelWindows)) {
+            try {
+                return CellBroadcastDuplicatePolicy.TimeWindow.withChannelWindows(window,
+                        emergencyWindow, channelWindows, DUPLICATE_EXPIRY_UNIT_MILLIS);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "ignoring malformed dupExpiryChannels " + channelWindows, e);
+            }
+        }
+        if (window <= 0 && emergencyWindow <= 0) {
+            return CellBroadcastDuplicatePolicy.COUNT_BASED;
+        }
+        return new CellBroadcastDuplicatePolicy.TimeWindow(window, emergencyWindow);
+    }
+
+    /**
+     * Shows the alert or notification of a new broadcast.
+     * @param intent the SHOW_NEW_ALERT_ACTION intent
+     */
     private void showNewAlert(Intent intent) {
         Bundle extras = intent.getExtras();
         if (extras == null) {
@@ -299,44 +572,46 @@ public class CellBroadcastAlertService extends Service {
             return;
         }
 
-        CellBroadcastMessage cbm = (CellBroadcastMessage) intent.getParcelableExtra("message");
+        CellBroadcastMessage cbm = CellBroadcastMessageRegistry.getMessage(this, intent);
 
         if (cbm == null) {
             Log.e(TAG, "received SHOW_NEW_ALERT_ACTION with no message extra");
             return;
         }
-        Resources res = this.getResources();
-        int messageId =cbm.getServiceCategory();
-        int subId = cbm.getSubId();
-        TelephonyManager tm =(TelephonyManager)getSystemService(Context.TELEPHONY_SERVICE);
-        boolean supportchile,supportPeru,supportDubai,supportTw,supportEmergencyAlert;
-        supportchile = res.getBoolean(R.bool.show_chile_settings) && ("cl".equals(tm.getSimCountryIso(subId))
-                || "cl".equals(tm.getNetworkCountryIso(subId)));
-        supportPeru = res.getBoolean(R.bool.show_peru_settings) && ("pe".equals(tm.getSimCountryIso(subId))
-                || "pe".equals(tm.getNetworkCountryIso(subId)));
-        supportDubai = res.getBoolean(R.bool.show_dubai_settings) && ("ae".equals(tm.getSimCountryIso(subId))
-                || "ae".equals(tm.getNetworkCountryIso(subId)));
-        supportTw = res.getBoolean(R.bool.show_taiwan_settings) && ("tw".equals(tm.getSimCountryIso(subId)) || "tw".equals(tm.getNetworkCountryIso(subId)));
-        supportEmergencyAlert = CellBroadcastConfigService.isEmergencyAlertMessage(cbm) ||
-                (((supportchile || supportPeru) && messageId != 4380) && CellBroadcastConfigService.isEmergencyAlertMessage(cbm)) ||
-                (supportchile && messageId == 919) || ((messageId == 919 || messageId == 50
-                || (messageId>=4396 && messageId<= 4399)) && (supportPeru || supportDubai))
-                || ((messageId >= 4370 && messageId <= 4394) && (supportDubai ||supportTw));
-        if (DBG){
-            Log.d(TAG, "subId = " + subId + " messageId = " + messageId + " supportchile = " + supportchile
-            + " supportPeru = " + supportPeru + " supportDubai = " + supportDubai + " supportEmergencyAlert = " + supportEmergencyAlert);
-        }
+        CellBroadcastLatency.record(CellBroadcastLatency.DISPLAY, intent);
+        // Alerts handed off by the ingest writer were classified on receipt.
+        boolean supportEmergencyAlert = intent.hasExtra(FULL_SCREEN_EXTRA)
+                ? intent.getBooleanExtra(FULL_SCREEN_EXTRA, false) : isFullScreenAlert(cbm);
         //Movistar feature start
         if (supportEmergencyAlert) {
         //Movistar feature end
             // start alert sound / vibration / TTS and display full-screen alert
-            openEmergencyAlertNotification(cbm);
+            CellBroadcastTrace.event(CellBroadcastTrace.ALERT_SHOWN, cbm);
+            openEmergencyAlertNotification(cbm, CellBroadcastFingerprint.fromIntent(intent, cbm),
+                    intent.getLongExtra(ETWS_PRIMARY_TIME_EXTRA,
+                            CellBroadcastEtwsCoalescer.NO_PRIMARY), intent);
         } else {
             // add notification to the bar
-            addToNotificationBar(cbm);
+            CellBroadcastTrace.event(CellBroadcastTrace.NOTIFIED, cbm);
+            addToNotificationBar(cbm, CellBroadcastFingerprint.fromIntent(intent, cbm));
        }
     }
 
+    /**
+     * Returns true if the broadcast is shown as a full-screen emergency alert, or false if it
+     * only goes to the notification bar.
+     */
+    private boolean isFullScreenAlert(CellBroadcastMessage cbm) {
+        boolean supportEmergencyAlert = CellBroadcastConfigService.isEmergencyAlertMessage(cbm)
+                || CellBroadcastChannelTable.get(this, cbm.getSubId())
+                        .hasFlags(cbm, CellBroadcastChannelTable.FULL_SCREEN);
+        if (DBG){
+            Log.d(TAG, "subId = " + cbm.getSubId() + " messageId = " + cbm.getServiceCategory()
+                    + " supportEmergencyAlert = " + supportEmergencyAlert);
+        }
+        return supportEmergencyAlert;
+    }
+
     /**
      * Filter out broadcasts on the test channels that the user has not enabled,
      * and types of notifications that the user is not interested in receiving.
@@ -350,27 +625,28 @@ public class CellBroadcastAlertService extends Service {
      * @return true if the user has enabled this message type; false otherwise
      */
     private boolean isMessageEnabledByUser(CellBroadcastMessage message) {
+        // All the subscription properties come from one cached snapshot.
+        CellBroadcastSubSettings settings = CellBroadcastSubSettings.get(this, message.getSubId());
 
         // Check if all emergency alerts are disabled.
-        boolean emergencyAlertEnabled = SubscriptionManager.getBooleanSubscriptionProperty(message.getSubId(),
-                            SubscriptionManager.CB_EMERGENCY_ALERT, true, this);
+        boolean emergencyAlertEnabled =
+                settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT);
 
         // Check if ETWS/CMAS test message is forced to disabled on the device.
         boolean forceDisableEtwsCmasTest =
                 CellBroadcastSettings.isEtwsCmasTestMessageForcedDisabled(this, message.getSubId());
-        TelephonyManager tm = (TelephonyManager) getSystemService(
-                Context.TELEPHONY_SERVICE);
-        boolean supportAreas = "ae".equals(tm.getSimCountryIso(message.getSubId())) || "pe".equals(tm.getSimCountryIso(message.getSubId()))
-                || "cl".equals(tm.getSimCountryIso(message.getSubId()));
+        boolean supportAreas = CellBroadcastRegionProfile.get(this, message.getSubId())
+                .isSimIn(CellBroadcastRegionProfile.REGION_DUBAI
+                        | CellBroadcastRegionProfile.REGION_PERU
+                        | CellBroadcastRegionProfile.REGION_CHILE);
         if(supportAreas){
             return true;
         }
 
         if (message.isEtwsTestMessage()) {
-            return emergencyAlertEnabled &&
-                    !forceDisableEtwsCmasTest &&
-                    SubscriptionManager.getBooleanSubscriptionProperty(
-                    message.getSubId(), SubscriptionManager.CB_ETWS_TEST_ALERT, false, this);
+            return !forceDisableEtwsCmasTest
+                    && settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT
+                            | CellBroadcastSubSettings.ETWS_TEST_ALERT);
         }
 
         if (message.isEtwsMessage()) {
@@ -386,35 +662,36 @@ public class CellBroadcastAlertService extends Service {
             }
             switch (message.getCmasMessageClass()) {
                 case SmsCbCmasInfo.CMAS_CLASS_EXTREME_THREAT:
-                    return emergencyAlertEnabled &&
-                            SubscriptionManager.getBooleanSubscriptionProperty(
-                            message.getSubId(), SubscriptionManager.CB_EXTREME_THREAT_ALERT, true, this);
+                    return settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT
+                            | CellBroadcastSubSettings.EXTREME_THREAT_ALERT);
 
                 case SmsCbCmasInfo.CMAS_CLASS_SEVERE_THREAT:
-                    return emergencyAlertEnabled &&
-                            SubscriptionManager.getBooleanSubscriptionProperty(
-                            message.getSubId(), SubscriptionManager.CB_SEVERE_THREAT_ALERT, true, this);
+                    return settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT
+                            | CellBroadcastSubSettings.SEVERE_THREAT_ALERT);
 
                 case SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY:
-                    return emergencyAlertEnabled &&
-                            SubscriptionManager.getBooleanSubscriptionProperty(
-                            message.getSubId(), SubscriptionManager.CB_AMBER_ALERT, true, this);
+                    return settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT
+                            | CellBroadcastSubSettings.AMBER_ALERT);
 
                 case SmsCbCmasInfo.CMAS_CLASS_REQUIRED_MONTHLY_TEST:
                 case SmsCbCmasInfo.CMAS_CLASS_CMAS_EXERCISE:
                 case SmsCbCmasInfo.CMAS_CLASS_OPERATOR_DEFINED_USE:
-                    return emergencyAlertEnabled &&
-                            !forceDisableEtwsCmasTest &&
-                            SubscriptionManager.getBooleanSubscriptionProperty(
-                            message.getSubId(), SubscriptionManager.CB_CMAS_TEST_ALERT, false, this);
+                    return !forceDisableEtwsCmasTest
+                            && settings.isEnabled(CellBroadcastSubSettings.EMERGENCY_ALERT
+                                    | CellBroadcastSubSettings.CMAS_TEST_ALERT);
                 default:
                     return true;    // presidential-level CMAS alerts are always enabled
             }
         }
 
         if (message.getServiceCategory() == 50) {
-            // save latest area info broadcast for Settings display and send as broadcast
-            CellBroadcastReceiverApp.setLatestAreaInfo(message);
+            // save latest area info broadcast for Settings display, and send as broadcast if
+            // it changed; apps can also query it from AREA_INFO_URI
+            if (!CellBroadcastReceiverApp.setLatestAreaInfo(message,
+                    getResources().getInteger(R.integer.area_info_resend_interval_ms))) {
+                return true;   // for bug667052
+            }
+            getContentResolver().notifyChange(CellBroadcastContentProvider.AREA_INFO_URI, null);
             Intent intent = new Intent(CB_AREA_INFO_RECEIVED_ACTION);
             intent.putExtra("message", message);
             // Send broadcast twice, once for apps that have PRIVILEGED permission and once
@@ -432,8 +709,14 @@ public class CellBroadcastAlertService extends Service {
     /**
      * Display a full-screen alert message for emergency alerts.
      * @param message the alert to display
+     * @param fingerprint the fingerprint of the message body
+     * @param etwsPrimaryTime delivery time of the ETWS primary notification the message
+     *        upgrades, or {@link CellBroadcastEtwsCoalescer#NO_PRIMARY}
+     * @param showIntent the SHOW_NEW_ALERT_ACTION intent, whose {@link CellBroadcastLatency}
+     *        receive time is passed on to the audio and the alert dialog
      */
-    private void openEmergencyAlertNotification(CellBroadcastMessage message) {
+    private void openEmergencyAlertNotification(CellBroadcastMessage message,
+            long fingerprint, long etwsPrimaryTime, Intent showIntent) {
         // Acquire a screen bright wakelock until the alert dialog and audio start playing.
 //        CellBroadcastAlertWakeLock.acquireScreenCpuWakeLock(this);
         // Close dialogs and window shade
@@ -456,18 +739,25 @@ public class CellBroadcastAlertService extends Service {
         if(mIsMatchedMccmnc){
             duration= mDuration;
         }
+        int channelFlags =
+                CellBroadcastChannelTable.get(this, message.getSubId()).getFlags(messageId);
         audioIntent.putExtra(CellBroadcastAlertAudio.MESSAGE_ID,messageId);
+        audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_CHANNEL_FLAGS_EXTRA, channelFlags);
         audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_DURATION_EXTRA, duration);
+        // An upgraded primary is still alerting; only its speech text changes.
+        audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_UPDATE_EXTRA,
+                etwsPrimaryTime != CellBroadcastEtwsCoalescer.NO_PRIMARY);
 
-        if (message.isEtwsMessage() || ((messageId == 4370 || messageId == 919 || (messageId>=4396 && messageId<= 4399) || (messageId>=4380 && messageId<= 4383)) && getResources().getBoolean(R.bool.Movistar_feature_control))){
+        if (message.isEtwsMessage()
+                || (channelFlags & CellBroadcastChannelTable.FORCE_VIBRATE) != 0) {
         //Movistar feature end
             // For ETWS, always vibrate, even in silent mode.
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_VIBRATE_EXTRA, true);
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_ETWS_VIBRATE_EXTRA, true);
         } else {
             // For other alerts, vibration can be disabled in app settings.
-            boolean vibrateFlag = SubscriptionManager.getBooleanSubscriptionProperty(
-                    message.getSubId(), SubscriptionManager.CB_ALERT_VIBRATE, true, this);
+            boolean vibrateFlag = CellBroadcastSubSettings.get(this, message.getSubId())
+                    .isEnabled(CellBroadcastSubSettings.ALERT_VIBRATE);
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_VIBRATE_EXTRA, vibrateFlag);
 		}
         // sprd 559068 start 2016.5.10
@@ -480,8 +770,8 @@ public class CellBroadcastAlertService extends Service {
         // sprd 559068 end 2016.5.10
         String messageBody = message.getMessageBody();
 
-        if (SubscriptionManager.getBooleanSubscriptionProperty(message.getSubId(),
-                SubscriptionManager.CB_ALERT_SPEECH, true, this)) {
+        if (CellBroadcastSubSettings.get(this, message.getSubId())
+                .isEnabled(CellBroadcastSubSettings.ALERT_SPEECH)) {
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_MESSAGE_BODY, messageBody);
 
             String preferredLanguage = message.getLanguageCode();
@@ -511,19 +801,23 @@ public class CellBroadcastAlertService extends Service {
             audioIntent.putExtra(CellBroadcastAlertAudio.ALERT_AUDIO_MESSAGE_DEFAULT_LANGUAGE,
                     defaultLanguage);
         }
+        CellBroadcastLatency.copyReceiveTime(showIntent, audioIntent);
         checkAndStopLockTask();
         startService(audioIntent);
 
         final Intent alertIntent = new Intent(CellBroadcastAlertService.SHOW_NEW_ALERT_ACTION);
         alertIntent.setClass(this, CellBroadcastAlertService.class);
-        alertIntent.putExtra("message", message);
+        CellBroadcastMessageRegistry.putMessage(alertIntent, message, fingerprint);
         CellBroadcastAlertReminder.queueAlertReminder(this, message.getSubId(), duration, alertIntent);
 
         Class c = CellBroadcastAlertFullScreen.class;
         ArrayList<CellBroadcastMessage> messageList = new ArrayList<CellBroadcastMessage>(1);
         messageList.add(message);
 
-        Intent alertDialogIntent = createDisplayMessageIntent(this, c, messageList);
+        Intent alertDialogIntent = createDisplayMessageIntent(this, c, messageList,
+                new long[] {fingerprint});
+        alertDialogIntent.putExtra(ETWS_PRIMARY_TIME_EXTRA, etwsPrimaryTime);
+        CellBroadcastLatency.copyReceiveTime(showIntent, alertDialogIntent);
         alertDialogIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         startActivity(alertDialogIntent);
     }
@@ -543,8 +837,26 @@ public class CellBroadcastAlertService extends Service {
      * Add the new alert to the notification bar (non-emergency alerts), or launch a
      * high-priority immediate intent for emergency alerts.
      * @param message the alert to display
+     * @param fingerprint the fingerprint of the message body
+     */
+    private void addToNotificationBar(CellBroadcastMessage message, long fingerprint) {
+        // The unread list is always current; the notification itself is rate limited.
+        CellBroadcastReceiverApp.addNewMessage(message, fingerprint);
+        mNotificationThrottle.onNewMessage(message);
+    }
+
+    /**
+     * Posts the notification of the unread non-emergency broadcasts.
+     * @param message the latest message, shown if it is the only unread one
+     * @param alert whether the notification makes sound and vibrates; false for the later
+     *        updates of a burst
      */
-    private void addToNotificationBar(CellBroadcastMessage message) {
+    private void updateNotification(CellBroadcastMessage message, boolean alert) {
+        int unreadCount = CellBroadcastReceiverApp.getNewMessageCount();
+        if (unreadCount == 0) {
+            // Read or dismissed before a deferred update ran.
+            return;
+        }
         int channelTitleId = CellBroadcastResources.getDialogTitleResource(message, getApplicationContext());
         //add for bug 609438 start
         CharSequence channelName = getText(channelTitleId);
@@ -556,13 +868,11 @@ public class CellBroadcastAlertService extends Service {
         //add for bug 609438 end
         String messageBody = message.getMessageBody();
 
-        // Pass the list of unread non-emergency CellBroadcastMessages
-        ArrayList<CellBroadcastMessage> messageList = CellBroadcastReceiverApp
-                .addNewMessageToList(message);
-
-        // Create intent to show the new messages when user selects the notification.
-        Intent intent = createDisplayMessageIntent(this, CellBroadcastAlertDialog.class,
-                messageList);
+        // Create intent to show the new messages when user selects the notification. It only
+        // carries their keys, so that its size doesn't grow with the number of messages.
+        Intent intent = new Intent(this, CellBroadcastAlertDialog.class);
+        intent.putExtra(CellBroadcastReceiverApp.NEW_MESSAGE_KEYS_EXTRA,
+                CellBroadcastReceiverApp.getNewMessageKeys());
         intent.putExtra(CellBroadcastAlertFullScreen.OPEN_ALERT_DIALOG, true);
         intent.putExtra(CellBroadcastAlertFullScreen.FROM_NOTIFICATION_EXTRA, true);
 
@@ -580,13 +890,18 @@ public class CellBroadcastAlertService extends Service {
                 .setVisibility(Notification.VISIBILITY_PUBLIC);
 
         builder.setDefaults(Notification.DEFAULT_LIGHTS);
-        builder.setSound(getSoundUri(message));
-        if (mCanNotify) {
-            builder.setDefaults(Notification.DEFAULT_VIBRATE);
+        if (alert) {
+            CellBroadcastNotificationSettings settings = CellBroadcastNotificationSettings.get(
+                    this, message.getSubId(), message.getServiceCategory());
+            builder.setSound(settings.getSoundUri());
+            if (settings.isVibrateEnabled()) {
+                builder.setDefaults(Notification.DEFAULT_VIBRATE);
+            }
+        } else {
+            builder.setOnlyAlertOnce(true);
         }
 
-        // increment unread alert count (decremented when user dismisses alert dialog)
-        int unreadCount = messageList.size();
+        // unread alert count (decremented when user dismisses alert dialog)
         if (unreadCount > 1) {
             // use generic count of unread broadcasts if more than one unread
             builder.setContentTitle(getString(R.string.notification_multiple_title));
@@ -602,10 +917,12 @@ public class CellBroadcastAlertService extends Service {
     }
 
     static Intent createDisplayMessageIntent(Context context, Class intentClass,
-            ArrayList<CellBroadcastMessage> messageList) {
+            ArrayList<CellBroadcastMessage> messageList, long[] fingerprints) {
         // Trigger the list activity to fire up a dialog that shows the received messages
         Intent intent = new Intent(context, intentClass);
-        intent.putParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, messageList);
+        // Only the handles are parceled; the dialog takes the messages from the registry.
+        intent.putExtra(CellBroadcastMessageRegistry.HANDLES_EXTRA,
+                CellBroadcastMessageRegistry.registerAll(messageList, fingerprints, false));
         intent.putExtra(CellBroadcastAlertFullScreen.OPEN_ALERT_DIALOG, false);
         return intent;
     }
@@ -614,53 +931,5 @@ public class CellBroadcastAlertService extends Service {
     public IBinder onBind(Intent intent) {
         return null;    // clients can't bind to this service
     }
-    // add for bug 951608 start
-    private Uri getSoundUri(CellBroadcastMessage message) {
-        int subId = message.getSubId();
-        String ringtoneUri = null;
-        Cursor cursor = null;
-        try {
-            if (DEPEND_ON_SLOT) {
-                String[] select_column = {RING_URL};
-                cursor = getContentResolver().query(CommonSettingTableDefine.COMMON_SETTING_URI,
-                        select_column,
-                        SUB_ID + "=" + subId, null,
-                        null);
-                if (cursor == null || cursor.getCount() == 0) {
-                    return Uri.parse(DEFAULT_RINGTONE);
-                }
-                Log.d(TAG, "---getRingtoneUri---subId=" + subId + " and cursor.getcount=" + cursor.getCount());
-                cursor.moveToFirst();
-                int index = cursor.getColumnIndex(RING_URL);
-                ringtoneUri = cursor.getString(index);
-                Log.d(TAG, "ringtoneName is:" + ringtoneUri);
-            } else {
-                int channelId = message.getServiceCategory();
-                String[] select_soundUri = {SOUND_URI, NOTIFICATION};
-                cursor = getContentResolver().query(mChannelUri,
-                    select_soundUri,
-                    SUB_ID + "=" + subId + " AND "+  CHANNEL_ID + "=" + channelId,
-                    null, null);
-                if (cursor == null || cursor.getCount() == 0) {
-                    return Uri.parse(DEFAULT_RINGTONE);
-                }
-                cursor.moveToFirst();
-                ringtoneUri = cursor.getString(cursor.getColumnIndex(SOUND_URI));
-                mCanNotify = cursor.getInt(cursor.getColumnIndex(NOTIFICATION)) == 1;
-                Log.d(TAG, "ringtoneUri is:----" + ringtoneUri + "channelId = " + channelId);
-            }
-        } catch (SQLiteException e) {
-            e.printStackTrace();
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            if (ringtoneUri != null) {
-                return Uri.parse(ringtoneUri);
-            } else {
-                return null;
-            }
-        }
-    }
-    // add for bug 951608 end
+
 }
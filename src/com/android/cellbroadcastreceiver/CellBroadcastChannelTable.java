@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telephony.CellBroadcastMessage;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Region specific handling of broadcast channels, declared as a rule table and compiled into
+ * one packed entry per message identifier. The rules hold what used to be message identifier
+ * comparisons spread over the alert service, the alert dialog, the alert audio service and
+ * the dialog titles, so every call site now gets its answer from one array read.
+ *
+ * <p>An entry holds behavior flags in its low byte and, in its high byte, the index of the
+ * dialog title that replaces the standard one (0 for none). The flags apply on top of the
+ * handling of standard emergency alerts: e.g. a broadcast is shown full screen if it is an
+ * emergency alert or if its channel has {@link #FULL_SCREEN}.
+ *
+ * <p>A table depends on the region profile of the subscription and on the device and carrier
+ * customization. Tables are compiled on first use and cached per combination of those.
+ */
+final class CellBroadcastChannelTable {
+
+    private static final String PREFERENCE_NAME = "custom_config";
+
+    /** Shown full screen with alert audio instead of as a notification. */
+    static final int FULL_SCREEN = 1 << 0;
+    /** Keeps the screen on while the alert dialog is shown. */
+    static final int KEEP_SCREEN_ON = 1 << 1;
+    /** Animates the icon of the alert dialog. */
+    static final int ANIMATE_ICON = 1 << 2;
+    /** Vibrates even if vibration is off in settings. */
+    static final int FORCE_VIBRATE = 1 << 3;
+    /** Plays the information tone instead of the alert tone. */
+    static final int INFO_TONE = 1 << 4;
+
+    private static final int FLAGS_MASK = 0xff;
+    private static final int TITLE_SHIFT = 8;
+
+    // Conditions of the rules, each a fact about the subscription or the device.
+    static final int ALWAYS = 0;
+    static final int CHILE = 1 << 0;
+    static final int PERU = 1 << 1;
+    static final int DUBAI = 1 << 2;
+    static final int TAIWAN = 1 << 3;
+    static final int NEWZEALAND = 1 << 4;
+    static final int SIM_CHILE = 1 << 5;
+    static final int SIM_PERU = 1 << 6;
+    static final int MOVISTAR = 1 << 7;
+    static final int MCC_UAE = 1 << 8;
+    static final int POP_TITLE = 1 << 9;
+
+    /** Mobile country code of the United Arab Emirates. */
+    private static final int UAE_MCC = 424;
+
+    /**
+     * The rules: condition, first message id, last message id, flags, title. A rule applies
+     * if all the condition bits in its first column are set. The flags of all the rules that
+     * apply are combined; the title is the one of the first rule that applies and has one.
+     */
+    private static final int[][] RULES = {
+            {ALWAYS, 919, 919, KEEP_SCREEN_ON, 0},
+            {ALWAYS, 4396, 4399, KEEP_SCREEN_ON | ANIMATE_ICON, 0},
+
+            {CHILE, 919, 919, FULL_SCREEN, 0},
+            {PERU, 50, 50, FULL_SCREEN, 0},
+            {PERU, 919, 919, FULL_SCREEN, 0},
+            {PERU, 4396, 4399, FULL_SCREEN, 0},
+            {DUBAI, 50, 50, FULL_SCREEN, 0},
+            {DUBAI, 919, 919, FULL_SCREEN, 0},
+            {DUBAI, 4370, 4394, FULL_SCREEN, 0},
+            {DUBAI, 4396, 4399, FULL_SCREEN, 0},
+            {TAIWAN, 4370, 4394, FULL_SCREEN, 0},
+
+            {SIM_PERU, 50, 50, ANIMATE_ICON, 0},
+            {SIM_CHILE, 919, 919, ANIMATE_ICON, 0},
+            {SIM_PERU, 919, 919, ANIMATE_ICON, 0},
+
+            {MOVISTAR, 919, 919, FORCE_VIBRATE, 0},
+            {MOVISTAR, 4370, 4370, FORCE_VIBRATE, 0},
+            {MOVISTAR, 4380, 4383, FORCE_VIBRATE, 0},
+            {MOVISTAR, 4396, 4399, FORCE_VIBRATE, 0},
+
+            {MCC_UAE, 4380, 4380, INFO_TONE, 0},
+            {MCC_UAE, 4393, 4393, INFO_TONE, 0},
+            {MCC_UAE, 4396, 4399, INFO_TONE, 0},
+
+            {POP_TITLE | DUBAI, 0x1112, 0x1112, 0, R.string.cmas_presidential_level_alert_ar},
+            {POP_TITLE | DUBAI, 0x111F, 0x111F, 0, R.string.cmas_presidential_level_alert_en},
+            {POP_TITLE | DUBAI, 0x1113, 0x111A, 0, R.string.cmas_extreme_alert_ar},
+            {POP_TITLE | DUBAI, 0x1120, 0x1127, 0, R.string.cmas_extreme_alert_en},
+            {POP_TITLE | DUBAI, 0x111B, 0x111B, 0, R.string.cmas_amber_alert_ar},
+            {POP_TITLE | DUBAI, 0x1128, 0x1128, 0, R.string.cmas_amber_alert_en},
+            {POP_TITLE | DUBAI, 0x111C, 0x111C, 0, R.string.cmas_required_monthly_test_ar},
+            {POP_TITLE | DUBAI, 0x112E, 0x112E, 0, R.string.cmas_required_monthly_test_ar},
+            {POP_TITLE | DUBAI, 0x1129, 0x1129, 0, R.string.cmas_required_monthly_test_en},
+            {POP_TITLE | DUBAI, 0x112F, 0x112F, 0, R.string.cmas_required_monthly_test_en},
+            {POP_TITLE | DUBAI, 0x111D, 0x111D, 0, R.string.cmas_exercise_alert_ar},
+            {POP_TITLE | DUBAI, 0x112A, 0x112A, 0, R.string.cmas_exercise_alert_en},
+            {POP_TITLE | DUBAI, 0x112C, 0x112C, 0, R.string.cmas_public_safety_alert_ar},
+            {POP_TITLE | DUBAI, 0x112D, 0x112D, 0, R.string.cmas_public_safety_alert_en},
+
+            {POP_TITLE | CHILE, 919, 919, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | CHILE, 4370, 4370, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+
+            {POP_TITLE | PERU, 50, 50, 0, R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | PERU, 919, 919, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | PERU, 4370, 4370, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | PERU, 4383, 4383, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | PERU, 4396, 4399, 0,
+                    R.string.cmas_presidential_level_alert_4370_919_title},
+            {POP_TITLE | PERU, 4382, 4382, 0, R.string.cmas_information_alert_4382_title},
+            {POP_TITLE | PERU, 519, 519, 0, R.string.cmas_test_alert_4380_519_title},
+            {POP_TITLE | PERU, 4380, 4380, 0, R.string.cmas_test_alert_4380_519_title},
+            {POP_TITLE | PERU, 4381, 4381, 0, R.string.cmas_test_alert_4381_title},
+
+            {POP_TITLE | NEWZEALAND, 4370, 4370, 0, R.string.cmas_extreme_alert1},
+            {POP_TITLE | NEWZEALAND, 4371, 4372, 0, R.string.nz_control_4371_4372_alert_title},
+            {POP_TITLE | NEWZEALAND, 4373, 4378, 0, R.string.nz_control_4373_4378_alert_title},
+    };
+
+    private static final int COLUMN_CONDITION = 0;
+    private static final int COLUMN_FIRST_ID = 1;
+    private static final int COLUMN_LAST_ID = 2;
+    private static final int COLUMN_FLAGS = 3;
+    private static final int COLUMN_TITLE = 4;
+
+    /** Title resources; entries hold an index into this list plus one. */
+    private static final int[] TITLES;
+    static {
+        ArrayList<Integer> titles = new ArrayList<Integer>();
+        for (int[] rule : RULES) {
+            if (rule[COLUMN_TITLE] != 0 && !titles.contains(rule[COLUMN_TITLE])) {
+                titles.add(rule[COLUMN_TITLE]);
+            }
+        }
+        TITLES = new int[titles.size()];
+        for (int i = 0; i < TITLES.length; i++) {
+            TITLES[i] = titles.get(i);
+        }
+    }
+
+    private static final ConcurrentHashMap<Integer, CellBroadcastChannelTable> sTables =
+            new ConcurrentHashMap<Integer, CellBroadcastChannelTable>();
+
+    /** Packed entry per message identifier. */
+    private final short[] mEntries = new short[0x10000];
+
+    /** Compiles the rules that apply under a combination of condition bits. */
+    CellBroadcastChannelTable(int conditions) {
+        for (int[] rule : RULES) {
+            int condition = rule[COLUMN_CONDITION];
+            if ((conditions & condition) != condition) {
+                continue;
+            }
+            int title = 0;
+            if (rule[COLUMN_TITLE] != 0) {
+                for (int i = 0; i < TITLES.length; i++) {
+                    if (TITLES[i] == rule[COLUMN_TITLE]) {
+                        title = i + 1;
+                    }
+                }
+            }
+            for (int id = rule[COLUMN_FIRST_ID]; id <= rule[COLUMN_LAST_ID]; id++) {
+                int entry = (mEntries[id] & 0xffff) | rule[COLUMN_FLAGS];
+                if ((entry >>> TITLE_SHIFT & FLAGS_MASK) == 0) {
+                    entry |= title << TITLE_SHIFT;
+                }
+                mEntries[id] = (short) entry;
+            }
+        }
+    }
+
+    /** Returns the table for a subscription. */
+    static CellBroadcastChannelTable get(Context context, int subId) {
+        int conditions = getConditions(context, subId);
+        CellBroadcastChannelTable table = sTables.get(conditions);
+        if (table == null) {
+            table = new CellBroadcastChannelTable(conditions);
+            sTables.put(conditions, table);
+        }
+        return table;
+    }
+
+    private static int getConditions(Context context, int subId) {
+        CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(context, subId);
+        SharedPreferences sp = context.getSharedPreferences(PREFERENCE_NAME,
+                Context.MODE_PRIVATE);
+        int conditions = 0;
+        if (region.supports(CellBroadcastRegionProfile.REGION_CHILE)) conditions |= CHILE;
+        if (region.supports(CellBroadcastRegionProfile.REGION_PERU)) conditions |= PERU;
+        if (region.supports(CellBroadcastRegionProfile.REGION_DUBAI)) conditions |= DUBAI;
+        if (region.supports(CellBroadcastRegionProfile.REGION_TAIWAN)) conditions |= TAIWAN;
+        if (region.supports(CellBroadcastRegionProfile.REGION_NEWZEALAND)) {
+            conditions |= NEWZEALAND;
+        }
+        if (region.isSimIn(CellBroadcastRegionProfile.REGION_CHILE)) conditions |= SIM_CHILE;
+        if (region.isSimIn(CellBroadcastRegionProfile.REGION_PERU)) conditions |= SIM_PERU;
+        if (context.getResources().getBoolean(R.bool.Movistar_feature_control)) {
+            conditions |= MOVISTAR;
+        }
+        if (sp.getInt("mMcc", 001) == UAE_MCC) conditions |= MCC_UAE;
+        if (sp.getBoolean("isRequestModifyPopTitle", false)) conditions |= POP_TITLE;
+        return conditions;
+    }
+
+    /** Returns the flags of a channel. */
+    int getFlags(int messageId) {
+        return (messageId & ~0xffff) == 0 ? mEntries[messageId] & FLAGS_MASK : 0;
+    }
+
+    /** Returns true if the channel of a broadcast has all of {@code flags}. */
+    boolean hasFlags(CellBroadcastMessage message, int flags) {
+        return (getFlags(message.getServiceCategory()) & flags) == flags;
+    }
+
+    /**
+     * Returns the dialog title resource that replaces the standard title of a channel, or 0
+     * if the channel uses the standard one.
+     */
+    int getTitle(int messageId) {
+        if ((messageId & ~0xffff) != 0) {
+            return 0;
+        }
+        int title = mEntries[messageId] >>> TITLE_SHIFT & FLAGS_MASK;
+        return title != 0 ? TITLES[title - 1] : 0;
+    }
+}
@@ -90,6 +90,7 @@ public class CellBroadcastConfigHandler extends Handler {
         initLangMapTable(mContext, subId);
         clearCustomizeParams();
         parseConfigParmsFromXml(mContext, localMcc, localMnc, R.xml.config_mnc_mcc);
+        CellBroadcastAlertService.invalidateDuplicatePolicy();
         preCustomChannels(mContext, subId, localMcc, localMnc);
         getLooper().quit();
     }
@@ -338,7 +339,7 @@ public class CellBroadcastConfigHandler extends Handler {
                 Log.d(TAG, "enableEmergencyALerts: new sim card insert ");
                 final boolean enable = enableEmergencyAlertsForMccMnc(context, localMcc, localMnc, R.xml.pre_mnc_mcc);
                 if(!enable) {
-                    SubscriptionManager
+                    CellBroadcastSubSettings
                             .setSubscriptionProperty(subId,
                                     SubscriptionManager.CB_EMERGENCY_ALERT,
                                     "0");
@@ -428,6 +429,17 @@ public class CellBroadcastConfigHandler extends Handler {
                                 "prohibitAllKeyEvent"));
                         int useLinkfy = Integer.parseInt(xmlp.getAttributeValue(null,
                                 "useLinkfy"));
+                        // Optional, in minutes; 0 keeps the count-based duplicate detection.
+                        int dupExpiry = xmlp.getAttributeIntValue(null, "dupExpiry", 0);
+                        int dupExpiryEmergency = xmlp.getAttributeIntValue(null,
+                                "dupExpiryEmergency", 0);
+                        String dupExpiryChannels = xmlp.getAttributeValue(null,
+                                "dupExpiryChannels");
+                        // Optional, in seconds; 0 disables cross subscription suppression.
+                        int crossSubWindow = xmlp.getAttributeIntValue(null,
+                                "crossSubWindow", 0);
+                        int crossSubKey = xmlp.getAttributeIntValue(null, "crossSubKey",
+                                CellBroadcastCrossSubSuppressor.DEFAULT_KEY_FLAGS);
                         Log.d(TAG, "parseConfigParmsFromXml: mnc = " + mnc + " mcc = " + mcc
                                 + " localmnc = " + localmnc + " localmcc = " + localmcc);
                         if((mnc != -1 && mnc == localmnc && mcc != -1 && mcc == localmcc)||(mnc == -1 && mcc != -1 && mcc == localmcc)){
@@ -440,10 +452,17 @@ public class CellBroadcastConfigHandler extends Handler {
                                     + " modifyPopTitle = "+ modifyPopTitle
                                     + " DisplayPreChannel = " + DisplayPreChannel
                                     + " prohibitAllKeyEvent = " + prohibitAllKeyEvent
-                                    + " useLinkfy = " + useLinkfy);
+                                    + " useLinkfy = " + useLinkfy
+                                    + " dupExpiry = " + dupExpiry
+                                    + " dupExpiryEmergency = " + dupExpiryEmergency
+                                    + " dupExpiryChannels = " + dupExpiryChannels
+                                    + " crossSubWindow = " + crossSubWindow
+                                    + " crossSubKey = " + crossSubKey);
                             setCustomizeParams(mcc, duration, VsOnSilent, VsOnDndSilent, Tts, NotifyBySms,
                                     PopPrompt, fixTimeShow, popCotentDigit, modifyPopTitle,
-                                    DisplayPreChannel, prohibitAllKeyEvent, useLinkfy);
+                                    DisplayPreChannel, prohibitAllKeyEvent, useLinkfy,
+                                    dupExpiry, dupExpiryEmergency, dupExpiryChannels,
+                                    crossSubWindow, crossSubKey);
                             return true;
                         }
                     }
@@ -459,7 +478,9 @@ public class CellBroadcastConfigHandler extends Handler {
     }
 
     private void setCustomizeParams(int mcc, int duration, int VsOnSilent, int VsOnDndSilent, int Tts, int NotifyBySms, int PopPrompt, int fixTimeShow, int popCotentDigit,
-                                int modifyPopTitle, int DisplayPreChannel, int prohibitAllKeyEvent, int useLinkfy) {
+                                int modifyPopTitle, int DisplayPreChannel, int prohibitAllKeyEvent, int useLinkfy,
+                                int dupExpiry, int dupExpiryEmergency, String dupExpiryChannels,
+                                int crossSubWindow, int crossSubKey) {
         boolean mIsMatchedMccmnc=true;
         int mMcc = mcc;
         int mDuration = duration;
@@ -490,6 +511,11 @@ public class CellBroadcastConfigHandler extends Handler {
         editor.putBoolean("mEnableDisplayPreChannel", mEnableDisplayPreChannel);
         editor.putBoolean("mProhibitAllKeyEvent", mProhibitAllKeyEvent);
         editor.putBoolean("mUseLinkfy", mUseLinkfy);
+        editor.putInt("mDupExpiry", dupExpiry);
+        editor.putInt("mDupExpiryEmergency", dupExpiryEmergency);
+        editor.putString("mDupExpiryChannels", dupExpiryChannels);
+        editor.putInt("mCrossSubWindow", crossSubWindow);
+        editor.putInt("mCrossSubKey", crossSubKey);
         editor.commit();
         Log.d("andy", "setConfigParams:  mcc = " + mMcc + "duration = " + mDuration + " mEnableVsOnSilent = " + mEnableVsOnSilent + " mEnableVsOnDndSilent = " + mEnableVsOnDndSilent
                 + " mEnableTts = " + mEnableTts + " mNotifyBySms = " + mNotifyBySms + " mEnablePopPrompt = " + mEnablePopPrompt
@@ -20,6 +20,7 @@ import android.util.Log;
 
 public class CellBroadcastConfigManager {
     private static String TAG = "CellBroadcastConfigManager";
+    private static final boolean DBG = CellBroadcastReceiver.DBG;
 
     public static int SET_CHANNEL = 5;
     public static int SET_LANGUAGE = 6;
@@ -101,7 +102,7 @@ public class CellBroadcastConfigManager {
     }
 
     public void setAllCustomConfigs(final Context context, final boolean action) {
-        Log.d(TAG, "[" + mSubId + "] setAllCustomConfigs: action = " + action);
+        if (DBG) Log.d(TAG, "[" + mSubId + "] setAllCustomConfigs: action = " + action);
         enableGsmCustomConfigs(context, 1, action ? 1 : 0, SET_CHANNEL);
         if (action) {  // only enalbe language id, don't disable them
             enableGsmCustomConfigs(context, 1, 1, SET_LANGUAGE);
@@ -123,7 +124,7 @@ public class CellBroadcastConfigManager {
             return manager.enableCellBroadcastRange(start, end, SmsManager.CELL_BROADCAST_RAN_TYPE_CDMA);
         } else {
             if (sendATCommand(mSubId, getConfigArray(start, 1, SET_CHANNEL))) {//send AT to close modem side
-                Log.d(TAG, "setCdmaCellBroadcastChannelRange disable channel start = :" + start + " channel start = : " + end);
+                if (DBG) Log.d(TAG, "setCdmaCellBroadcastChannelRange disable channel start = :" + start + " channel start = : " + end);
                 return manager.disableCellBroadcastRange(start, end, SmsManager.CELL_BROADCAST_RAN_TYPE_CDMA);
             }
             return false;
@@ -145,7 +146,7 @@ public class CellBroadcastConfigManager {
             channelConfig[3] = endId;
             channelConfig[4] = enabled;
         }
-        Log.d(TAG, "Send AT Command > " + (enabled == 1 ? "Disable " : "Enable ") + (type == SET_CHANNEL ? "channel " : "language ") + " [" + startId + "-" + endId + "]");
+        if (DBG) Log.d(TAG, "Send AT Command > " + (enabled == 1 ? "Disable " : "Enable ") + (type == SET_CHANNEL ? "channel " : "language ") + " [" + startId + "-" + endId + "]");
         return channelConfig;
     }
 
@@ -165,7 +166,7 @@ public class CellBroadcastConfigManager {
                             subId, null, data);
                 }
             }
-            Log.d(TAG, " iccISms = " + iccISms + " success = " + success);
+            if (DBG) Log.d(TAG, " iccISms = " + iccISms + " success = " + success);
         } catch (RemoteException ex) {
             // ignore it
         }
@@ -183,8 +184,10 @@ public class CellBroadcastConfigManager {
             } else {
                 igm.remove(start, end);
             }
-            Log.d(TAG, "[" + mSubId + "] setGsmCellBroadcastRange: after " + (enable ? "enable " : "disable ") +
-                    "[" + start + ", " + end + "], " + (type == SET_LANGUAGE ? "mGsmLanguageBlackList " : "mGsmChannelBlackList ") + " = " + igm.toString());
+            if (DBG) {
+                Log.d(TAG, "[" + mSubId + "] setGsmCellBroadcastRange: after " + (enable ? "enable " : "disable ") +
+                        "[" + start + ", " + end + "], " + (type == SET_LANGUAGE ? "mGsmLanguageBlackList " : "mGsmChannelBlackList ") + " = " + igm.toString());
+            }
             return true;
         } else {
             return false;
@@ -24,13 +24,11 @@ import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.HandlerThread;
 import android.os.Message;
-import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.telephony.CellBroadcastMessage;
 import android.telephony.SmsManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.internal.telephony.PhoneConstants;
@@ -70,23 +68,19 @@ public class CellBroadcastConfigService extends IntentService {
         super(TAG);          // use class name for worker thread name
     }
 
-    private static void setChannelRange(CellBroadcastConfigManager manager, String ranges, boolean enable) {
-        if (DBG)log("setChannelRange: " + ranges);
-        try {
-            for (String channelRange : ranges.split(",")) {
-                int dashIndex = channelRange.indexOf('-');
-                if (dashIndex != -1) {
-                    int startId = Integer.decode(channelRange.substring(0, dashIndex).trim());
-                    int endId = Integer.decode(channelRange.substring(dashIndex + 1).trim());
-                    manager.setGsmCellBroadcastChannelRange(enable, startId, endId);
+    private static void setChannelRange(final CellBroadcastConfigManager manager,
+            CellBroadcastEmergencyIds ids, final boolean enable) {
+        ids.forEachRange(new CellBroadcastEmergencyIds.RangeCallback() {
+            @Override
+            public void onRange(int startId, int endId) {
+                if (DBG) log("setChannelRange: " + startId + "-" + endId + " " + enable);
+                if (startId == endId) {
+                    manager.setGsmCellBroadcastChannel(enable, startId);
                 } else {
-                    int messageId = Integer.decode(channelRange.trim());
-                    manager.setGsmCellBroadcastChannel(enable, messageId);
+                    manager.setGsmCellBroadcastChannelRange(enable, startId, endId);
                 }
             }
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Number Format Exception parsing emergency channel range", e);
-        }
+        });
     }
 
     /**
@@ -109,33 +103,8 @@ public class CellBroadcastConfigService extends IntentService {
 
         // Todo: Move the followings to CarrierConfig
         // Check for system property defining the emergency channel ranges to enable
-        String emergencyIdRange = (CellBroadcastReceiver.phoneIsCdma()) ?
-                "" : SystemProperties.get(EMERGENCY_BROADCAST_RANGE_GSM);
-
-        if (TextUtils.isEmpty(emergencyIdRange)) {
-            return false;
-        }
-        try {
-            int messageId = message.getServiceCategory();
-            for (String channelRange : emergencyIdRange.split(",")) {
-                int dashIndex = channelRange.indexOf('-');
-                if (dashIndex != -1) {
-                    int startId = Integer.decode(channelRange.substring(0, dashIndex).trim());
-                    int endId = Integer.decode(channelRange.substring(dashIndex + 1).trim());
-                    if (messageId >= startId && messageId <= endId) {
-                        return true;
-                    }
-                } else {
-                    int emergencyMessageId = Integer.decode(channelRange.trim());
-                    if (emergencyMessageId == messageId) {
-                        return true;
-                    }
-                }
-            }
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "Number Format Exception parsing emergency channel range", e);
-        }
-        return false;
+        return !CellBroadcastReceiver.phoneIsCdma()
+                && CellBroadcastEmergencyIds.get().contains(message.getServiceCategory());
     }
 
     @Override
@@ -176,8 +145,8 @@ public class CellBroadcastConfigService extends IntentService {
         final boolean enableEmergencyAlerts = enableForSub && SubscriptionManager.getBooleanSubscriptionProperty(
                 subId, SubscriptionManager.CB_EMERGENCY_ALERT, true, this);
         // Todo: Move this to CarrierConfig later.
-        String emergencyIdRange = (CellBroadcastReceiver.phoneIsCdma()) ?
-                "" : SystemProperties.get(EMERGENCY_BROADCAST_RANGE_GSM);
+        CellBroadcastEmergencyIds emergencyIds = (CellBroadcastReceiver.phoneIsCdma()) ?
+                null : CellBroadcastEmergencyIds.get();
 
         boolean enableEtwsAlerts = enableEmergencyAlerts;
 
@@ -207,11 +176,10 @@ public class CellBroadcastConfigService extends IntentService {
                 SubscriptionManager.getBooleanSubscriptionProperty(
                         subId, SubscriptionManager.CB_CMAS_TEST_ALERT, false, this);
 
-        TelephonyManager tm = (TelephonyManager) getSystemService(
-                Context.TELEPHONY_SERVICE);
+        CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(this, subId);
 
         boolean enableChannel50Support = enableEmergencyAlerts && res.getBoolean(R.bool.show_brazil_settings) &&
-                COUNTRY_BRAZIL.equals(tm.getSimCountryIso(subId));
+                region.isSimIn(CellBroadcastRegionProfile.REGION_BRAZIL);
 
         boolean enableChannel50Alerts = enableEmergencyAlerts && enableChannel50Support &&
                 SubscriptionManager.getBooleanSubscriptionProperty(subId,
@@ -219,17 +187,14 @@ public class CellBroadcastConfigService extends IntentService {
 
         // Current Israel requires enable certain CMAS messages ids.
         // Todo: Move this to CarrierConfig later.
-        boolean supportIsraelPwsAlerts = enableEmergencyAlerts && (COUNTRY_ISRAEL.equals(tm.getSimCountryIso(subId))
-                || COUNTRY_ISRAEL.equals(tm.getNetworkCountryIso(subId)));
-
-        boolean supportChilePwsAlerts = res.getBoolean(R.bool.show_chile_settings) && (COUNTRY_CHL.equals(tm.getSimCountryIso(subId)) || COUNTRY_CHL.equals(tm.getNetworkCountryIso(subId)));
-        boolean supportPeruPwsAlerts = res.getBoolean(R.bool.show_peru_settings) && (COUNTRY_PERU.equals(tm.getSimCountryIso(subId)) || COUNTRY_PERU.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableDubaiPwsSupport = res.getBoolean(R.bool.show_dubai_settings) &&
-                (COUNTRY_DUBAI.equals(tm.getSimCountryIso(subId)) || COUNTRY_DUBAI.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableTaiWanPwsSupport = res.getBoolean(R.bool.show_taiwan_settings) &&
-                (COUNTRY_TAIWAN.equals(tm.getSimCountryIso(subId)) || COUNTRY_TAIWAN.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableNzPwsSupport = res.getBoolean(R.bool.show_newzealand_settings) &&
-                (COUNTRY_NEWZEALAND.equals(tm.getSimCountryIso(subId)) || COUNTRY_NEWZEALAND.equals(tm.getNetworkCountryIso(subId)));
+        boolean supportIsraelPwsAlerts = enableEmergencyAlerts
+                && region.isIn(CellBroadcastRegionProfile.REGION_ISRAEL);
+
+        boolean supportChilePwsAlerts = region.supports(CellBroadcastRegionProfile.REGION_CHILE);
+        boolean supportPeruPwsAlerts = region.supports(CellBroadcastRegionProfile.REGION_PERU);
+        boolean enableDubaiPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_DUBAI);
+        boolean enableTaiWanPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_TAIWAN);
+        boolean enableNzPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_NEWZEALAND);
 
         // add for peru pws start
         boolean enablePws_4370_919 = prefs.getBoolean(CellBroadcastSettings.KEY_ENABLE_CHANNEL_4370_919, false);
@@ -288,14 +253,14 @@ public class CellBroadcastConfigService extends IntentService {
 
         if (enableEmergencyAlerts) {
             if (DBG) log("Enable CellBroadcast with carrier defined message id ranges.");
-            if (!TextUtils.isEmpty(emergencyIdRange)) {
-                setChannelRange(cbcMgr, emergencyIdRange, true);
+            if (emergencyIds != null) {
+                setChannelRange(cbcMgr, emergencyIds, true);
             }
         }
         else {
             if (DBG) log("Disable CellBroadcast with carrier defined message id ranges.");
-            if (!TextUtils.isEmpty(emergencyIdRange)) {
-                setChannelRange(cbcMgr, emergencyIdRange, false);
+            if (emergencyIds != null) {
+                setChannelRange(cbcMgr, emergencyIds, false);
             }
         }
         /** Enable CDMA CMAS series messages. */
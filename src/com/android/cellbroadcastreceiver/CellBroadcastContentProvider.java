@@ -24,6 +24,7 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -31,14 +32,19 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.provider.Telephony;
 import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbMessage;
 import android.text.TextUtils;
 import android.util.Log;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteException;
 
 import com.sprd.cellbroadcastreceiver.provider.CreateChannelViewDefine;
+import com.sprd.cellbroadcastreceiver.provider.LangMapTableDefine;
 import com.sprd.cellbroadcastreceiver.provider.PreChannelTableDefine;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * ContentProvider for the database of received cell broadcasts.
@@ -57,6 +63,20 @@ public class CellBroadcastContentProvider extends ContentProvider {
 
     public static Uri CHANNEL_URI = Uri.parse("content://cellbroadcasts/channel");
 
+    /**
+     * Content URI of the latest area info broadcast of each subscription, one row per
+     * subscription with {@link #AREA_INFO_COLUMNS}. Observers are notified when it changes.
+     */
+    static final Uri AREA_INFO_URI = Uri.parse("content://cellbroadcasts/area_info");
+
+    /** Columns of {@link #AREA_INFO_URI}. */
+    static final String[] AREA_INFO_COLUMNS = {
+            CellBroadcastContentProvider.SUB_ID,
+            Telephony.CellBroadcasts.MESSAGE_BODY,
+            Telephony.CellBroadcasts.LANGUAGE_CODE,
+            Telephony.CellBroadcasts.DELIVERY_TIME,
+    };
+
     /** URI matcher type to get all cell broadcasts. */
     private static final int CB_ALL = 0;
 
@@ -70,6 +90,7 @@ public class CellBroadcastContentProvider extends ContentProvider {
     private static final int CB_LANG_MAP_BULK       = 7;
     private static final int CB_VIEW_CHANNEL        = 8;
     private static final int CB_PRE_CHANNEL         = 9;
+    private static final int CB_AREA_INFO           = 10;
     /** MIME type for the list of all cell broadcasts. */
     private static final String CB_LIST_TYPE = "vnd.android.cursor.dir/cellbroadcast";
 
@@ -88,6 +109,28 @@ public class CellBroadcastContentProvider extends ContentProvider {
     public static final String ENABLED_CELLBROADCAST    = "enable";
     //sprd cbcustomsetting end
 
+    /** Broadcasts column: other subscription the same alert was also received on, or -1. */
+    public static final String ALSO_SUB_ID = "also_sub_id";
+
+    /**
+     * Broadcasts column: geographical scope and message code, the serial number without its
+     * update number, or -1 for non-3GPP broadcasts, whose serial number has no such parts.
+     * Versions of the same alert have the same message code.
+     */
+    public static final String MESSAGE_CODE = "message_code";
+
+    /** Broadcasts column: number of times the alert was replaced by a revised version. */
+    public static final String REVISION = "revision";
+
+    /** Columns queried for the broadcast list. */
+    static final String[] LIST_QUERY_COLUMNS;
+    static {
+        String[] columns = Telephony.CellBroadcasts.QUERY_COLUMNS;
+        LIST_QUERY_COLUMNS = new String[columns.length + 1];
+        System.arraycopy(columns, 0, LIST_QUERY_COLUMNS, 0, columns.length);
+        LIST_QUERY_COLUMNS[columns.length] = ALSO_SUB_ID;
+    }
+
     static {
         sUriMatcher.addURI(CB_AUTHORITY, null, CB_ALL);
         sUriMatcher.addURI(CB_AUTHORITY, "#", CB_ALL_ID);
@@ -99,12 +142,34 @@ public class CellBroadcastContentProvider extends ContentProvider {
         sUriMatcher.addURI(CB_AUTHORITY, "lang_map_bulk", CB_LANG_MAP_BULK);
         sUriMatcher.addURI(CB_AUTHORITY, "view_channel", CB_VIEW_CHANNEL);
         sUriMatcher.addURI(CB_AUTHORITY, "pre_channel", CB_PRE_CHANNEL);
+        sUriMatcher.addURI(CB_AUTHORITY, "area_info", CB_AREA_INFO);
     }
 
     /** The database for this content provider. */
     private SQLiteOpenHelper mOpenHelper;
     private SQLiteDatabase mSQLiteWDB;
 
+    /** The broadcast was inserted as a row of its own. */
+    static final int WRITE_STORED = 0;
+
+    /**
+     * The broadcast replaced the row of an earlier one, which keeps its delivery time, so
+     * that the {@link CellBroadcastMessageRegistry} handles of the earlier one still resolve.
+     */
+    static final int WRITE_REPLACED = 1;
+
+    /** The broadcast was not stored, as a newer version of it is in the table. */
+    static final int WRITE_STALE = 2;
+
+    /** The database could not be written. */
+    static final int WRITE_FAILED = 3;
+
+    /** Whether a revised alert replaces the row of its previous version. */
+    private boolean mReplaceRevisedBroadcasts;
+
+    /** How long after an alert a revised version may replace it, in milliseconds. */
+    private long mRevisionWindowMillis;
+
     /**
      * Initialize content provider.
      * @return true if the provider was successfully loaded, false otherwise
@@ -119,6 +184,10 @@ public class CellBroadcastContentProvider extends ContentProvider {
            return false;
         }
         setAppOps(AppOpsManager.OP_READ_CELL_BROADCASTS, AppOpsManager.OP_NONE);
+        mReplaceRevisedBroadcasts =
+                getContext().getResources().getBoolean(R.bool.replace_revised_broadcasts);
+        mRevisionWindowMillis = getContext().getResources().getInteger(
+                R.integer.revised_broadcast_window_minutes) * 60 * 1000L;
         return true;
     }
 
@@ -179,6 +248,9 @@ public class CellBroadcastContentProvider extends ContentProvider {
             case CB_PRE_CHANNEL:
                 qb.setTables(PreChannelTableDefine.TABLE_NAME);
                 return qb.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+            case CB_AREA_INFO:
+                // Kept in memory; projection, selection and sort order are not supported.
+                return queryAreaInfo();
             default:
                 Log.e(TAG, "Invalid query: " + uri);
                 throw new IllegalArgumentException("Unknown URI: " + uri);
@@ -199,6 +271,16 @@ public class CellBroadcastContentProvider extends ContentProvider {
         return c;
     }
 
+    private Cursor queryAreaInfo() {
+        MatrixCursor c = new MatrixCursor(AREA_INFO_COLUMNS);
+        for (CellBroadcastMessage areaInfo : CellBroadcastReceiverApp.getAreaInfos()) {
+            c.addRow(new Object[] {areaInfo.getSubId(), areaInfo.getMessageBody(),
+                    areaInfo.getLanguageCode(), areaInfo.getDeliveryTime()});
+        }
+        c.setNotificationUri(getContext().getContentResolver(), AREA_INFO_URI);
+        return c;
+    }
+
     /**
      * Return the MIME type of the data at the specified URI.
      * @param uri the URI to query.
@@ -258,6 +340,8 @@ public class CellBroadcastContentProvider extends ContentProvider {
                     getSQLiteDB().endTransaction();
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
+                // Observers of the lang_map table, e.g. CellBroadcastLanguageFilter.
+                getContext().getContentResolver().notifyChange(LangMapTableDefine.URI, null);
             break;
         }
         Log.d(TAG, "the Uri is:"+ rUri);
@@ -280,7 +364,9 @@ public class CellBroadcastContentProvider extends ContentProvider {
 		getSQLiteDB().beginTransaction();
         try {
             for (int i = 0; i < numOfValues; i++) {
-                Log.d(TAG, "bulkInsert the new value. The value is:"+values[i].toString());
+                if (CellBroadcastReceiver.DBG) {
+                    Log.d(TAG, "bulkInsert the new value. The value is:" + values[i]);
+                }
                 insert(uri, values[i]);
             }
             getSQLiteDB().setTransactionSuccessful();
@@ -312,12 +398,15 @@ public class CellBroadcastContentProvider extends ContentProvider {
         switch (match) {
         case CB_CHANNEL:
             count = getSQLiteDB().delete(CHANNEL_TABLE_NAME, selection, selectionArgs);   
+            getContext().getContentResolver().notifyChange(uri, null);
             break;
         case CB_LANG_MAP:
             count = getSQLiteDB().delete(LANG_MAP_TABLE_NAME, selection, selectionArgs);   
+            getContext().getContentResolver().notifyChange(uri, null);
             break;
         case CB_COMMON_SETTING:
             count = getSQLiteDB().delete(COMMEN_SETTING_TABLE_NAME, selection, selectionArgs);   
+            getContext().getContentResolver().notifyChange(uri, null);
             break;
         case CB_CHANNEL_BULK:
             getSQLiteDB().beginTransaction();
@@ -328,6 +417,8 @@ public class CellBroadcastContentProvider extends ContentProvider {
                 getSQLiteDB().endTransaction();
             }
             getContext().getContentResolver().notifyChange(uri, null);
+            // Observers of the channel table, e.g. CellBroadcastNotificationSettings.
+            getContext().getContentResolver().notifyChange(CHANNEL_URI, null);
             break;
         case CB_VIEW_LANG:
 //            count = getSQLiteDB().delete(COMMEN_SETTING_TABLE_NAME, selection, selectionArgs);   
@@ -353,14 +444,17 @@ public class CellBroadcastContentProvider extends ContentProvider {
             case CB_CHANNEL:
                 effectRow = getSQLiteDB().update(CHANNEL_TABLE_NAME, values,
                         selection, selectionArgs);
+                getContext().getContentResolver().notifyChange(uri, null);
                 break;
             case CB_LANG_MAP:
                     effectRow = getSQLiteDB().update(LANG_MAP_TABLE_NAME, values,
                             selection, selectionArgs);
+                    getContext().getContentResolver().notifyChange(uri, null);
                 break;
             case CB_COMMON_SETTING:
                 effectRow = getSQLiteDB().update(COMMEN_SETTING_TABLE_NAME, values,
                         selection, selectionArgs);
+                getContext().getContentResolver().notifyChange(uri, null);
                 break;
             case CB_VIEW_LANG:
     //            effectRow = getSQLiteDB().update(COMMEN_SETTING_TABLE_NAME, values, selection, selectionArgs);
@@ -375,6 +469,8 @@ public class CellBroadcastContentProvider extends ContentProvider {
                     getSQLiteDB().endTransaction();
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
+                // Observers of the lang_map table, e.g. CellBroadcastLanguageFilter.
+                getContext().getContentResolver().notifyChange(LangMapTableDefine.URI, null);
                 break;
             case CB_CHANNEL_BULK:
                 getSQLiteDB().beginTransaction();
@@ -386,6 +482,8 @@ public class CellBroadcastContentProvider extends ContentProvider {
                     getSQLiteDB().endTransaction();
                 }
                 getContext().getContentResolver().notifyChange(uri, null);
+                // Observers of the channel table, e.g. CellBroadcastNotificationSettings.
+                getContext().getContentResolver().notifyChange(CHANNEL_URI, null);
                 break;
         }
         return effectRow;
@@ -394,19 +492,17 @@ public class CellBroadcastContentProvider extends ContentProvider {
     /**
      * Internal method to insert a new Cell Broadcast into the database and notify observers.
      * @param message the message to insert
-     * @return true if the broadcast is new, false if it's a duplicate broadcast.
+     * @return true if the broadcast is new, false if it's a duplicate broadcast or an older
+     *  version of a revised alert in the table.
      */
     boolean insertNewBroadcast(CellBroadcastMessage message) {
-        ContentValues cv = message.getContentValues();
-        cv.put("sub_id", message.getSubId());
-
         // Note: this method previously queried the database for duplicate message IDs, but this
         // is not compatible with CMAS carrier requirements and could also cause other emergency
         // alerts, e.g. ETWS, to not display if the database is filled with old messages.
         // Use duplicate message ID detection in CellBroadcastAlertService instead of DB query.
 
-        long rowId = getSQLiteDB().insert(BROADCASTS_TABLE_NAME, null, cv);
-        if (rowId == -1) {
+        int result = insertOrReplaceRevised(getSQLiteDB(), toContentValues(message));
+        if (result == WRITE_FAILED) {
             Log.e(TAG, "failed to insert new broadcast into database");
             // Return true on DB write failure because we still want to notify the user.
             // The CellBroadcastMessage will be passed with the intent, so the message will be
@@ -414,7 +510,257 @@ public class CellBroadcastContentProvider extends ContentProvider {
             // the user selects the notification for a non-emergency broadcast, even if the
             // broadcast could not be written to the database.
         }
-        return true;    // broadcast is not a duplicate
+        return result != WRITE_STALE;    // broadcast is not a duplicate
+    }
+
+    /**
+     * Internal method to insert a batch of new Cell Broadcasts in a single transaction. The
+     * caller notifies observers once for the whole batch.
+     * @param messages the messages to insert
+     * @param stale receives the messages that were not stored because a newer version of
+     *  them is in the table, see {@link #insertOrReplaceRevised}
+     * @param replaced receives the messages that replaced the row of their previous version
+     * @return the messages that could not be written, empty if all were
+     */
+    List<CellBroadcastMessage> insertNewBroadcasts(List<CellBroadcastMessage> messages,
+            List<CellBroadcastMessage> stale, List<CellBroadcastMessage> replaced) {
+        SQLiteDatabase db = getSQLiteDB();
+        ArrayList<CellBroadcastMessage> failed = new ArrayList<CellBroadcastMessage>();
+        db.beginTransaction();
+        try {
+            for (CellBroadcastMessage message : messages) {
+                int result = insertOrReplaceRevised(db, toContentValues(message));
+                if (result == WRITE_FAILED) {
+                    Log.e(TAG, "failed to insert new broadcast into database");
+                    failed.add(message);
+                } else if (result == WRITE_STALE) {
+                    stale.add(message);
+                } else if (result == WRITE_REPLACED) {
+                    replaced.add(message);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "insertNewBroadcasts: ", e);
+            failed.clear();
+            failed.addAll(messages);
+            stale.clear();
+            replaced.clear();
+        } finally {
+            try {
+                db.endTransaction();
+            } catch (SQLiteException e) {
+                // The commit itself failed, e.g. the disk is full.
+                Log.e(TAG, "insertNewBroadcasts: ", e);
+                failed.clear();
+                failed.addAll(messages);
+                stale.clear();
+                replaced.clear();
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Inserts a new broadcast, or, if it is a revised version of a recent alert in the table,
+     * replaces the row of that alert and bumps its revision. The row keeps its delivery time.
+     * A revised version is a 3GPP broadcast with the same subscription, category,
+     * geographical scope and message code, received within the revision window, whose update
+     * number is newer modulo 16 (one to seven steps ahead). A version that is older than the
+     * one in the table, e.g. because it arrived late, is not stored, and should not be shown
+     * either.
+     * @param cv the broadcasts table row, see {@link #toContentValues}
+     * @return {@link #WRITE_STORED}, {@link #WRITE_REPLACED}, {@link #WRITE_STALE} if a newer
+     *  version is in the table, or {@link #WRITE_FAILED} if the database could not be written
+     */
+    private int insertOrReplaceRevised(SQLiteDatabase db, ContentValues cv) {
+        Integer messageCode = cv.getAsInteger(MESSAGE_CODE);
+        if (mReplaceRevisedBroadcasts && messageCode != null && messageCode >= 0) {
+            int serialNumber = cv.getAsInteger(Telephony.CellBroadcasts.SERIAL_NUMBER);
+            long deliveryTime = cv.getAsLong(Telephony.CellBroadcasts.DELIVERY_TIME);
+            long rowId = -1;
+            int revision = 0;
+            int storedSerialNumber = 0;
+            Cursor c = db.query(BROADCASTS_TABLE_NAME,
+                    new String[] {Telephony.CellBroadcasts._ID, REVISION,
+                            Telephony.CellBroadcasts.SERIAL_NUMBER},
+                    SUB_ID + "=? AND " + Telephony.CellBroadcasts.SERVICE_CATEGORY + "=? AND "
+                            + MESSAGE_CODE + "=? AND "
+                            + Telephony.CellBroadcasts.SERIAL_NUMBER + "!=? AND "
+                            + Telephony.CellBroadcasts.DELIVERY_TIME + ">=?",
+                    new String[] {cv.getAsString(SUB_ID),
+                            cv.getAsString(Telephony.CellBroadcasts.SERVICE_CATEGORY),
+                            messageCode.toString(),
+                            Integer.toString(serialNumber),
+                            Long.toString(deliveryTime - mRevisionWindowMillis)},
+                    null, null, Telephony.CellBroadcasts.DELIVERY_TIME + " DESC", "1");
+            try {
+                if (c.moveToFirst()) {
+                    rowId = c.getLong(0);
+                    revision = c.getInt(1);
+                    storedSerialNumber = c.getInt(2);
+                }
+            } finally {
+                c.close();
+            }
+            if (rowId != -1) {
+                int steps = (serialNumber - storedSerialNumber) & 0xf;
+                if (steps > 7) {
+                    Log.d(TAG, "broadcast at row " + rowId + " is newer, not storing update "
+                            + (serialNumber & 0xf));
+                    return WRITE_STALE;
+                }
+                ContentValues update = new ContentValues(cv);
+                update.remove(Telephony.CellBroadcasts.DELIVERY_TIME);
+                update.put(REVISION, revision + 1);
+                Log.d(TAG, "revision " + (revision + 1) + " of broadcast at row " + rowId);
+                return db.update(BROADCASTS_TABLE_NAME, update,
+                        Telephony.CellBroadcasts._ID + "=" + rowId, null) == 1
+                        ? WRITE_REPLACED : WRITE_FAILED;
+            }
+        }
+        return db.insert(BROADCASTS_TABLE_NAME, null, cv) != -1 ? WRITE_STORED : WRITE_FAILED;
+    }
+
+    /**
+     * Internal method to import broadcasts replayed from {@link CellBroadcastJournal} in a
+     * single transaction. Rows already in the table are skipped, so replaying a record twice
+     * is harmless; this includes a row that took the record over, with the delivery time of
+     * an earlier broadcast, as a revised version or an ETWS secondary does. The other rows are
+     * inserted like new broadcasts, so a revised version replaces its previous version. The
+     * caller notifies observers.
+     * @param rows the broadcasts table rows to import
+     * @return the number of rows inserted or replaced, or -1 if the transaction failed
+     */
+    int importJournaledBroadcasts(List<ContentValues> rows) {
+        SQLiteDatabase db = getSQLiteDB();
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues cv : rows) {
+                if (findRow(db, cv.getAsInteger(SUB_ID),
+                        cv.getAsInteger(Telephony.CellBroadcasts.SERVICE_CATEGORY),
+                        cv.getAsInteger(Telephony.CellBroadcasts.SERIAL_NUMBER),
+                        cv.getAsLong(Telephony.CellBroadcasts.DELIVERY_TIME)) != -1) {
+                    continue;
+                }
+                int result = insertOrReplaceRevised(db, cv);
+                if (result == WRITE_FAILED) {
+                    throw new SQLiteException("failed to import journaled broadcast");
+                }
+                if (result != WRITE_STALE) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "importJournaledBroadcasts: ", e);
+            inserted = -1;
+        } finally {
+            try {
+                db.endTransaction();
+            } catch (SQLiteException e) {
+                Log.e(TAG, "importJournaledBroadcasts: ", e);
+                inserted = -1;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the row ID of a broadcast, or -1 if it has none. That is the row with its
+     * delivery time, or the row it took over as a revised version or an ETWS secondary, which
+     * has its serial number but keeps the earlier delivery time of the broadcast it replaced,
+     * within the revision window.
+     */
+    private long findRow(SQLiteDatabase db, int subId, int serviceCategory, int serialNumber,
+            long deliveryTime) {
+        Cursor c = db.query(BROADCASTS_TABLE_NAME, new String[] {Telephony.CellBroadcasts._ID},
+                SUB_ID + "=? AND " + Telephony.CellBroadcasts.SERVICE_CATEGORY + "=? AND "
+                        + Telephony.CellBroadcasts.SERIAL_NUMBER + "=? AND "
+                        + Telephony.CellBroadcasts.DELIVERY_TIME + "<=? AND "
+                        + Telephony.CellBroadcasts.DELIVERY_TIME + ">=?",
+                new String[] {Integer.toString(subId), Integer.toString(serviceCategory),
+                        Integer.toString(serialNumber), Long.toString(deliveryTime),
+                        Long.toString(deliveryTime - mRevisionWindowMillis)},
+                null, null, Telephony.CellBroadcasts.DELIVERY_TIME + " DESC", "1");
+        try {
+            return c.moveToFirst() ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Internal method to mark a broadcast as read and notify observers, see
+     * {@link #markBroadcastRead(String, long)}. The row is found with {@link #findRow}, so
+     * this works for a broadcast whose row keeps the delivery time of an earlier one.
+     * @return true if the database was updated, false otherwise
+     */
+    boolean markBroadcastRead(CellBroadcastMessage message) {
+        long rowId = findRow(getSQLiteDB(), message.getSubId(), message.getServiceCategory(),
+                message.getSerialNumber(), message.getDeliveryTime());
+        if (rowId == -1) {
+            Log.e(TAG, "failed to mark broadcast read: no row for " + message.getDeliveryTime());
+            return false;
+        }
+        return markBroadcastRead(Telephony.CellBroadcasts._ID, rowId);
+    }
+
+    /** Returns the broadcasts table row of a message. */
+    static ContentValues toContentValues(CellBroadcastMessage message) {
+        ContentValues cv = message.getContentValues();
+        cv.put(SUB_ID, message.getSubId());
+        Integer format = cv.getAsInteger(Telephony.CellBroadcasts.MESSAGE_FORMAT);
+        cv.put(MESSAGE_CODE, format != null && format == SmsCbMessage.MESSAGE_FORMAT_3GPP
+                ? message.getSerialNumber() >> 4 : -1);
+        return cv;
+    }
+
+    /**
+     * Internal method to record that a broadcast was also received on another subscription.
+     * The broadcast is identified by its delivery time and subscription.
+     * @return true if the database was updated, false otherwise
+     */
+    boolean markAlsoReceivedOnSub(long deliveryTime, int subId, int alsoSubId) {
+        ContentValues cv = new ContentValues(1);
+        cv.put(ALSO_SUB_ID, alsoSubId);
+        int rowCount = getSQLiteDB().update(BROADCASTS_TABLE_NAME, cv,
+                Telephony.CellBroadcasts.DELIVERY_TIME + "=? AND " + SUB_ID + "=?",
+                new String[]{Long.toString(deliveryTime), Integer.toString(subId)});
+        if (rowCount != 0) {
+            return true;
+        } else {
+            Log.e(TAG, "failed to mark broadcast at " + deliveryTime + " on sub " + subId);
+            return false;
+        }
+    }
+
+    /**
+     * Internal method to replace the row of an ETWS primary notification with its secondary
+     * notification. The primary is identified by its delivery time and subscription, which
+     * the row keeps. If the primary has no row, e.g. because it was deleted meanwhile, the
+     * secondary is inserted.
+     * @return {@link #WRITE_REPLACED}, {@link #WRITE_STORED} if the secondary was inserted,
+     *  or {@link #WRITE_FAILED}
+     */
+    int upgradeEtwsPrimary(long primaryDeliveryTime, CellBroadcastMessage secondary) {
+        ContentValues cv = toContentValues(secondary);
+        ContentValues update = new ContentValues(cv);
+        update.remove(Telephony.CellBroadcasts.DELIVERY_TIME);
+        int rowCount = getSQLiteDB().update(BROADCASTS_TABLE_NAME, update,
+                Telephony.CellBroadcasts.DELIVERY_TIME + "=? AND " + SUB_ID + "=?",
+                new String[]{Long.toString(primaryDeliveryTime),
+                        Integer.toString(secondary.getSubId())});
+        if (rowCount != 0) {
+            return WRITE_REPLACED;
+        }
+        Log.d(TAG, "no ETWS primary at " + primaryDeliveryTime + ", inserting the secondary");
+        if (getSQLiteDB().insert(BROADCASTS_TABLE_NAME, null, cv) == -1) {
+            Log.e(TAG, "failed to insert ETWS secondary into database");
+            return WRITE_FAILED;
+        }
+        return WRITE_STORED;
     }
 
     /**
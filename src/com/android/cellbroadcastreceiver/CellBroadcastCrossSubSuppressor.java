@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.telephony.SmsCbMessage;
+
+/**
+ * Detects the same alert received on more than one subscription. On dual-SIM devices where
+ * both subscriptions camp on the same network, every broadcast arrives twice with different
+ * subscription IDs (and possibly different cells), so it passes the per-message duplicate
+ * check. The second copy is collapsed into the row of the first one instead of being stored
+ * and alerted again.
+ *
+ * <p>Recently accepted alerts are kept in a small ring, keyed on service category and serial
+ * number plus, depending on {@code keyFlags}, the PLMN ({@link #KEY_PLMN}) and a fingerprint
+ * of the body ({@link #KEY_BODY}). The subscription ID is deliberately not part of the key.
+ *
+ * <p>This class is not thread-safe; it is only used from the main thread of
+ * {@link CellBroadcastAlertService}.
+ */
+final class CellBroadcastCrossSubSuppressor {
+
+    /** Key flag: copies must come from the same PLMN. */
+    static final int KEY_PLMN = 1;
+
+    /** Key flag: copies must have the same body. */
+    static final int KEY_BODY = 2;
+
+    /** Key composition used when the region doesn't configure one. */
+    static final int DEFAULT_KEY_FLAGS = KEY_PLMN | KEY_BODY;
+
+    /** Number of recent alerts kept; a burst of more distinct alerts within a window is rare. */
+    private static final int SIZE = 16;
+
+    private final long[] mKey = new long[SIZE];
+    private final long[] mFingerprint = new long[SIZE];
+    private final long[] mReceivedTime = new long[SIZE];
+    private final long[] mDeliveryTime = new long[SIZE];
+    private final int[] mSubId = new int[SIZE];
+    private int mCount;
+    private int mNext;
+
+    /**
+     * Looks for a copy of the message received on another subscription within the window.
+     * If there is none, the message is recorded as the first copy.
+     *
+     * @param fingerprint fingerprint of the message body
+     * @param windowMillis how long after the first copy a second one is collapsed
+     * @param keyFlags {@link #KEY_PLMN} and/or {@link #KEY_BODY}
+     * @return the entry of the first copy, for {@link #getSubId} and {@link #getDeliveryTime};
+     *         or -1 if the message is the first copy
+     */
+    int findOrAdd(SmsCbMessage message, int subId, long deliveryTime, long fingerprint,
+            long windowMillis, int keyFlags, long now) {
+        long key = ((long) (message.getServiceCategory() & 0xffff) << 48)
+                | ((long) (message.getSerialNumber() & 0xffff) << 32);
+        if ((keyFlags & KEY_PLMN) != 0) {
+            key |= CellBroadcastDuplicateTable.plmnCode(message.getLocation().getPlmn())
+                    & 0xffffffffL;
+        }
+        if ((keyFlags & KEY_BODY) == 0) {
+            fingerprint = 0;
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            if (mKey[i] == key && mFingerprint[i] == fingerprint && mSubId[i] != subId
+                    && now - mReceivedTime[i] >= 0 && now - mReceivedTime[i] < windowMillis) {
+                return i;
+            }
+        }
+
+        int entry = mNext;
+        mKey[entry] = key;
+        mFingerprint[entry] = fingerprint;
+        mReceivedTime[entry] = now;
+        mDeliveryTime[entry] = deliveryTime;
+        mSubId[entry] = subId;
+        mNext = (mNext + 1) % SIZE;
+        if (mCount < SIZE) {
+            mCount++;
+        }
+        return -1;
+    }
+
+    /** Returns the subscription the first copy was received on. */
+    int getSubId(int entry) {
+        return mSubId[entry];
+    }
+
+    /** Returns the delivery time of the first copy, which identifies its database row. */
+    long getDeliveryTime(int entry) {
+        return mDeliveryTime[entry];
+    }
+}
@@ -20,6 +20,8 @@ package com.android.cellbroadcastreceiver;
 import android.content.Context;
 import android.database.Cursor;
 import android.telephony.CellBroadcastMessage;
+import android.telephony.SubscriptionManager;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,11 +32,21 @@ import android.widget.CursorAdapter;
  */
 public class CellBroadcastCursorAdapter extends CursorAdapter {
 
+    /** Slot index of each subscription seen in the current cursor, looked up once. */
+    private final SparseIntArray mSlotIndexes = new SparseIntArray();
+
     public CellBroadcastCursorAdapter(Context context, Cursor cursor) {
         // don't set FLAG_AUTO_REQUERY or FLAG_REGISTER_CONTENT_OBSERVER
         super(context, cursor, 0);
     }
 
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        // The SIMs may have been swapped since the previous load.
+        mSlotIndexes.clear();
+        return super.swapCursor(newCursor);
+    }
+
     /**
      * Makes a new view to hold the data pointed to by cursor.
      * @param context Interface to application's global information
@@ -51,7 +63,7 @@ public class CellBroadcastCursorAdapter extends CursorAdapter {
         CellBroadcastListItem listItem = (CellBroadcastListItem) factory.inflate(
                     R.layout.cell_broadcast_list_item, parent, false);
 
-        listItem.bind(message);
+        listItem.bind(message, getAlsoSlotIndex(cursor));
         return listItem;
     }
 
@@ -66,6 +78,25 @@ public class CellBroadcastCursorAdapter extends CursorAdapter {
     public void bindView(View view, Context context, Cursor cursor) {
         CellBroadcastMessage message = CellBroadcastMessage.createFromCursor(cursor);
         CellBroadcastListItem listItem = (CellBroadcastListItem) view;
-        listItem.bind(message);
+        listItem.bind(message, getAlsoSlotIndex(cursor));
+    }
+
+    /**
+     * Returns the slot index of the other subscription the broadcast at the cursor was also
+     * received on, or -1.
+     */
+    private int getAlsoSlotIndex(Cursor cursor) {
+        int index = cursor.getColumnIndex(CellBroadcastContentProvider.ALSO_SUB_ID);
+        int subId = index >= 0 ? cursor.getInt(index)
+                : SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            return -1;
+        }
+        int slotIndex = mSlotIndexes.get(subId, Integer.MIN_VALUE);
+        if (slotIndex == Integer.MIN_VALUE) {
+            slotIndex = SubscriptionManager.getSlotIndex(subId);
+            mSlotIndexes.put(subId, slotIndex);
+        }
+        return slotIndex;
     }
 }
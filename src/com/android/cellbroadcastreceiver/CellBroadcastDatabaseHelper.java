@@ -76,8 +76,10 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper{
      * Database version 10: adds ETWS and CMAS columns and CDMA support
      * Database version 11: adds delivery time index
      * Database version 14: add sub_id in broadcast table
+     * Database version 15: add also_sub_id in broadcast table
+     * Database version 16: add message_code and revision, and the message code index
      */
-    static final int DATABASE_VERSION = 14;
+    static final int DATABASE_VERSION = 16;
 
     CellBroadcastDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -112,6 +114,8 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper{
         Log.d(TAG, "onCreate CellBroadcastDatabaseHelper start!!!!!" + DATABASE_VERSION);
         Log.d(TAG, "CellBroadcastDatabaseHelper  start !!!!");
         createOptionalTables(db);
+        addAlsoSubIdColumn(db);
+        addRevisionColumns(db);
     }
 
     private void createDeliveryTimeIndex(SQLiteDatabase db) {
@@ -199,6 +203,16 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper{
                 if (newVersion <= 14) {
                     return;
                 }
+                addAlsoSubIdColumn(db);
+            case 15:
+                if (newVersion <= 15) {
+                    return;
+                }
+                addRevisionColumns(db);
+            case 16:
+                if (newVersion <= 16) {
+                    return;
+                }
                 break;
             default:
                 break;
@@ -366,6 +380,33 @@ public class CellBroadcastDatabaseHelper extends SQLiteOpenHelper{
         db.insert(TABLE_NAME, null, cv);
     }
 
+    /**
+     * Adds the column recording the other subscription a broadcast was also received on.
+     */
+    private void addAlsoSubIdColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD "
+                + CellBroadcastContentProvider.ALSO_SUB_ID + " INTEGER DEFAULT -1");
+    }
+
+    /**
+     * Adds the columns and the index used to find the previous version of a revised alert,
+     * and fills in the message code of the existing 3GPP rows.
+     */
+    private void addRevisionColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD "
+                + CellBroadcastContentProvider.MESSAGE_CODE + " INTEGER DEFAULT -1");
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD "
+                + CellBroadcastContentProvider.REVISION + " INTEGER DEFAULT 0");
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " + CellBroadcastContentProvider.MESSAGE_CODE
+                + "=" + Telephony.CellBroadcasts.SERIAL_NUMBER + ">>4 WHERE "
+                + Telephony.CellBroadcasts.MESSAGE_FORMAT + "="
+                + SmsCbMessage.MESSAGE_FORMAT_3GPP);
+        db.execSQL("CREATE INDEX IF NOT EXISTS messageCodeIndex ON " + TABLE_NAME + " ("
+                + CellBroadcastContentProvider.SUB_ID + ","
+                + Telephony.CellBroadcasts.SERVICE_CATEGORY + ","
+                + CellBroadcastContentProvider.MESSAGE_CODE + ");");
+    }
+
     /****************************************************************************************
      * @param db
      ****************************************************************************************/
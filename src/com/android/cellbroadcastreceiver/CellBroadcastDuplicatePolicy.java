@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.telephony.SmsCbMessage;
+
+/**
+ * Decides how long the message ID of a received broadcast suppresses later copies of it.
+ * The IDs themselves are kept in {@link CellBroadcastDuplicateTable}.
+ */
+interface CellBroadcastDuplicatePolicy {
+
+    /** Expiry time of a message ID that is only dropped when the table is full. */
+    long NEVER = Long.MAX_VALUE;
+
+    /** Count-based policy: IDs are kept until replaced by the 65535 newer ones. */
+    CellBroadcastDuplicatePolicy COUNT_BASED = new CellBroadcastDuplicatePolicy() {
+        @Override
+        public long getExpiryTime(SmsCbMessage message, long now) {
+            return NEVER;
+        }
+    };
+
+    /**
+     * Returns the wall clock time at which the message ID of a message received at
+     * {@code now} stops suppressing duplicates, or {@link #NEVER}.
+     */
+    long getExpiryTime(SmsCbMessage message, long now);
+
+    /**
+     * Time-windowed policy: IDs expire a fixed time after they were first received, so that an
+     * alert re-issued with the same serial number later on is shown again. Emergency messages
+     * (CMAS, ETWS and other emergency priority broadcasts) use their own window, and channels
+     * may have windows of their own that take precedence over both.
+     */
+    final class TimeWindow implements CellBroadcastDuplicatePolicy {
+        private final long mWindowMillis;
+        private final long mEmergencyWindowMillis;
+
+        /** First and last channel of each channel window, one pair after the other. */
+        private final int[] mChannelRanges;
+        private final long[] mChannelWindowMillis;
+
+        /** A window of 0 keeps the count-based behavior for that kind of message. */
+        TimeWindow(long windowMillis, long emergencyWindowMillis) {
+            this(windowMillis, emergencyWindowMillis, new int[0], new long[0]);
+        }
+
+        private TimeWindow(long windowMillis, long emergencyWindowMillis, int[] channelRanges,
+                long[] channelWindowMillis) {
+            mWindowMillis = windowMillis;
+            mEmergencyWindowMillis = emergencyWindowMillis;
+            mChannelRanges = channelRanges;
+            mChannelWindowMillis = channelWindowMillis;
+        }
+
+        /**
+         * Returns a policy with channel windows, given as a comma separated list of a channel
+         * or an inclusive channel range and its window, e.g. "4370-4379:1440,4383:0". The
+         * first matching entry applies.
+         * @param unitMillis unit of the windows in the list
+         * @throws NumberFormatException if the list is malformed
+         */
+        static TimeWindow withChannelWindows(long windowMillis, long emergencyWindowMillis,
+                String channelWindows, long unitMillis) {
+            String[] entries = channelWindows.split(",");
+            int[] ranges = new int[entries.length * 2];
+            long[] windows = new long[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                String entry = entries[i].trim();
+                int colon = entry.indexOf(':');
+                if (colon < 0) {
+                    throw new NumberFormatException("no window in " + entry);
+                }
+                String channels = entry.substring(0, colon).trim();
+                int dash = channels.indexOf('-');
+                ranges[2 * i] = Integer.parseInt(
+                        (dash < 0 ? channels : channels.substring(0, dash)).trim());
+                ranges[2 * i + 1] = dash < 0 ? ranges[2 * i]
+                        : Integer.parseInt(channels.substring(dash + 1).trim());
+                windows[i] = Long.parseLong(entry.substring(colon + 1).trim()) * unitMillis;
+            }
+            return new TimeWindow(windowMillis, emergencyWindowMillis, ranges, windows);
+        }
+
+        @Override
+        public long getExpiryTime(SmsCbMessage message, long now) {
+            long window = message.isEmergencyMessage() ? mEmergencyWindowMillis : mWindowMillis;
+            int channel = message.getServiceCategory();
+            for (int i = 0; i < mChannelWindowMillis.length; i++) {
+                if (channel >= mChannelRanges[2 * i] && channel <= mChannelRanges[2 * i + 1]) {
+                    window = mChannelWindowMillis[i];
+                    break;
+                }
+            }
+            return window > 0 ? now + window : NEVER;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("TimeWindow{").append(mWindowMillis)
+                    .append("ms, emergency ").append(mEmergencyWindowMillis).append("ms");
+            for (int i = 0; i < mChannelWindowMillis.length; i++) {
+                sb.append(", ").append(mChannelRanges[2 * i]).append('-')
+                        .append(mChannelRanges[2 * i + 1]).append(' ')
+                        .append(mChannelWindowMillis[i]).append("ms");
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.telephony.SmsCbLocation;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity table of received message IDs, for duplicate message detection.
+ *
+ * <p>Each message ID (service category, serial number, location, body hash and ETWS
+ * primary/secondary flag) is packed into three primitive longs and stored in a FIFO ring of
+ * {@code capacity} slots. An open-addressing hash index (linear probing, load factor at most
+ * 0.5) maps each distinct message ID to the ring slot where it was added. Nothing is allocated
+ * after construction, so checking a new broadcast costs a few array reads.
+ *
+ * <p>The accept/reject decisions are the same as the previous {@code HashSet} plus
+ * {@code ArrayList} implementation: every received ID takes a ring slot (duplicates included),
+ * and when the ring is full the ID in the oldest slot is removed from the index before the new
+ * ID is added.
+ *
+ * <p>An ID may also carry an expiry time chosen by a {@link CellBroadcastDuplicatePolicy}.
+ * Expiring IDs are kept in a three-level hierarchical timer wheel (64 buckets per level, one
+ * minute per tick, about 182 days in total) built from intrusive per-slot lists, which is
+ * advanced lazily whenever an ID is added. An expired ID is dropped from the hash index but
+ * keeps its ring slot until it is replaced, so expiry never scans the table.
+ *
+ * <p>When opened with {@link #open}, the ring lives in a memory-mapped file in the no-backup
+ * directory, so the table survives the process being killed. The file is a header followed by
+ * the four ring columns:
+ * <pre>
+ *   int magic, int version, int capacity, int ring size, int ring index, int header check
+ *   long[capacity] key, long[capacity] location, long[capacity] body, long[capacity] expiry
+ * </pre>
+ * The slot currently referenced by the hash index has {@link #INDEXED} set in its key, so the
+ * in-heap index and timer wheel are rebuilt exactly on load. Writes go to the page cache and are not synced;
+ * they are lost only if the kernel goes down, in which case at most the last slot is torn. A
+ * file with a bad header, or one that is too short, is discarded and the table starts empty.
+ *
+ * <p>This class is not thread-safe; it is only used from the main thread of
+ * {@link CellBroadcastAlertService}.
+ */
+final class CellBroadcastDuplicateTable {
+    private static final String TAG = "CellBroadcastDuplicateTable";
+
+    /** Name of the backing file in the no-backup directory. */
+    private static final String FILE_NAME = "cb_duplicate_table";
+
+    private static final int MAGIC = 0x43424454;    // "CBDT"
+    private static final int VERSION = 3;
+
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_RING_SIZE = 12;
+    private static final int HEADER_RING_INDEX = 16;
+    private static final int HEADER_CHECK = 20;
+    private static final int HEADER_SIZE = 32;
+
+    /** Key bit marking the slot the hash index points to; unused by {@link #packKey}. */
+    private static final long INDEXED = 1L << 31;
+
+    /** Marker for an unused bucket in the hash index, or the end of a timer list. */
+    private static final int EMPTY = -1;
+
+    /** Timer wheel geometry: {@link #WHEEL_LEVELS} levels of 64 buckets, one tick a minute. */
+    private static final long TICK_MILLIS = 60 * 1000;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int WHEEL_LEVELS = 3;
+    private static final long WHEEL_SPAN = 1L << (WHEEL_BITS * WHEEL_LEVELS);
+
+    /** Value of {@link #mTimerPrev} for a slot that has no timer. */
+    private static final int NO_TIMER = -1;
+
+    /** Maximum number of message IDs held before the oldest one is replaced. */
+    private final int mCapacity;
+
+    /** Mask applied to a hash to get a bucket of {@link #mIndex}. */
+    private final int mMask;
+
+    /** Header and ring columns, backed by the mapped file or by the heap. */
+    private final ByteBuffer mStorage;
+
+    /**
+     * Ring columns: packed category/serial/LAC/ETWS primary, packed PLMN/CID, body
+     * fingerprint and expiry time.
+     */
+    private final LongBuffer mRingKey;
+    private final LongBuffer mRingLocation;
+    private final LongBuffer mRingBody;
+    private final LongBuffer mRingExpiry;
+
+    /** Hash index of ring slots, or {@link #EMPTY}. Rebuilt from the ring on load. */
+    private final int[] mIndex;
+
+    /** Heads of the timer wheel bucket lists, level by level. */
+    private final int[] mWheel = new int[WHEEL_LEVELS * WHEEL_SIZE];
+
+    /**
+     * Per-slot timer list links. A list head has {@code -(bucket + 2)} as its previous link so
+     * it can be unlinked without a search.
+     */
+    private final int[] mTimerNext;
+    private final int[] mTimerPrev;
+
+    /** Last tick processed by the timer wheel. */
+    private long mWheelTick;
+
+    /** Number of slots with a pending timer. */
+    private int mTimerCount;
+
+    /** Number of ring slots in use. */
+    private int mRingSize;
+
+    /** Index of the oldest ring slot, replaced next once the ring is full. */
+    private int mRingIndex;
+
+    /** Creates a table held in the heap only. */
+    CellBroadcastDuplicateTable(int capacity) {
+        this(capacity, ByteBuffer.allocate(storageSize(capacity)));
+    }
+
+    private CellBroadcastDuplicateTable(int capacity, ByteBuffer storage) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        int buckets = Integer.highestOneBit(capacity) << 2;
+        mMask = buckets - 1;
+        mStorage = storage;
+        mRingKey = column(storage, 0, capacity);
+        mRingLocation = column(storage, 1, capacity);
+        mRingBody = column(storage, 2, capacity);
+        mRingExpiry = column(storage, 3, capacity);
+        mIndex = new int[buckets];
+        mTimerNext = new int[capacity];
+        mTimerPrev = new int[capacity];
+        load(System.currentTimeMillis());
+    }
+
+    /**
+     * Opens the table backed by the file in the device-protected no-backup directory, which
+     * is available before the user unlocks.
+     */
+    static CellBroadcastDuplicateTable open(Context context, int capacity) {
+        return open(new File(context.createDeviceProtectedStorageContext()
+                .getNoBackupFilesDir(), FILE_NAME), capacity);
+    }
+
+    /**
+     * Opens the table backed by a file, creating it if needed. Falls back to a heap-only table
+     * if the file can't be mapped. A truncated file is discarded.
+     */
+    static CellBroadcastDuplicateTable open(File file, int capacity) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            if (length > 0 && length < storageSize(capacity)) {
+                // The header may still look valid, but the ring slots past the end are gone.
+                Log.w(TAG, "Discarding truncated duplicate table of " + length + " bytes");
+                raf.setLength(0);
+            }
+            ByteBuffer storage = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    storageSize(capacity));
+            return new CellBroadcastDuplicateTable(capacity, storage);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't map " + file + ", duplicate IDs won't survive a restart", e);
+            return new CellBroadcastDuplicateTable(capacity);
+        }
+    }
+
+    private static int storageSize(int capacity) {
+        return HEADER_SIZE + 4 * 8 * capacity;
+    }
+
+    private static LongBuffer column(ByteBuffer storage, int column, int capacity) {
+        ByteBuffer view = storage.duplicate();
+        int offset = HEADER_SIZE + column * 8 * capacity;
+        view.position(offset);
+        view.limit(offset + 8 * capacity);
+        return view.slice().asLongBuffer();
+    }
+
+    /**
+     * Packs the service category, serial number, location area code and ETWS primary flag.
+     * The LAC is kept with 17 bits so that -1 (not present) stays distinct from 0..65535.
+     */
+    static long packKey(int serviceCategory, int serialNumber, int lac, boolean isEtwsPrimary) {
+        return ((long) (serviceCategory & 0xffff) << 48)
+                | ((long) (serialNumber & 0xffff) << 32)
+                | ((lac & 0x1ffffL) << 1)
+                | (isEtwsPrimary ? 1L : 0L);
+    }
+
+    /** Packs the PLMN and cell ID of a location; the LAC is carried by {@link #packKey}. */
+    static long packLocation(SmsCbLocation location) {
+        return ((long) plmnCode(location.getPlmn()) << 32) | (location.getCid() & 0xffffffffL);
+    }
+
+    /**
+     * Returns a code for a PLMN, 0 only for null. Numeric PLMNs (the only kind reported by
+     * telephony) are encoded exactly as digit count and value; anything else falls back to
+     * the string hash with the top bit set.
+     */
+    static int plmnCode(String plmn) {
+        if (plmn == null) {
+            return 0;
+        }
+        int length = plmn.length();
+        if (length <= 7) {
+            int value = 0;
+            int i = 0;
+            for (; i < length; i++) {
+                char c = plmn.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == length) {
+                return ((length + 1) << 24) | value;
+            }
+        }
+        return 0x80000000 | (plmn.hashCode() & 0x7fffffff);
+    }
+
+    /**
+     * Records a received message ID.
+     * @param expiryTime when the ID stops suppressing duplicates, or
+     *        {@link CellBroadcastDuplicatePolicy#NEVER}
+     * @param now the current wall clock time
+     * @return true if the message ID is new; false if it is a duplicate
+     */
+    boolean add(long key, long location, long body, long expiryTime, long now) {
+        advanceTimers(now);
+        int slot;
+        if (mRingSize < mCapacity) {
+            slot = mRingSize++;
+        } else {
+            // Replace the oldest message ID and drop it from the index.
+            slot = mRingIndex;
+            int bucket = find(mRingKey.get(slot) & ~INDEXED, mRingLocation.get(slot),
+                    mRingBody.get(slot));
+            if (bucket >= 0) {
+                int indexed = mIndex[bucket];
+                mRingKey.put(indexed, mRingKey.get(indexed) & ~INDEXED);
+                cancelTimer(indexed);
+                removeBucket(bucket);
+            }
+            if (++mRingIndex >= mCapacity) {
+                mRingIndex = 0;
+            }
+        }
+        mRingLocation.put(slot, location);
+        mRingBody.put(slot, body);
+        mRingExpiry.put(slot, expiryTime);
+
+        int bucket = find(key, location, body);
+        boolean added = bucket < 0;
+        if (added) {
+            mIndex[-bucket - 1] = slot;
+            key |= INDEXED;
+            if (expiryTime != CellBroadcastDuplicatePolicy.NEVER) {
+                scheduleTimer(slot, expiryTickOf(expiryTime));
+            }
+        }
+        mRingKey.put(slot, key);
+        writeHeader();
+        return added;
+    }
+
+    /** Returns true if the message ID has been recorded and not yet replaced. */
+    boolean contains(long key, long location, long body) {
+        return find(key, location, body) >= 0;
+    }
+
+    /** Returns the number of message IDs currently held in the ring. */
+    int size() {
+        return mRingSize;
+    }
+
+    /** Returns the maximum number of message IDs held before the oldest one is replaced. */
+    int capacity() {
+        return mCapacity;
+    }
+
+    /** Removes all message IDs. */
+    void clear() {
+        Arrays.fill(mIndex, EMPTY);
+        clearTimers();
+        mRingSize = 0;
+        mRingIndex = 0;
+        mStorage.putInt(0, MAGIC);
+        mStorage.putInt(4, VERSION);
+        mStorage.putInt(HEADER_CAPACITY, mCapacity);
+        writeHeader();
+    }
+
+    /** Restores the ring position and rebuilds the hash index and timers from the ring. */
+    private void load(long now) {
+        mWheelTick = tickOf(now);
+        int ringSize = mStorage.getInt(HEADER_RING_SIZE);
+        int ringIndex = mStorage.getInt(HEADER_RING_INDEX);
+        if (mStorage.getInt(0) != MAGIC || mStorage.getInt(4) != VERSION
+                || mStorage.getInt(HEADER_CAPACITY) != mCapacity
+                || ringSize < 0 || ringSize > mCapacity
+                || ringIndex < 0 || ringIndex >= mCapacity
+                || (ringIndex != 0 && ringSize != mCapacity)
+                || mStorage.getInt(HEADER_CHECK) != headerCheck(ringSize, ringIndex)) {
+            if (mStorage.getInt(0) != 0) {
+                Log.w(TAG, "Discarding unreadable duplicate table");
+            }
+            clear();
+            return;
+        }
+        Arrays.fill(mIndex, EMPTY);
+        clearTimers();
+        mRingSize = ringSize;
+        mRingIndex = ringIndex;
+        for (int slot = 0; slot < ringSize; slot++) {
+            long key = mRingKey.get(slot);
+            if ((key & INDEXED) == 0) {
+                continue;
+            }
+            int bucket = find(key & ~INDEXED, mRingLocation.get(slot), mRingBody.get(slot));
+            if (bucket >= 0) {
+                // Left over from a torn write; keep the first copy.
+                mRingKey.put(slot, key & ~INDEXED);
+            } else {
+                mIndex[-bucket - 1] = slot;
+                long expiryTime = mRingExpiry.get(slot);
+                if (expiryTime != CellBroadcastDuplicatePolicy.NEVER) {
+                    scheduleTimer(slot, expiryTickOf(expiryTime));
+                }
+            }
+        }
+        Log.d(TAG, "Loaded " + ringSize + " message IDs");
+    }
+
+    private static long tickOf(long time) {
+        return time / TICK_MILLIS;
+    }
+
+    /** Rounds up, so that an ID never expires before its expiry time. */
+    private static long expiryTickOf(long expiryTime) {
+        return (expiryTime + TICK_MILLIS - 1) / TICK_MILLIS;
+    }
+
+    private void clearTimers() {
+        Arrays.fill(mWheel, EMPTY);
+        Arrays.fill(mTimerPrev, NO_TIMER);
+        mTimerCount = 0;
+    }
+
+    /** Adds a timer for an indexed slot, or expires it now if the tick has already passed. */
+    private void scheduleTimer(int slot, long expiryTick) {
+        long delta = expiryTick - mWheelTick;
+        if (delta <= 0) {
+            expire(slot);
+            return;
+        }
+        int bucket;
+        if (delta < WHEEL_SIZE) {
+            bucket = (int) (expiryTick & WHEEL_MASK);
+        } else if (delta < 1L << (2 * WHEEL_BITS)) {
+            bucket = WHEEL_SIZE + (int) ((expiryTick >>> WHEEL_BITS) & WHEEL_MASK);
+        } else if (delta < WHEEL_SPAN) {
+            bucket = 2 * WHEEL_SIZE + (int) ((expiryTick >>> (2 * WHEEL_BITS)) & WHEEL_MASK);
+        } else {
+            // Beyond the wheel: park it in the top level bucket visited last, it is placed
+            // again from there.
+            bucket = 2 * WHEEL_SIZE + (int) ((mWheelTick >>> (2 * WHEEL_BITS)) & WHEEL_MASK);
+        }
+        int head = mWheel[bucket];
+        mTimerNext[slot] = head;
+        mTimerPrev[slot] = -(bucket + 2);
+        if (head != EMPTY) {
+            mTimerPrev[head] = slot;
+        }
+        mWheel[bucket] = slot;
+        mTimerCount++;
+    }
+
+    private void cancelTimer(int slot) {
+        int prev = mTimerPrev[slot];
+        if (prev == NO_TIMER) {
+            return;
+        }
+        int next = mTimerNext[slot];
+        if (prev >= 0) {
+            mTimerNext[prev] = next;
+        } else {
+            mWheel[-prev - 2] = next;
+        }
+        if (next != EMPTY) {
+            mTimerPrev[next] = prev;
+        }
+        mTimerPrev[slot] = NO_TIMER;
+        mTimerCount--;
+    }
+
+    /** Moves the wheel forward to {@code now}, expiring the IDs whose tick has passed. */
+    private void advanceTimers(long now) {
+        long target = tickOf(now);
+        if (target <= mWheelTick) {
+            // If the clock went back, follow it. Every bucket visit places its timers again
+            // rather than expiring them blindly, so nothing can expire early.
+            mWheelTick = target;
+            return;
+        }
+        if (mTimerCount == 0) {
+            mWheelTick = target;
+            return;
+        }
+        if (target - mWheelTick >= WHEEL_SPAN) {
+            // The clock jumped past the whole wheel; place every timer again.
+            int[] slots = new int[mTimerCount];
+            int count = 0;
+            for (int bucket = 0; bucket < mWheel.length; bucket++) {
+                for (int slot = mWheel[bucket]; slot != EMPTY; slot = mTimerNext[slot]) {
+                    slots[count++] = slot;
+                }
+            }
+            clearTimers();
+            mWheelTick = target;
+            for (int i = 0; i < count; i++) {
+                scheduleTimer(slots[i], expiryTickOf(mRingExpiry.get(slots[i])));
+            }
+            return;
+        }
+        while (mWheelTick < target && mTimerCount > 0) {
+            mWheelTick++;
+            int index = (int) (mWheelTick & WHEEL_MASK);
+            if (index == 0) {
+                int index1 = (int) ((mWheelTick >>> WHEEL_BITS) & WHEEL_MASK);
+                if (index1 == 0) {
+                    cascade(2 * WHEEL_SIZE
+                            + (int) ((mWheelTick >>> (2 * WHEEL_BITS)) & WHEEL_MASK));
+                }
+                cascade(WHEEL_SIZE + index1);
+            }
+            cascade(index);
+        }
+        mWheelTick = target;
+    }
+
+    /** Detaches a bucket and places its timers again, expiring the ones that are due. */
+    private void cascade(int bucket) {
+        int slot = mWheel[bucket];
+        mWheel[bucket] = EMPTY;
+        while (slot != EMPTY) {
+            int next = mTimerNext[slot];
+            mTimerPrev[slot] = NO_TIMER;
+            mTimerCount--;
+            scheduleTimer(slot, expiryTickOf(mRingExpiry.get(slot)));
+            slot = next;
+        }
+    }
+
+    /** Drops an expired ID from the hash index; its ring slot stays until replaced. */
+    private void expire(int slot) {
+        long key = mRingKey.get(slot);
+        int bucket = find(key & ~INDEXED, mRingLocation.get(slot), mRingBody.get(slot));
+        if (bucket >= 0 && mIndex[bucket] == slot) {
+            removeBucket(bucket);
+        }
+        mRingKey.put(slot, key & ~INDEXED);
+    }
+
+    private void writeHeader() {
+        mStorage.putInt(HEADER_RING_SIZE, mRingSize);
+        mStorage.putInt(HEADER_RING_INDEX, mRingIndex);
+        mStorage.putInt(HEADER_CHECK, headerCheck(mRingSize, mRingIndex));
+    }
+
+    private int headerCheck(int ringSize, int ringIndex) {
+        return MAGIC ^ (ringSize * 0x9e3779b1) ^ (ringIndex * 0x85ebca6b) ^ mCapacity;
+    }
+
+    /**
+     * Returns the bucket holding the message ID, or {@code -(insertion bucket) - 1} if it is
+     * not present.
+     */
+    private int find(long key, long location, long body) {
+        int bucket = bucketFor(key, location, body);
+        while (true) {
+            int slot = mIndex[bucket];
+            if (slot == EMPTY) {
+                return -bucket - 1;
+            }
+            if ((mRingKey.get(slot) & ~INDEXED) == key && mRingLocation.get(slot) == location
+                    && mRingBody.get(slot) == body) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & mMask;
+        }
+    }
+
+    /** Empties a bucket, shifting later entries of the same probe run back into the gap. */
+    private void removeBucket(int bucket) {
+        int gap = bucket;
+        int next = bucket;
+        while (true) {
+            next = (next + 1) & mMask;
+            int slot = mIndex[next];
+            if (slot == EMPTY) {
+                break;
+            }
+            int home = bucketFor(mRingKey.get(slot) & ~INDEXED, mRingLocation.get(slot),
+                    mRingBody.get(slot));
+            // Leave the entry where it is if its home bucket lies cyclically in (gap, next].
+            boolean inRun = gap <= next ? (gap < home && home <= next)
+                    : (gap < home || home <= next);
+            if (!inRun) {
+                mIndex[gap] = slot;
+                gap = next;
+            }
+        }
+        mIndex[gap] = EMPTY;
+    }
+
+    private int bucketFor(long key, long location, long body) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= location * 0xc2b2ae3d27d4eb4fL;
+        h ^= body * 0x165667b19e3779f9L;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32)) & mMask;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.BitSet;
+
+/**
+ * The operator-defined emergency message identifiers of the
+ * {@link CellBroadcastConfigService#EMERGENCY_BROADCAST_RANGE_GSM} property, compiled into a
+ * set with one bit per message identifier (8 KB). The property is a comma separated list of
+ * identifiers and dash separated ranges, e.g. "0x1100-0x1104,4352". It used to be parsed for
+ * every alert; now it is parsed once, and again only if the property value changes.
+ */
+final class CellBroadcastEmergencyIds {
+    private static final String TAG = "CellBroadcastEmergencyIds";
+
+    private static final int MAX_MESSAGE_ID = 0xFFFF;
+
+    private static volatile CellBroadcastEmergencyIds sCurrent =
+            new CellBroadcastEmergencyIds("");
+
+    /** The property value the set was compiled from. */
+    private final String mSource;
+    private final BitSet mIds = new BitSet(MAX_MESSAGE_ID + 1);
+
+    /** Receives the ranges of the set, see {@link #forEachRange}. */
+    interface RangeCallback {
+        void onRange(int startId, int endId);
+    }
+
+    /**
+     * Compiles a property value. Malformed and out of range entries are logged and skipped;
+     * the other entries still count.
+     */
+    @VisibleForTesting
+    CellBroadcastEmergencyIds(String source) {
+        mSource = source;
+        for (String channelRange : source.split(",")) {
+            if (channelRange.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                int dashIndex = channelRange.indexOf('-');
+                int startId;
+                int endId;
+                if (dashIndex != -1) {
+                    startId = Integer.decode(channelRange.substring(0, dashIndex).trim());
+                    endId = Integer.decode(channelRange.substring(dashIndex + 1).trim());
+                } else {
+                    startId = endId = Integer.decode(channelRange.trim());
+                }
+                if (startId < 0 || endId > MAX_MESSAGE_ID || startId > endId) {
+                    Log.e(TAG, "Ignoring invalid emergency channel range " + channelRange);
+                    continue;
+                }
+                mIds.set(startId, endId + 1);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Number Format Exception parsing emergency channel range", e);
+            }
+        }
+    }
+
+    /** Returns the set of the current property value, compiling it if the value changed. */
+    static CellBroadcastEmergencyIds get() {
+        String source = SystemProperties.get(
+                CellBroadcastConfigService.EMERGENCY_BROADCAST_RANGE_GSM);
+        CellBroadcastEmergencyIds ids = sCurrent;
+        if (!ids.mSource.equals(source)) {
+            ids = new CellBroadcastEmergencyIds(source);
+            sCurrent = ids;
+            Log.d(TAG, "Compiled \"" + source + "\": " + ids.mIds.cardinality() + " ids");
+        }
+        return ids;
+    }
+
+    /** Returns true if the message identifier is an emergency one. */
+    boolean contains(int messageId) {
+        return messageId >= 0 && messageId <= MAX_MESSAGE_ID && mIds.get(messageId);
+    }
+
+    /**
+     * Calls {@code callback} with each maximal range of consecutive identifiers in the set,
+     * in increasing order. Overlapping and adjacent ranges of the property are merged.
+     */
+    void forEachRange(RangeCallback callback) {
+        for (int start = mIds.nextSetBit(0); start >= 0;
+                start = mIds.nextSetBit(mIds.nextClearBit(start))) {
+            callback.onRange(start, mIds.nextClearBit(start) - 1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.telephony.SmsCbEtwsInfo;
+import android.telephony.SmsCbMessage;
+
+/**
+ * Pairs ETWS secondary notifications with their primary notification. The primary carries
+ * only the warning type and is followed, usually within milliseconds, by a secondary with the
+ * text. A secondary that arrives within the coalescing window upgrades the alert of its
+ * primary in place: it replaces the primary's database row and dialog entry, and the alert
+ * tone of the primary keeps playing.
+ *
+ * <p>Primaries are kept in a small ring, keyed on subscription, warning type and serial
+ * number. An entry is used by at most one secondary.
+ *
+ * <p>This class is not thread-safe; it is only used from the main thread of
+ * {@link CellBroadcastAlertService}.
+ */
+final class CellBroadcastEtwsCoalescer {
+
+    /** Returned by {@link #takePrimary} if there is no primary to upgrade. */
+    static final long NO_PRIMARY = -1;
+
+    /** Number of primaries kept; more distinct warnings within a window are not expected. */
+    private static final int SIZE = 8;
+
+    private final long[] mKey = new long[SIZE];
+    private final long[] mReceivedTime = new long[SIZE];
+    private final long[] mDeliveryTime = new long[SIZE];
+    private final boolean[] mPending = new boolean[SIZE];
+    private int mNext;
+    private int mCoalescedCount;
+
+    private static long keyOf(SmsCbEtwsInfo etwsInfo, SmsCbMessage message, int subId) {
+        return ((long) subId << 32) | ((long) (etwsInfo.getWarningType() & 0xffff) << 16)
+                | (message.getSerialNumber() & 0xffff);
+    }
+
+    /**
+     * Records a primary notification.
+     * @param deliveryTime the delivery time of the primary, which identifies its database row
+     */
+    void addPrimary(SmsCbMessage message, int subId, long deliveryTime, long now) {
+        int entry = mNext;
+        mKey[entry] = keyOf(message.getEtwsWarningInfo(), message, subId);
+        mReceivedTime[entry] = now;
+        mDeliveryTime[entry] = deliveryTime;
+        mPending[entry] = true;
+        mNext = (mNext + 1) % SIZE;
+    }
+
+    /**
+     * Looks for the primary of a secondary notification received within the window, and
+     * removes it.
+     * @return the delivery time of the primary, or {@link #NO_PRIMARY}
+     */
+    long takePrimary(SmsCbMessage message, int subId, long windowMillis, long now) {
+        long key = keyOf(message.getEtwsWarningInfo(), message, subId);
+        for (int i = 0; i < SIZE; i++) {
+            if (mPending[i] && mKey[i] == key
+                    && now - mReceivedTime[i] >= 0 && now - mReceivedTime[i] < windowMillis) {
+                mPending[i] = false;
+                mCoalescedCount++;
+                return mDeliveryTime[i];
+            }
+        }
+        return NO_PRIMARY;
+    }
+
+    /** Returns the number of secondaries that upgraded their primary. */
+    int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+}
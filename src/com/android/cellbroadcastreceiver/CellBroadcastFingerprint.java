@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Intent;
+import android.telephony.CellBroadcastMessage;
+
+import java.util.List;
+
+/**
+ * 64-bit fingerprint of a message body, used wherever two broadcasts are compared by content:
+ * duplicate detection, cross subscription suppression and merging alerts into the alert
+ * dialog. It is computed once when a broadcast is received and carried along in intent
+ * extras, so the body is not rehashed at every stage.
+ *
+ * <p>The hash is a MurmurHash3-style mix over the UTF-16 code units, four at a time. It is not
+ * cryptographic; it only needs to make accidental collisions between broadcasts negligible,
+ * which the 32-bit {@link String#hashCode} used before did not at 65535 retained IDs.
+ */
+final class CellBroadcastFingerprint {
+
+    /** Intent extra with the fingerprint of the "message" extra. */
+    static final String MESSAGE_EXTRA = "message_fingerprint";
+
+    /** Intent extra with the fingerprints of the SMS_CB_MESSAGE_EXTRA list, in list order. */
+    static final String LIST_EXTRA = "message_fingerprints";
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final long SEED = 0x9e3779b97f4a7c15L;
+
+    private CellBroadcastFingerprint() {
+    }
+
+    /** Returns the fingerprint of a message body; 0 for null. */
+    static long of(String body) {
+        if (body == null) {
+            return 0;
+        }
+        int length = body.length();
+        long h = SEED ^ (length * C1);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long block = body.charAt(i)
+                    | (long) body.charAt(i + 1) << 16
+                    | (long) body.charAt(i + 2) << 32
+                    | (long) body.charAt(i + 3) << 48;
+            h ^= mixBlock(block);
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            tail |= (long) body.charAt(i) << shift;
+        }
+        h ^= mixBlock(tail);
+        return finalMix(h);
+    }
+
+    /** Returns the fingerprint of the message body of a broadcast. */
+    static long of(CellBroadcastMessage message) {
+        return of(message.getMessageBody());
+    }
+
+    /** Returns the fingerprint carried with the "message" extra, or computes it. */
+    static long fromIntent(Intent intent, CellBroadcastMessage message) {
+        return intent.hasExtra(MESSAGE_EXTRA) ? intent.getLongExtra(MESSAGE_EXTRA, 0)
+                : of(message);
+    }
+
+    /**
+     * Returns the fingerprints of a message list: the carried ones if they match the list,
+     * otherwise computed.
+     */
+    static long[] forList(List<CellBroadcastMessage> messages, long[] carried) {
+        if (carried != null && carried.length == messages.size()) {
+            return carried;
+        }
+        long[] fingerprints = new long[messages.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = of(messages.get(i));
+        }
+        return fingerprints;
+    }
+
+    private static long mixBlock(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+
+    private static long finalMix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
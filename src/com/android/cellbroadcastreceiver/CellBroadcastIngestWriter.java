@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telephony.CellBroadcastMessage;
+import android.telephony.SmsCbCmasInfo;
+import android.util.Log;
+
+import com.android.internal.telephony.gsm.SmsCbConstants;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dedicated scheduler for the database work of received broadcasts. It runs on its own
+ * thread, so an alert no longer queues behind list deletions and mark-read operations on
+ * AsyncTask's shared serial executor.
+ *
+ * <p>Work is queued in priority classes, from {@link #PRIORITY_PRESIDENTIAL} down to
+ * {@link #PRIORITY_INFO}, and always taken highest class first, oldest first within a class.
+ * Emergency classes are written right away; the others are held for a short delay, or until
+ * a batch is full, and then written in one transaction with one change notification.
+ *
+ * <p>The queue is bounded. When it is full, the oldest entry of the lowest AMBER or
+ * informational class that is not more important than the new entry is shed; if there is
+ * none, a new AMBER or informational entry is shed itself. Emergency classes are never shed
+ * and may exceed the bound. A shed broadcast is not stored, but its alert is still shown.
+ *
+ * <p>Once a batch is committed, the alert intent of each broadcast is handed in order to the
+ * {@link AlertDispatcher}, or started with startService if there is none. Emergency alerts
+ * in the display-first fast lane have been shown already and are queued without an intent.
+ *
+ * <p>A broadcast that is older than the revised version of it already in the table is
+ * neither stored nor shown.
+ *
+ * <p>Broadcasts that fail to be written are kept and retried with exponential backoff until
+ * they are written, so that an alert shown before it was stored is not lost from the list.
+ * Journaled operations that fail are retried the same way, up to
+ * {@link #MAX_OPERATION_ATTEMPTS} times.
+ *
+ * <p>Every queued broadcast is first appended to the {@link CellBroadcastJournal}, which is
+ * synced once per batch before the batch is inserted. Records left in the journal by a crash
+ * are replayed into the table before any new work is written.
+ */
+final class CellBroadcastIngestWriter implements Handler.Callback {
+    private static final String TAG = "CellBroadcastIngestWriter";
+
+    /** Presidential level alerts. */
+    static final int PRIORITY_PRESIDENTIAL = 0;
+
+    /** Extreme and severe CMAS alerts, ETWS and other emergency alerts. */
+    static final int PRIORITY_EMERGENCY = 1;
+
+    /** CMAS child abduction (AMBER) alerts. */
+    static final int PRIORITY_AMBER = 2;
+
+    /** Everything else, including area info. */
+    static final int PRIORITY_INFO = 3;
+
+    static final int PRIORITY_COUNT = 4;
+
+    static final String[] PRIORITY_NAMES = {"presidential", "emergency", "amber",
+            "info"};
+
+    private static final int EVENT_FLUSH = 1;
+    private static final int EVENT_RETRY = 2;
+    private static final int EVENT_REPLAY = 3;
+
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    /** Attempts after which a journaled operation that keeps failing is dropped. */
+    private static final int MAX_OPERATION_ATTEMPTS = 8;
+
+    /** Takes the alerts of written broadcasts in process. */
+    interface AlertDispatcher {
+        /** Called on the writer thread with the alert intent of a written broadcast. */
+        void dispatchAlert(Intent alertIntent);
+    }
+
+    private volatile AlertDispatcher mAlertDispatcher;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final int mBatchSize;
+    private final long mFlushDelayMillis;
+    private final int mCapacity;
+
+    /** Write-ahead journal of queued broadcasts, or null if it can't be opened. */
+    private final CellBroadcastJournal mJournal;
+
+    /** Guards the queues and the metrics. */
+    private final Object mLock = new Object();
+
+    /** One FIFO queue per priority class. */
+    private final ArrayDeque<Entry>[] mQueues;
+    private int mDepth;
+
+    /** Broadcasts whose write failed, waiting for EVENT_RETRY; only touched on the thread. */
+    private final ArrayList<Entry> mRetries = new ArrayList<Entry>();
+    private long mRetryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+
+    // Metrics, reported by dump().
+    private int mMaxDepth;
+    private long mBatchCount;
+    private long mMessageCount;
+    private long mFailedCount;
+    private long mRetriedCount;
+    private long mRecoveredCount;
+    private int mPendingRetries;
+    private long mReplayedCount;
+    private long mSupersededCount;
+    private long mDroppedOperationCount;
+    private int mMaxBatch;
+    private final long[] mDequeuedCount = new long[PRIORITY_COUNT];
+    private final long[] mShedCount = new long[PRIORITY_COUNT];
+    private final long[] mTotalWaitMillis = new long[PRIORITY_COUNT];
+    private final long[] mMaxWaitMillis = new long[PRIORITY_COUNT];
+
+    private static final class Entry {
+        final int mPriority;
+        final CellBroadcastMessage mMessage;
+        final Intent mAlertIntent;
+        final CellBroadcastContentProvider.CellBroadcastOperation mOperation;
+        final long mEnqueueTime;
+        final int mAttempts;
+        /** {@link CellBroadcastLatency} receive time of the message, or 0. */
+        final long mReceiveTime;
+        /** Whether the message is in the journal, and counts in its unimported records. */
+        final boolean mJournaled;
+
+        Entry(int priority, CellBroadcastMessage message, Intent alertIntent,
+                CellBroadcastContentProvider.CellBroadcastOperation operation, int attempts,
+                long receiveTime, boolean journaled) {
+            mPriority = priority;
+            mMessage = message;
+            mAlertIntent = alertIntent;
+            mOperation = operation;
+            mEnqueueTime = SystemClock.elapsedRealtime();
+            mAttempts = attempts;
+            mReceiveTime = receiveTime;
+            mJournaled = journaled;
+        }
+    }
+
+    /**
+     * @param batchSize number of broadcasts written in one transaction
+     * @param flushDelayMillis longest time a non-emergency broadcast waits for a batch
+     * @param capacity number of queued entries above which AMBER and informational work is shed
+     * @param journal write-ahead journal, or null to write to the database only
+     */
+    @SuppressWarnings("unchecked")
+    CellBroadcastIngestWriter(Context context, int batchSize, long flushDelayMillis,
+            int capacity, CellBroadcastJournal journal) {
+        mContext = context.getApplicationContext();
+        mJournal = journal;
+        mBatchSize = Math.max(1, batchSize);
+        mFlushDelayMillis = Math.max(0, flushDelayMillis);
+        mCapacity = Math.max(1, capacity);
+        mQueues = new ArrayDeque[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueues[i] = new ArrayDeque<Entry>();
+        }
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper(), this);
+
+        // Replay what a previous process left behind, and only that: the records before the
+        // current end, ahead of anything appended from now on.
+        if (mJournal != null && mJournal.getUnimportedCount() > 0) {
+            mHandler.obtainMessage(EVENT_REPLAY, mJournal.getSize()).sendToTarget();
+        }
+    }
+
+    /** Sets the dispatcher that takes alerts in process. */
+    void setAlertDispatcher(AlertDispatcher dispatcher) {
+        synchronized (mLock) {
+            mAlertDispatcher = dispatcher;
+        }
+    }
+
+    /** Clears the dispatcher, if it is still the given one. */
+    void clearAlertDispatcher(AlertDispatcher dispatcher) {
+        synchronized (mLock) {
+            if (mAlertDispatcher == dispatcher) {
+                mAlertDispatcher = null;
+            }
+        }
+    }
+
+    /** Returns the priority class of a broadcast. */
+    static int priorityOf(CellBroadcastMessage message) {
+        int cmasClass = message.isCmasMessage() ? message.getCmasMessageClass()
+                : SmsCbCmasInfo.CMAS_CLASS_UNKNOWN;
+        if (cmasClass == SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT
+                || message.getServiceCategory()
+                        == SmsCbConstants.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL) {
+            return PRIORITY_PRESIDENTIAL;
+        }
+        if (cmasClass == SmsCbCmasInfo.CMAS_CLASS_CHILD_ABDUCTION_EMERGENCY) {
+            return PRIORITY_AMBER;
+        }
+        if (message.isEtwsMessage()
+                || CellBroadcastConfigService.isEmergencyAlertMessage(message)) {
+            return PRIORITY_EMERGENCY;
+        }
+        return PRIORITY_INFO;
+    }
+
+    /**
+     * Queues a broadcast for insertion. The alert intent is started once the broadcast is
+     * written, or is null if nothing should be shown.
+     * @param receiveTime the {@link CellBroadcastLatency} receive time of the broadcast
+     */
+    void enqueue(CellBroadcastMessage message, Intent alertIntent, int priority,
+            long receiveTime) {
+        boolean journaled = mJournal != null
+                && mJournal.append(CellBroadcastContentProvider.toContentValues(message));
+        offer(new Entry(priority, message, alertIntent, null, 0, receiveTime, journaled));
+    }
+
+    /**
+     * Queues an operation on the provider. It runs after the broadcasts queued before it in
+     * the same or a higher class have been written.
+     */
+    void enqueue(CellBroadcastContentProvider.CellBroadcastOperation operation, int priority) {
+        offer(new Entry(priority, null, null, operation, 0, 0, false));
+    }
+
+    /**
+     * Queues an operation that stores a broadcast, e.g. by updating the row of an earlier
+     * one. The broadcast is journaled, so that a replay inserts it if the process dies
+     * before the operation runs. The alert intent is started once the operation has run, or
+     * is null if nothing should be shown.
+     */
+    void enqueue(CellBroadcastMessage message,
+            CellBroadcastContentProvider.CellBroadcastOperation operation, Intent alertIntent,
+            int priority, long receiveTime) {
+        boolean journaled = mJournal != null
+                && mJournal.append(CellBroadcastContentProvider.toContentValues(message));
+        offer(new Entry(priority, null, alertIntent, operation, 0, receiveTime, journaled));
+    }
+
+    private void offer(Entry entry) {
+        Entry shed = null;
+        boolean flushNow;
+        synchronized (mLock) {
+            if (mDepth >= mCapacity && isSheddable(entry.mPriority)) {
+                for (int p = PRIORITY_COUNT - 1; p >= entry.mPriority; p--) {
+                    if (isSheddable(p) && !mQueues[p].isEmpty()) {
+                        shed = mQueues[p].pollFirst();
+                        mDepth--;
+                        break;
+                    }
+                }
+                if (shed == null) {
+                    shed = entry;
+                }
+                mShedCount[shed.mPriority]++;
+            }
+            if (shed != entry) {
+                mQueues[entry.mPriority].addLast(entry);
+                mDepth++;
+                mMaxDepth = Math.max(mMaxDepth, mDepth);
+            }
+            flushNow = isUrgent(entry.mPriority) || mDepth >= mBatchSize;
+        }
+
+        if (shed != null) {
+            if (shed.mMessage != null) {
+                CellBroadcastTrace.event(CellBroadcastTrace.SHED, shed.mMessage);
+            }
+            Log.w(TAG, "ingest queue full, shedding " + PRIORITY_NAMES[shed.mPriority]
+                    + " entry");
+            if (shed.mJournaled) {
+                // Not going to be written; don't hold the journal back for it.
+                mJournal.markImported(1);
+            }
+            // The message travels with the intent, so the alert is shown without being stored.
+            if (shed.mAlertIntent != null) {
+                dispatchAlert(shed.mAlertIntent);
+            }
+        }
+
+        if (flushNow) {
+            mHandler.removeMessages(EVENT_FLUSH);
+            mHandler.sendEmptyMessage(EVENT_FLUSH);
+        } else if (!mHandler.hasMessages(EVENT_FLUSH)) {
+            mHandler.sendEmptyMessageDelayed(EVENT_FLUSH, mFlushDelayMillis);
+        }
+    }
+
+    /** Returns true for the emergency classes, which are written and shown right away. */
+    static boolean isUrgent(int priority) {
+        return priority <= PRIORITY_EMERGENCY;
+    }
+
+    private static boolean isSheddable(int priority) {
+        return priority >= PRIORITY_AMBER;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case EVENT_FLUSH:
+                ArrayList<Entry> batch;
+                while (!(batch = takeBatch()).isEmpty()) {
+                    writeBatch(batch);
+                }
+                return true;
+            case EVENT_RETRY:
+                ArrayList<Entry> retries = new ArrayList<Entry>(mRetries);
+                mRetries.clear();
+                writeBatch(retries);
+                return true;
+            case EVENT_REPLAY:
+                replay(mJournal.readAll((Long) msg.obj));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Takes up to a batch of entries, highest class first. */
+    private ArrayList<Entry> takeBatch() {
+        ArrayList<Entry> batch = new ArrayList<Entry>(mBatchSize);
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            for (int p = 0; p < PRIORITY_COUNT && batch.size() < mBatchSize; p++) {
+                while (batch.size() < mBatchSize && !mQueues[p].isEmpty()) {
+                    Entry entry = mQueues[p].pollFirst();
+                    long wait = now - entry.mEnqueueTime;
+                    mDequeuedCount[p]++;
+                    mTotalWaitMillis[p] += wait;
+                    mMaxWaitMillis[p] = Math.max(mMaxWaitMillis[p], wait);
+                    batch.add(entry);
+                }
+            }
+            mDepth -= batch.size();
+        }
+        return batch;
+    }
+
+    private void writeBatch(ArrayList<Entry> batch) {
+        ArrayList<CellBroadcastMessage> messages = new ArrayList<CellBroadcastMessage>();
+        boolean syncJournal = false;
+        for (Entry entry : batch) {
+            if (entry.mMessage != null) {
+                messages.add(entry.mMessage);
+            }
+            syncJournal |= entry.mJournaled;
+        }
+
+        List<CellBroadcastMessage> failed = messages;
+        ArrayList<CellBroadcastMessage> stale = new ArrayList<CellBroadcastMessage>();
+        ArrayList<CellBroadcastMessage> replaced = new ArrayList<CellBroadcastMessage>();
+        boolean changed = false;
+        int operationsJournaled = 0;
+        ArrayList<Entry> failedOperations = new ArrayList<Entry>();
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentProviderClient cpc = resolver.acquireContentProviderClient(
+                CellBroadcastContentProvider.CB_AUTHORITY);
+        CellBroadcastContentProvider provider = cpc == null ? null
+                : (CellBroadcastContentProvider) cpc.getLocalContentProvider();
+        if (provider != null) {
+            try {
+                if (syncJournal) {
+                    mJournal.sync();
+                }
+                if (!messages.isEmpty()) {
+                    failed = provider.insertNewBroadcasts(messages, stale, replaced);
+                    changed = failed.size() + stale.size() < messages.size();
+                }
+                for (Entry entry : batch) {
+                    if (entry.mOperation != null) {
+                        boolean executed = entry.mOperation.execute(provider);
+                        if (entry.mJournaled) {
+                            if (executed) {
+                                operationsJournaled++;
+                            } else {
+                                failedOperations.add(entry);
+                            }
+                        }
+                        changed |= executed;
+                    }
+                }
+                if (changed) {
+                    Log.d(TAG, "database changed: notifying observers...");
+                    resolver.notifyChange(CellBroadcastContentProvider.CONTENT_URI, null, false);
+                }
+            } finally {
+                cpc.release();
+            }
+        } else {
+            Log.e(TAG, "getLocalContentProvider() returned null");
+            if (cpc != null) {
+                cpc.release();
+            }
+            for (Entry entry : batch) {
+                if (entry.mOperation != null && entry.mJournaled) {
+                    failedOperations.add(entry);
+                }
+            }
+        }
+
+        int recovered = 0;
+        int journaled = operationsJournaled;
+        // Journaled operations that failed are retried like broadcasts, but only so often:
+        // until they are dropped, they hold back the truncation of the journal.
+        int retriedOperations = 0;
+        int droppedOperations = 0;
+        for (Entry entry : failedOperations) {
+            if (entry.mAttempts + 1 < MAX_OPERATION_ATTEMPTS) {
+                mRetries.add(new Entry(entry.mPriority, null, null, entry.mOperation,
+                        entry.mAttempts + 1, entry.mReceiveTime, true));
+                retriedOperations++;
+            } else {
+                journaled++;
+                droppedOperations++;
+            }
+        }
+        if (droppedOperations > 0) {
+            Log.e(TAG, "dropped " + droppedOperations + " journaled operations after "
+                    + MAX_OPERATION_ATTEMPTS + " attempts");
+        }
+        for (Entry entry : batch) {
+            if (entry.mMessage == null) {
+                continue;
+            }
+            if (failed.contains(entry.mMessage)) {
+                CellBroadcastTrace.event(CellBroadcastTrace.WRITE_FAILED, entry.mMessage);
+                mRetries.add(new Entry(entry.mPriority, entry.mMessage, null, null,
+                        entry.mAttempts + 1, entry.mReceiveTime, entry.mJournaled));
+            } else if (stale.contains(entry.mMessage)) {
+                // Superseded by the newer version in the table; neither stored nor shown.
+                if (entry.mJournaled) {
+                    journaled++;
+                }
+                CellBroadcastTrace.event(CellBroadcastTrace.SUPERSEDED, entry.mMessage);
+            } else {
+                if (entry.mJournaled) {
+                    journaled++;
+                }
+                CellBroadcastTrace.event(CellBroadcastTrace.WRITTEN, entry.mMessage);
+                // A replaced row keeps the delivery time of the earlier version, so the
+                // handle of this one can't be resolved from the database.
+                if (!replaced.contains(entry.mMessage)) {
+                    CellBroadcastMessageRegistry.markStored(entry.mMessage);
+                }
+                CellBroadcastLatency.record(CellBroadcastLatency.DB_COMMIT, entry.mPriority,
+                        entry.mReceiveTime);
+                if (entry.mAttempts > 0) {
+                    recovered++;
+                }
+            }
+        }
+        if (journaled > 0) {
+            mJournal.markImported(journaled);
+        }
+        if (failed.isEmpty() && retriedOperations == 0) {
+            mRetryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+        } else {
+            Log.e(TAG, failed.size() + " broadcasts and " + retriedOperations
+                    + " operations not written, retrying in " + mRetryDelayMillis + "ms");
+            if (!mHandler.hasMessages(EVENT_RETRY)) {
+                mHandler.sendEmptyMessageDelayed(EVENT_RETRY, mRetryDelayMillis);
+                mRetryDelayMillis = Math.min(mRetryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+
+        synchronized (mLock) {
+            mBatchCount++;
+            mMessageCount += messages.size();
+            mFailedCount += failed.size();
+            mRetriedCount += failed.size() + retriedOperations;
+            mRecoveredCount += recovered;
+            mPendingRetries = mRetries.size();
+            mMaxBatch = Math.max(mMaxBatch, messages.size());
+            mSupersededCount += stale.size();
+            mDroppedOperationCount += droppedOperations;
+        }
+
+        // The alerts are shown even if the write failed; the message travels with the intent.
+        for (Entry entry : batch) {
+            if (entry.mAlertIntent != null
+                    && (entry.mMessage == null || !stale.contains(entry.mMessage))) {
+                dispatchAlert(entry.mAlertIntent);
+            }
+        }
+    }
+
+    /** Imports the records a previous process left in the journal. */
+    private void replay(List<ContentValues> rows) {
+        int inserted = -1;
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentProviderClient cpc = resolver.acquireContentProviderClient(
+                CellBroadcastContentProvider.CB_AUTHORITY);
+        CellBroadcastContentProvider provider = cpc == null ? null
+                : (CellBroadcastContentProvider) cpc.getLocalContentProvider();
+        if (provider != null) {
+            try {
+                inserted = provider.importJournaledBroadcasts(rows);
+                if (inserted > 0) {
+                    resolver.notifyChange(CellBroadcastContentProvider.CONTENT_URI, null, false);
+                }
+            } finally {
+                cpc.release();
+            }
+        } else if (cpc != null) {
+            cpc.release();
+        }
+
+        if (inserted < 0) {
+            // Left in the journal; the next start tries again.
+            Log.e(TAG, "replay of " + rows.size() + " journaled broadcasts failed");
+            return;
+        }
+        Log.d(TAG, "replayed " + rows.size() + " journaled broadcasts, " + inserted + " new");
+        mJournal.markImported(rows.size());
+        synchronized (mLock) {
+            mReplayedCount += inserted;
+        }
+    }
+
+    private void dispatchAlert(Intent alertIntent) {
+        AlertDispatcher dispatcher = mAlertDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatchAlert(alertIntent);
+        } else {
+            mContext.startService(alertIntent);
+        }
+    }
+
+    /** Prints the tunables, queue depth, wait times and batch metrics. */
+    void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("Ingest writer: batchSize=" + mBatchSize + " flushDelay="
+                    + mFlushDelayMillis + "ms capacity=" + mCapacity);
+            pw.println("  depth=" + mDepth + " maxDepth=" + mMaxDepth);
+            pw.println("  batches=" + mBatchCount + " messages=" + mMessageCount
+                    + " failed=" + mFailedCount + " maxBatch=" + mMaxBatch + " avgBatch="
+                    + (mBatchCount > 0 ? (float) mMessageCount / mBatchCount : 0f));
+            pw.println("  retried=" + mRetriedCount + " recovered=" + mRecoveredCount
+                    + " pendingRetries=" + mPendingRetries + " replayed=" + mReplayedCount
+                    + " superseded=" + mSupersededCount
+                    + " droppedOperations=" + mDroppedOperationCount);
+            if (mJournal != null) {
+                pw.println("  journal: unimported=" + mJournal.getUnimportedCount() + " size="
+                        + mJournal.getSize() + " bytes");
+            }
+            for (int p = 0; p < PRIORITY_COUNT; p++) {
+                pw.println("  " + PRIORITY_NAMES[p] + ": queued=" + mQueues[p].size()
+                        + " dequeued=" + mDequeuedCount[p] + " shed=" + mShedCount[p]
+                        + " wait avg=" + (mDequeuedCount[p] > 0
+                                ? mTotalWaitMillis[p] / mDequeuedCount[p] : 0)
+                        + "ms max=" + mMaxWaitMillis[p] + "ms");
+            }
+        }
+    }
+}
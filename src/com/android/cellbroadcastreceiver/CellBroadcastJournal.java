@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of accepted broadcasts. Every broadcast that passes
+ * duplicate detection is appended here before it is queued for the broadcasts table, so a
+ * crash between receipt and the database insert does not lose the alert: unimported records
+ * are replayed into the table on the next start.
+ *
+ * <p>Appends are cheap writes to the page cache; {@link #sync} forces them to storage once
+ * per ingest batch, before the batch is inserted. Once every record in the journal has been
+ * committed to the database the journal is truncated back to its header. The truncation is
+ * not forced on its own: the next sync forces it along with the new records, so a batch
+ * costs one sync. If a crash loses the truncation, the old records are replayed again, which
+ * is harmless.
+ *
+ * <p>Record format, all integers big-endian:
+ * <pre>
+ *   header:  int magic ("CBWJ"), int version
+ *   record:  int payload length, int CRC-32 of the payload, byte[length] payload
+ *   payload: short column count, then per column:
+ *              short name length, byte[] UTF-8 name, byte type, value
+ *   type:    0 null (no value), 1 int, 2 long, 3 string (int length, byte[] UTF-8),
+ *            4 boolean (byte), 5 double
+ * </pre>
+ * A payload holds the ContentValues of a broadcasts table row. Reading stops at the first
+ * record that is truncated or fails its CRC, which can only be the torn tail of a crash.
+ *
+ * <p>Replay is idempotent: the importer skips records whose row is already in the table.
+ * Access is synchronized; appends come from the main thread and everything else from the
+ * ingest writer thread.
+ */
+final class CellBroadcastJournal {
+    private static final String TAG = "CellBroadcastJournal";
+
+    /** Name of the journal file in the device-protected no-backup directory. */
+    private static final String FILE_NAME = "cb_broadcast_journal";
+
+    private static final int MAGIC = 0x4342574a;    // "CBWJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** Largest payload accepted on read; anything bigger is a corrupt length. */
+    private static final int MAX_PAYLOAD = 64 * 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_DOUBLE = 5;
+
+    private final FileChannel mChannel;
+
+    /** End of the last valid record; appends go here. */
+    private long mEnd;
+
+    /** Records in the journal that are not yet committed to the database. */
+    private int mUnimported;
+
+    /** Whether the file was truncated since the last sync, so the size must be forced too. */
+    private boolean mResized;
+
+    private CellBroadcastJournal(FileChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Opens the journal in the device-protected no-backup directory, which is available before
+     * the user unlocks, creating it if needed.
+     * @return the journal, or null if it can't be opened
+     */
+    static CellBroadcastJournal open(Context context) {
+        return open(new File(context.createDeviceProtectedStorageContext()
+                .getNoBackupFilesDir(), FILE_NAME));
+    }
+
+    static CellBroadcastJournal open(File file) {
+        try {
+            @SuppressWarnings("resource")
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            CellBroadcastJournal journal = new CellBroadcastJournal(channel);
+            journal.recover();
+            return journal;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + file + ", broadcasts won't be journaled", e);
+            return null;
+        }
+    }
+
+    /** Validates the header and finds the end of the valid records. */
+    private void recover() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        mChannel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+            if (mChannel.size() > 0) {
+                Log.e(TAG, "Discarding journal with bad header");
+            }
+            resetLocked();
+            return;
+        }
+        mEnd = HEADER_SIZE;
+        mUnimported = 0;
+        while (readRecord(mEnd) != null) {
+            mEnd += RECORD_HEADER_SIZE + recordLength(mEnd);
+            mUnimported++;
+        }
+        if (mEnd < mChannel.size()) {
+            Log.e(TAG, "Dropping torn journal tail at " + mEnd);
+            mChannel.truncate(mEnd);
+        }
+    }
+
+    /**
+     * Appends a broadcast, without syncing.
+     * @return false if it could not be appended; it must not be counted in
+     *         {@link #markImported} then
+     */
+    synchronized boolean append(ContentValues values) {
+        try {
+            byte[] payload = encode(values);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            long position = mEnd;
+            while (record.hasRemaining()) {
+                position += mChannel.write(record, position);
+            }
+            mEnd = position;
+            mUnimported++;
+            return true;
+        } catch (IOException e) {
+            // Anything written is past mEnd, and is overwritten by the next append.
+            Log.e(TAG, "Can't append to journal", e);
+            return false;
+        }
+    }
+
+    /** Forces appended records to storage. */
+    synchronized void sync() {
+        try {
+            mChannel.force(mResized);
+            mResized = false;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't sync journal", e);
+        }
+    }
+
+    /**
+     * Returns the rows of the records before a position in the journal, oldest first.
+     * @param end a size returned by {@link #getSize}, so that records appended since are left
+     */
+    synchronized List<ContentValues> readAll(long end) {
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        long position = HEADER_SIZE;
+        end = Math.min(end, mEnd);
+        try {
+            ContentValues values;
+            while (position < end && (values = readRecord(position)) != null) {
+                rows.add(values);
+                position += RECORD_HEADER_SIZE + recordLength(position);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read journal", e);
+        }
+        return rows;
+    }
+
+    /**
+     * Records that {@code count} records were committed to the database, and truncates the
+     * journal once all of them are.
+     */
+    synchronized void markImported(int count) {
+        mUnimported = Math.max(0, mUnimported - count);
+        if (mUnimported == 0 && mEnd > HEADER_SIZE) {
+            try {
+                resetLocked();
+            } catch (IOException e) {
+                Log.e(TAG, "Can't truncate journal", e);
+            }
+        }
+    }
+
+    /** Returns the number of records not yet committed to the database. */
+    synchronized int getUnimportedCount() {
+        return mUnimported;
+    }
+
+    /** Returns the size of the journal in bytes. */
+    synchronized long getSize() {
+        return mEnd;
+    }
+
+    private void resetLocked() throws IOException {
+        mChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        mChannel.write(header, 0);
+        mResized = true;
+        mEnd = HEADER_SIZE;
+        mUnimported = 0;
+    }
+
+    private int recordLength(long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        mChannel.read(length, position);
+        length.flip();
+        return length.getInt();
+    }
+
+    /** Reads the record at a position, or returns null if it is truncated or corrupt. */
+    private ContentValues readRecord(long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (mChannel.read(header, position) < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        header.flip();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length < 0 || length > MAX_PAYLOAD
+                || position + RECORD_HEADER_SIZE + length > mChannel.size()) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        long offset = position + RECORD_HEADER_SIZE;
+        while (payload.hasRemaining()) {
+            if (mChannel.read(payload, offset + payload.position()) < 0) {
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        payload.flip();
+        try {
+            return decode(payload);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(ContentValues values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(values.size());
+        for (String key : values.keySet()) {
+            byte[] name = key.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+            Object value = values.get(key);
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            } else if (value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                out.writeByte(TYPE_INT);
+                out.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else {
+                byte[] string = value.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TYPE_STRING);
+                out.writeInt(string.length);
+                out.write(string);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static ContentValues decode(ByteBuffer in) {
+        int count = in.getShort();
+        ContentValues values = new ContentValues(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[in.getShort()];
+            in.get(name);
+            String key = new String(name, StandardCharsets.UTF_8);
+            byte type = in.get();
+            switch (type) {
+                case TYPE_NULL:
+                    values.putNull(key);
+                    break;
+                case TYPE_INT:
+                    values.put(key, in.getInt());
+                    break;
+                case TYPE_LONG:
+                    values.put(key, in.getLong());
+                    break;
+                case TYPE_STRING:
+                    byte[] string = new byte[in.getInt()];
+                    in.get(string);
+                    values.put(key, new String(string, StandardCharsets.UTF_8));
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, in.get() != 0);
+                    break;
+                case TYPE_DOUBLE:
+                    values.put(key, in.getDouble());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }
+        return values;
+    }
+}
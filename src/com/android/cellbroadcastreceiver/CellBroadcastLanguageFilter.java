@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.telephony.CellBroadcastMessage;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.sprd.cellbroadcastreceiver.provider.LangMapTableDefine;
+import com.sprd.cellbroadcastreceiver.util.LanguageIds;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The broadcast languages accepted on one subscription, compiled from the lang_map table
+ * into a set with one bit per GSM data coding scheme language id (see {@link LanguageIds}).
+ * The languages chosen in the language settings are otherwise only sent to the modem, which
+ * may ignore them, and do not apply on CDMA.
+ *
+ * <p>A language is rejected only if its row is shown in the language settings and is not
+ * enabled. A message without a language, or with a language that has no GSM id, is accepted,
+ * and so is every message of a subscription with no enabled language. Emergency alerts are
+ * never filtered.
+ *
+ * <p>The sets are cached per subscription and dropped whenever the lang_map table changes,
+ * as seen by a {@link ContentObserver}.
+ */
+final class CellBroadcastLanguageFilter {
+    private static final String TAG = "CellBroadcastLanguageFilter";
+
+    private static final String[] PROJECTION = {
+            LangMapTableDefine.LANG_ID,
+            LangMapTableDefine.SHOW,
+            LangMapTableDefine.ENABLE,
+    };
+
+    /** ISO 639-1 codes of the {@link LanguageIds#LANGUAGE_ID} languages, in the same order. */
+    private static final String[] ISO_CODES = {
+            "de", "en", "it", "fr", "es", "nl", "sv", "da", "pt", "fi", "no", "el", "tr", "hu",
+            "pl", "cs", "he", "ar", "ru", "is",
+    };
+
+    private static final HashMap<String, Integer> sLanguageIds = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < ISO_CODES.length; i++) {
+            sLanguageIds.put(ISO_CODES[i], LanguageIds.LANGUAGE_ID[i]);
+        }
+    }
+
+    /** Filter of a subscription without a usable lang_map: everything is accepted. */
+    private static final CellBroadcastLanguageFilter ACCEPT_ALL =
+            new CellBroadcastLanguageFilter(new long[] { -1L, -1L, -1L, -1L });
+
+    private static final ConcurrentHashMap<Integer, CellBroadcastLanguageFilter> sCache =
+            new ConcurrentHashMap<Integer, CellBroadcastLanguageFilter>();
+
+    /** Bumped on every change, so that a load racing with a change is not cached. */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final AtomicBoolean sObserverRegistered = new AtomicBoolean();
+
+    private static final AtomicLong sCheckCount = new AtomicLong();
+    private static final AtomicLong sRejectCount = new AtomicLong();
+    private static final AtomicLong sQueryCount = new AtomicLong();
+    private static final AtomicLong sInvalidationCount = new AtomicLong();
+
+    private static final ContentObserver sObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            sInvalidationCount.incrementAndGet();
+            sGeneration.incrementAndGet();
+            sCache.clear();
+        }
+    };
+
+    /** Accepted language ids, 256 bits. */
+    private final long[] mAccepted;
+
+    private CellBroadcastLanguageFilter(long[] accepted) {
+        mAccepted = accepted;
+    }
+
+    /**
+     * Returns true if a message is accepted by the language settings of its subscription.
+     * Emergency alerts always are.
+     */
+    static boolean accept(Context context, CellBroadcastMessage message) {
+        sCheckCount.incrementAndGet();
+        if (message.isEtwsMessage() || message.isCmasMessage()
+                || CellBroadcastConfigService.isEmergencyAlertMessage(message)) {
+            return true;
+        }
+        String language = message.getLanguageCode();
+        if (language == null || !sLanguageIds.containsKey(language)) {
+            // No need to load the filter of the subscription.
+            return true;
+        }
+        if (get(context, message.getSubId()).accepts(language)) {
+            return true;
+        }
+        sRejectCount.incrementAndGet();
+        return false;
+    }
+
+    /** Returns the filter of a subscription, loading it if not cached. */
+    private static CellBroadcastLanguageFilter get(Context context, int subId) {
+        CellBroadcastLanguageFilter filter = sCache.get(subId);
+        if (filter == null) {
+            ContentResolver resolver = context.getApplicationContext().getContentResolver();
+            if (sObserverRegistered.compareAndSet(false, true)) {
+                resolver.registerContentObserver(LangMapTableDefine.URI, true, sObserver);
+            }
+            int generation = sGeneration.get();
+            filter = load(resolver, subId);
+            if (filter == null) {
+                // Not cached, so that the next message tries again.
+                return ACCEPT_ALL;
+            }
+            if (sGeneration.get() == generation) {
+                sCache.put(subId, filter);
+            }
+        }
+        return filter;
+    }
+
+    /** Loads the lang_map rows of a subscription, or returns null on failure. */
+    private static CellBroadcastLanguageFilter load(ContentResolver resolver, int subId) {
+        sQueryCount.incrementAndGet();
+        Cursor c = null;
+        try {
+            c = resolver.query(LangMapTableDefine.URI, PROJECTION,
+                    LangMapTableDefine.SUBID + "=" + subId, null, null);
+            CellBroadcastLanguageFilter filter = compile(c);
+            Log.d(TAG, "Loaded the languages of sub " + subId
+                    + (filter == ACCEPT_ALL ? ", none enabled" : ""));
+            return filter;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't load the languages of sub " + subId, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Compiles lang_map rows of the language id, show and enable columns, in that order. Rows
+     * that are not shown are ignored.
+     * @param c the rows, or null for none
+     */
+    @VisibleForTesting
+    static CellBroadcastLanguageFilter compile(Cursor c) {
+        long[] accepted = { -1L, -1L, -1L, -1L };
+        int enabled = 0;
+        while (c != null && c.moveToNext()) {
+            int languageId = c.getInt(0);
+            if (languageId < 0 || languageId > 0xff || c.getInt(1) == 0) {
+                continue;
+            }
+            if (c.getInt(2) == 1) {
+                enabled++;
+            } else {
+                accepted[languageId >> 6] &= ~(1L << (languageId & 0x3f));
+            }
+        }
+        return enabled > 0 ? new CellBroadcastLanguageFilter(accepted) : ACCEPT_ALL;
+    }
+
+    /**
+     * Returns true if messages in a language, given as an ISO 639-1 code, are accepted. A
+     * language without a GSM id is.
+     */
+    @VisibleForTesting
+    boolean accepts(String language) {
+        Integer languageId = language != null ? sLanguageIds.get(language) : null;
+        return languageId == null
+                || (mAccepted[languageId >> 6] & (1L << (languageId & 0x3f))) != 0;
+    }
+
+    /** Prints the check, reject, query and invalidation counters. */
+    static void dump(PrintWriter pw) {
+        pw.println("Language filter: cached=" + sCache.size() + " checks=" + sCheckCount.get()
+                + " rejected=" + sRejectCount.get() + " providerQueries=" + sQueryCount.get()
+                + " invalidations=" + sInvalidationCount.get());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Intent;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Latency histograms of the alert pipeline, for dumpsys. Every stage is measured from the
+ * arrival of the broadcast in {@link CellBroadcastReceiver}, whose elapsed realtime travels
+ * with the intents of the broadcast in {@link #RECEIVE_TIME_EXTRA}, and is kept per
+ * {@link CellBroadcastIngestWriter} priority class.
+ *
+ * <p>The histograms are log-linear: each power of two of microseconds is split into eight
+ * buckets, so a percentile is reported as the upper bound of its bucket, at most 12.5% above
+ * the exact value. They cover up to 2^31 microseconds; anything longer goes to the last
+ * bucket. The maximum is exact.
+ */
+final class CellBroadcastLatency {
+
+    /** Intent extra with the elapsed realtime in nanoseconds at which the broadcast arrived. */
+    static final String RECEIVE_TIME_EXTRA = "receive_time_ns";
+
+    /** Intent extra with the priority class of the broadcast. */
+    static final String PRIORITY_EXTRA = "latency_priority";
+
+    /** Started in {@link CellBroadcastAlertService}. */
+    static final int SERVICE = 0;
+    /** Passed the user and language filters. */
+    static final int FILTER = 1;
+    /** Passed the duplicate and cross-subscription checks. */
+    static final int DEDUP = 2;
+    /** Written to the database. */
+    static final int DB_COMMIT = 3;
+    /** Dispatched to the full-screen alert or the notification. */
+    static final int DISPLAY = 4;
+    /** Shown by {@link CellBroadcastAlertFullScreen#onResume}. */
+    static final int ON_RESUME = 5;
+    /** First sound of {@link CellBroadcastAlertAudio}. */
+    static final int FIRST_PLAY = 6;
+
+    private static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "service", "filter", "dedup", "dbCommit", "display", "onResume", "firstPlay",
+    };
+
+    private static final int PRIORITY_COUNT = CellBroadcastIngestWriter.PRIORITY_COUNT;
+
+    /** Buckets per power of two, as a shift. */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Largest value told apart from the others, in microseconds. */
+    private static final long MAX_MICROS = Integer.MAX_VALUE;
+
+    private static final int BUCKET_COUNT = bucketOf(MAX_MICROS) + 1;
+
+    private static final Object sLock = new Object();
+
+    /** Bucket counts of every stage and priority class, one histogram after the other. */
+    private static final int[] sBuckets = new int[STAGE_COUNT * PRIORITY_COUNT * BUCKET_COUNT];
+    private static final long[] sCount = new long[STAGE_COUNT * PRIORITY_COUNT];
+    private static final long[] sMaxMicros = new long[STAGE_COUNT * PRIORITY_COUNT];
+
+    private CellBroadcastLatency() {
+    }
+
+    /** Returns the bucket of a value: exact below eight, then eight buckets per power of two. */
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the smallest value of a bucket. */
+    private static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /** Puts the receive time and priority class of a broadcast into an intent. */
+    static void putReceiveTime(Intent intent, long receiveTime, int priority) {
+        intent.putExtra(RECEIVE_TIME_EXTRA, receiveTime);
+        intent.putExtra(PRIORITY_EXTRA, priority);
+    }
+
+    /** Passes the receive time and priority class of a broadcast on to another intent. */
+    static void copyReceiveTime(Intent from, Intent to) {
+        if (from.hasExtra(RECEIVE_TIME_EXTRA)) {
+            putReceiveTime(to, from.getLongExtra(RECEIVE_TIME_EXTRA, 0), getPriority(from));
+        }
+    }
+
+    /** Returns the receive time of an intent, or 0 if it has none. */
+    static long getReceiveTime(Intent intent) {
+        return intent.getLongExtra(RECEIVE_TIME_EXTRA, 0);
+    }
+
+    /** Returns the priority class of an intent. */
+    static int getPriority(Intent intent) {
+        return intent.getIntExtra(PRIORITY_EXTRA, CellBroadcastIngestWriter.PRIORITY_INFO);
+    }
+
+    /** Records that a broadcast with the receive time and priority of an intent got to a stage. */
+    static void record(int stage, Intent intent) {
+        record(stage, getPriority(intent), getReceiveTime(intent));
+    }
+
+    /**
+     * Records that a broadcast got to a stage.
+     * @param receiveTime the receive time of the broadcast; nothing is recorded if it is 0
+     */
+    static void record(int stage, int priority, long receiveTime) {
+        if (receiveTime <= 0 || priority < 0 || priority >= PRIORITY_COUNT) {
+            return;
+        }
+        long micros = Math.max(0, (SystemClock.elapsedRealtimeNanos() - receiveTime) / 1000);
+        int histogram = stage * PRIORITY_COUNT + priority;
+        int bucket = bucketOf(Math.min(micros, MAX_MICROS));
+        synchronized (sLock) {
+            sBuckets[histogram * BUCKET_COUNT + bucket]++;
+            sCount[histogram]++;
+            sMaxMicros[histogram] = Math.max(sMaxMicros[histogram], micros);
+        }
+    }
+
+    /**
+     * Returns the upper bound of the bucket of a percentile, but no more than the maximum.
+     * Called with sLock held.
+     */
+    private static long percentileOf(int histogram, int perMille) {
+        long rank = (sCount[histogram] * perMille + 999) / 1000;
+        long seen = 0;
+        int base = histogram * BUCKET_COUNT;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += sBuckets[base + bucket];
+            if (seen >= rank) {
+                long upperBound = bucket + 1 < BUCKET_COUNT
+                        ? lowerBoundOf(bucket + 1) - 1 : MAX_MICROS;
+                return Math.min(upperBound, sMaxMicros[histogram]);
+            }
+        }
+        return sMaxMicros[histogram];
+    }
+
+    /** Returns the number of samples of a stage and priority class. */
+    static long getCount(int stage, int priority) {
+        synchronized (sLock) {
+            return sCount[stage * PRIORITY_COUNT + priority];
+        }
+    }
+
+    /** Returns the number of samples of a stage, over all priority classes. */
+    static long getCount(int stage) {
+        long count = 0;
+        synchronized (sLock) {
+            for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+                count += sCount[stage * PRIORITY_COUNT + priority];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a percentile of a stage and priority class in microseconds, as dump() reports
+     * it, or 0 if there are no samples.
+     */
+    static long getPercentile(int stage, int priority, int perMille) {
+        synchronized (sLock) {
+            return percentileOf(stage * PRIORITY_COUNT + priority, perMille);
+        }
+    }
+
+    /** Drops all samples. */
+    static void reset() {
+        synchronized (sLock) {
+            Arrays.fill(sBuckets, 0);
+            Arrays.fill(sCount, 0);
+            Arrays.fill(sMaxMicros, 0);
+        }
+    }
+
+    private static String formatMicros(long micros) {
+        return micros / 1000 + "." + (micros % 1000) / 100 + "ms";
+    }
+
+    /** Prints p50, p95, p99 and max of every stage and priority class that has samples. */
+    static void dump(PrintWriter pw) {
+        pw.println("Alert latency from receipt, by stage and priority (p50/p95/p99/max):");
+        synchronized (sLock) {
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+                    int histogram = stage * PRIORITY_COUNT + priority;
+                    if (sCount[histogram] == 0) {
+                        continue;
+                    }
+                    pw.println("  " + STAGE_NAMES[stage] + "/"
+                            + CellBroadcastIngestWriter.PRIORITY_NAMES[priority]
+                            + ": n=" + sCount[histogram]
+                            + " " + formatMicros(percentileOf(histogram, 500))
+                            + "/" + formatMicros(percentileOf(histogram, 950))
+                            + "/" + formatMicros(percentileOf(histogram, 990))
+                            + "/" + formatMicros(sMaxMicros[histogram]));
+                }
+            }
+        }
+    }
+}
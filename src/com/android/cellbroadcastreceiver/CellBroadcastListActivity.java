@@ -196,7 +196,7 @@ public class CellBroadcastListActivity extends Activity {
         @Override
         public Loader<Cursor> onCreateLoader(int id, Bundle args) {
             return new CursorLoader(getActivity(), CellBroadcastContentProvider.CONTENT_URI,
-                    Telephony.CellBroadcasts.QUERY_COLUMNS, null, null,
+                    CellBroadcastContentProvider.LIST_QUERY_COLUMNS, null, null,
                     Telephony.CellBroadcasts.DELIVERY_TIME + " DESC");
         }
 
@@ -225,7 +225,8 @@ public class CellBroadcastListActivity extends Activity {
             Log.d(TAG, "  showDialogAndMarkRead " + cbm.getMessageBody());
             CellBroadcastReceiverApp.removeNewMessageFromList(cbm);
             // add for bug606395 end
-            i.putParcelableArrayListExtra(CellBroadcastMessage.SMS_CB_MESSAGE_EXTRA, messageList);
+            i.putExtra(CellBroadcastMessageRegistry.HANDLES_EXTRA,
+                    CellBroadcastMessageRegistry.registerAll(messageList, null, true));
             i.putExtra(CellBroadcastAlertFullScreen.OPEN_ALERT_DIALOG, true);
             startActivity(i);
         }
@@ -65,6 +65,15 @@ public class CellBroadcastListItem extends RelativeLayout {
      * @param message the message contents to bind
      */
     public void bind(CellBroadcastMessage message) {
+        bind(message, -1);
+    }
+
+    /**
+     * @param message the message contents to bind
+     * @param alsoSlotId slot index of the other subscription the message was also received
+     *        on, or -1
+     */
+    public void bind(CellBroadcastMessage message, int alsoSlotId) {
         mCbMessage = message;
 
         //add for bug 609438 start
@@ -79,7 +88,12 @@ public class CellBroadcastListItem extends RelativeLayout {
             mChannelView.setText(formatMessage(getResources().getString(CellBroadcastResources.getDialogTitleResource(message,mContext)), isReaded));
         }
         //add for bug 609438 end
-        mDateView.setText(formatMessage(message.getDateString(getContext()), isReaded));
+        CharSequence date = message.getDateString(getContext());
+        if (alsoSlotId >= 0) {
+            date = getResources().getString(R.string.also_received_on_sim, date,
+                    alsoSlotId + 1);
+        }
+        mDateView.setText(formatMessage(date, isReaded));
         mMessageView.setText(formatMessage(message.getMessageBody(), isReaded));
     }
 
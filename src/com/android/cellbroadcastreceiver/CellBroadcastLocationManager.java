@@ -2,7 +2,6 @@ package com.android.cellbroadcastreceiver;
 
 import android.content.Context;
 import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import java.util.HashMap;
@@ -40,13 +39,11 @@ public class CellBroadcastLocationManager {
             new HashMap<Integer, CellBroadcastLocationManager>();
     private Context mContext;
     private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
-    private Locations mCurrentLocation = Locations.LOCATION_UNKNOWN;
 
     CellBroadcastLocationManager(Context context, int subId) {
-        mContext = context;
+        mContext = context.getApplicationContext();
         mSubId = subId;
-        mCurrentLocation = getCurrentLocation(context);
-        Log.d(TAG, "mSubId = " + mSubId + ", mCurrentLocation = " + mCurrentLocation);
+        Log.d(TAG, "mSubId = " + mSubId + ", currentLocation = " + currentLocation());
     }
 
     public static CellBroadcastLocationManager getInstance(final Context context, final int subId) {
@@ -62,8 +59,9 @@ public class CellBroadcastLocationManager {
         }
     }
 
+    /** The location follows the region profile of the subscription, so it is never stale. */
     public Locations currentLocation() {
-        return mCurrentLocation;
+        return getCurrentLocation(mContext);
     }
 
     public int currentSubId() {
@@ -81,7 +79,9 @@ public class CellBroadcastLocationManager {
     }
 
     private Locations getCurrentLocation(final Context context, final boolean following_network) {
-        final String curLoc = getCurrenLocationString(context, following_network);
+        final CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(context, mSubId);
+        final String curLoc = following_network ? region.getNetworkCountryIso()
+                : region.getSimCountryIso();
         if (curLoc == null) {
             return Locations.LOCATION_UNKNOWN;
         }
@@ -92,10 +92,4 @@ public class CellBroadcastLocationManager {
         }
         return Locations.LOCATION_UNKNOWN;
     }
-
-    private String getCurrenLocationString(final Context context, final boolean following_network) {
-        TelephonyManager tm = (TelephonyManager) context.getSystemService(
-                Context.TELEPHONY_SERVICE);
-        return following_network ? tm.getNetworkCountryIso(): tm.getSimCountryIso();
-    }
 }
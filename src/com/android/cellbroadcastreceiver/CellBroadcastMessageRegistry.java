@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.provider.Telephony;
+import android.telephony.CellBroadcastMessage;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Received broadcasts shared between the components of this process, addressed by a handle:
+ * the delivery time and serial number of the broadcast, which identify its database row as
+ * well. Intents between the alert service, the alert dialogs and the message list carry the
+ * handles instead of the parceled messages, and the alert dialogs save the handles in their
+ * instance state. A handle that is no longer registered, e.g. because the process was
+ * restarted, is resolved from the database by its delivery time. A row replaced by a revised
+ * version or an ETWS secondary keeps its delivery time, so the handle of the earlier message
+ * resolves to the replacing one; the handle of the replacing message does not resolve, so it
+ * is not marked as stored.
+ *
+ * <p>The registered messages must not be modified. The least recently used messages are
+ * dropped once the capacity is reached, but only if they are known to be in the database:
+ * a message that is not written yet, or never will be because it was shed, could not be
+ * resolved again. Those are only dropped past twice the capacity. The alert dialogs save
+ * such messages parceled along with the handles, since the process may not outlive them.
+ */
+final class CellBroadcastMessageRegistry {
+    private static final String TAG = "CellBroadcastMessageRegistry";
+
+    /** Intent and saved state extra with the handles of the messages to show, in order. */
+    static final String HANDLES_EXTRA = "message_handles";
+
+    /** Intent extra with the handle of the "message" extra, which it replaces. */
+    static final String HANDLE_EXTRA = "message_handle";
+
+    /** Saved state extra with the messages of the saved handles that may not be stored. */
+    static final String UNSTORED_MESSAGES_EXTRA = "unstored_messages";
+
+    /** A registered message and the fingerprint of its body. */
+    private static final class Record {
+        final CellBroadcastMessage mMessage;
+        final long mFingerprint;
+        /** Whether the message is known to be in the database. Guarded by sRecords. */
+        boolean mStored;
+
+        Record(CellBroadcastMessage message, long fingerprint, boolean stored) {
+            mMessage = message;
+            mFingerprint = fingerprint;
+            mStored = stored;
+        }
+    }
+
+    /** Largest number of messages kept; set from config by {@link CellBroadcastReceiverApp}. */
+    private static int sCapacity = 128;
+
+    /** Registered messages by handle, least recently used first. Guarded by itself. */
+    private static final LinkedHashMap<Long, Record> sRecords =
+            new LinkedHashMap<Long, Record>(16, 0.75f, true);
+
+    private static long sRegisterCount;
+    private static long sResolveCount;
+    private static long sMissCount;
+    private static long sUnstoredDropCount;
+
+    private CellBroadcastMessageRegistry() {
+    }
+
+    static void setCapacity(int capacity) {
+        synchronized (sRecords) {
+            sCapacity = Math.max(1, capacity);
+        }
+    }
+
+    /** Returns the handle of a message. */
+    static long handleOf(CellBroadcastMessage message) {
+        return (message.getDeliveryTime() << 16) | (message.getSerialNumber() & 0xffff);
+    }
+
+    /**
+     * Registers a message and returns its handle.
+     * @param stored whether the message is known to be in the database; if not, a message
+     *        registered before under the same handle keeps what was known about it
+     */
+    static long register(CellBroadcastMessage message, long fingerprint, boolean stored) {
+        long handle = handleOf(message);
+        synchronized (sRecords) {
+            sRegisterCount++;
+            Record previous = sRecords.get(handle);
+            sRecords.put(handle, new Record(message, fingerprint,
+                    stored || (previous != null && previous.mStored)));
+            trimLocked();
+        }
+        return handle;
+    }
+
+    /** Registers a message that is not known to be in the database and returns its handle. */
+    static long register(CellBroadcastMessage message, long fingerprint) {
+        return register(message, fingerprint, false);
+    }
+
+    /**
+     * Drops the least recently used stored messages above the capacity, then, past twice the
+     * capacity, the least recently used of the others. Called with sRecords held.
+     */
+    private static void trimLocked() {
+        Iterator<Record> it = sRecords.values().iterator();
+        while (sRecords.size() > sCapacity && it.hasNext()) {
+            if (it.next().mStored) {
+                it.remove();
+            }
+        }
+        it = sRecords.values().iterator();
+        while (sRecords.size() > 2 * sCapacity && it.hasNext()) {
+            it.next();
+            it.remove();
+            sUnstoredDropCount++;
+        }
+    }
+
+    /** Notes that a registered message has been written to the database. */
+    static void markStored(CellBroadcastMessage message) {
+        synchronized (sRecords) {
+            Record record = sRecords.get(handleOf(message));
+            if (record != null) {
+                record.mStored = true;
+            }
+        }
+    }
+
+    /** Registers a message and puts its handle into an intent, in place of the message. */
+    static void putMessage(Intent intent, CellBroadcastMessage message, long fingerprint) {
+        intent.putExtra(HANDLE_EXTRA, register(message, fingerprint));
+        intent.putExtra(CellBroadcastFingerprint.MESSAGE_EXTRA, fingerprint);
+    }
+
+    /**
+     * Registers messages and returns their handles, in list order.
+     * @param fingerprints the fingerprints of the messages, or null to compute them
+     * @param stored whether the messages are known to be in the database
+     */
+    static long[] registerAll(List<CellBroadcastMessage> messages, long[] fingerprints,
+            boolean stored) {
+        fingerprints = CellBroadcastFingerprint.forList(messages, fingerprints);
+        long[] handles = new long[messages.size()];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = register(messages.get(i), fingerprints[i], stored);
+        }
+        return handles;
+    }
+
+    /**
+     * Saves the handles of messages into an instance state, and the messages themselves if
+     * they are not known to be in the database.
+     * @param fingerprints the fingerprints of the messages, or null to compute them
+     */
+    static void saveMessages(Bundle state, List<CellBroadcastMessage> messages,
+            long[] fingerprints) {
+        long[] handles = registerAll(messages, fingerprints, false);
+        ArrayList<CellBroadcastMessage> unstored = new ArrayList<CellBroadcastMessage>();
+        synchronized (sRecords) {
+            for (int i = 0; i < handles.length; i++) {
+                Record record = sRecords.get(handles[i]);
+                if (record == null || !record.mStored) {
+                    unstored.add(messages.get(i));
+                }
+            }
+        }
+        state.putLongArray(HANDLES_EXTRA, handles);
+        if (!unstored.isEmpty()) {
+            state.putParcelableArrayList(UNSTORED_MESSAGES_EXTRA, unstored);
+        }
+    }
+
+    /**
+     * Returns the messages saved by {@link #saveMessages}, in order, or null if there are
+     * none. The fingerprints of the messages are added to {@code fingerprints}.
+     */
+    static ArrayList<CellBroadcastMessage> restoreMessages(Context context, Bundle state,
+            ArrayList<Long> fingerprints) {
+        long[] handles = state.getLongArray(HANDLES_EXTRA);
+        if (handles == null) {
+            return null;
+        }
+        ArrayList<CellBroadcastMessage> unstored =
+                state.getParcelableArrayList(UNSTORED_MESSAGES_EXTRA);
+        if (unstored != null) {
+            for (CellBroadcastMessage message : unstored) {
+                synchronized (sRecords) {
+                    if (sRecords.containsKey(handleOf(message))) {
+                        continue;
+                    }
+                }
+                register(message, CellBroadcastFingerprint.of(message));
+            }
+        }
+        return getMessages(context, handles, fingerprints);
+    }
+
+    /**
+     * Returns the message of an intent, from its handle or from its "message" extra, or null.
+     */
+    static CellBroadcastMessage getMessage(Context context, Intent intent) {
+        if (!intent.hasExtra(HANDLE_EXTRA)) {
+            return (CellBroadcastMessage) intent.getParcelableExtra("message");
+        }
+        ArrayList<CellBroadcastMessage> messages = getMessages(context,
+                new long[] {intent.getLongExtra(HANDLE_EXTRA, 0)}, new ArrayList<Long>());
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Returns the messages of the given handles, in handle order, skipping the handles that
+     * resolve to nothing. The handles that are not registered are looked up in the database,
+     * in one query. The fingerprints of the messages are added to {@code fingerprints}.
+     */
+    static ArrayList<CellBroadcastMessage> getMessages(Context context, long[] handles,
+            ArrayList<Long> fingerprints) {
+        Record[] records = new Record[handles.length];
+        int missing = 0;
+        synchronized (sRecords) {
+            sResolveCount += handles.length;
+            for (int i = 0; i < handles.length; i++) {
+                records[i] = sRecords.get(handles[i]);
+                if (records[i] == null) {
+                    missing++;
+                }
+            }
+            sMissCount += missing;
+        }
+        LongSparseArray<CellBroadcastMessage> loaded = null;
+        if (missing > 0) {
+            long[] missingHandles = new long[missing];
+            for (int i = 0, j = 0; i < handles.length; i++) {
+                if (records[i] == null) {
+                    missingHandles[j++] = handles[i];
+                }
+            }
+            loaded = load(context, missingHandles);
+        }
+        ArrayList<CellBroadcastMessage> messages =
+                new ArrayList<CellBroadcastMessage>(handles.length);
+        for (int i = 0; i < handles.length; i++) {
+            if (records[i] != null) {
+                messages.add(records[i].mMessage);
+                fingerprints.add(records[i].mFingerprint);
+            } else {
+                CellBroadcastMessage message = loaded.get(handles[i] >> 16);
+                if (message != null) {
+                    long fingerprint = CellBroadcastFingerprint.of(message);
+                    register(message, fingerprint, true);
+                    messages.add(message);
+                    fingerprints.add(fingerprint);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /** Loads the messages of the given handles from the database, by delivery time. */
+    private static LongSparseArray<CellBroadcastMessage> load(Context context, long[] handles) {
+        StringBuilder selection = new StringBuilder(Telephony.CellBroadcasts.DELIVERY_TIME)
+                .append(" IN (");
+        for (int i = 0; i < handles.length; i++) {
+            selection.append(i == 0 ? "" : ",").append(handles[i] >> 16);
+        }
+        selection.append(')');
+        LongSparseArray<CellBroadcastMessage> loaded = new LongSparseArray<CellBroadcastMessage>();
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(CellBroadcastContentProvider.CONTENT_URI,
+                    Telephony.CellBroadcasts.QUERY_COLUMNS, selection.toString(), null, null);
+            while (c != null && c.moveToNext()) {
+                CellBroadcastMessage message = CellBroadcastMessage.createFromCursor(c);
+                loaded.put(message.getDeliveryTime(), message);
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't load " + handles.length + " messages", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return loaded;
+    }
+
+    /** Prints the registry size and its register, resolve and miss counters. */
+    static void dump(PrintWriter pw) {
+        synchronized (sRecords) {
+            pw.println("Message registry: size=" + sRecords.size() + "/" + sCapacity
+                    + " registered=" + sRegisterCount + " resolved=" + sResolveCount
+                    + " misses=" + sMissCount + " unstoredDropped=" + sUnstoredDropCount);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.sprd.cellbroadcastreceiver.provider.ChannelTableDefine;
+import com.sprd.cellbroadcastreceiver.provider.CommonSettingTableDefine;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable notification settings of one channel of one subscription: the sound of its
+ * notifications and whether they vibrate. These used to be queried from the channel table
+ * (or from the common settings table, if the sound is set per slot) for every notification.
+ *
+ * <p>The settings of all the channels of a subscription are loaded in one query and cached
+ * per subscription. The cache is dropped whenever the channel or the common settings table
+ * changes, as seen by a {@link ContentObserver}.
+ */
+final class CellBroadcastNotificationSettings {
+    private static final String TAG = "CellBroadcastNotificationSettings";
+
+    private static final String[] CHANNEL_PROJECTION = {
+            ChannelTableDefine.CHANNEL_ID,
+            ChannelTableDefine.SOUND_URI,
+            ChannelTableDefine.NOTIFICATION,
+    };
+
+    private static final String[] COMMON_SETTING_PROJECTION = {
+            CommonSettingTableDefine.RING_URL,
+    };
+
+    /** Settings of a channel without a row: no sound, as the query used to return. */
+    private static final CellBroadcastNotificationSettings NO_ROW =
+            new CellBroadcastNotificationSettings(null, true);
+
+    private static final ConcurrentHashMap<Integer,
+            SparseArray<CellBroadcastNotificationSettings>> sCache = new ConcurrentHashMap<
+                    Integer, SparseArray<CellBroadcastNotificationSettings>>();
+
+    /** Bumped on every change, so that a load racing with a change is not cached. */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final AtomicBoolean sObserverRegistered = new AtomicBoolean();
+
+    private static final AtomicLong sLookupCount = new AtomicLong();
+    private static final AtomicLong sQueryCount = new AtomicLong();
+    private static final AtomicLong sInvalidationCount = new AtomicLong();
+
+    private static final ContentObserver sObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            sInvalidationCount.incrementAndGet();
+            sGeneration.incrementAndGet();
+            sCache.clear();
+        }
+    };
+
+    private final Uri mSoundUri;
+    private final boolean mVibrate;
+
+    private CellBroadcastNotificationSettings(Uri soundUri, boolean vibrate) {
+        mSoundUri = soundUri;
+        mVibrate = vibrate;
+    }
+
+    /** Returns the settings of a channel, loading those of the subscription if not cached. */
+    static CellBroadcastNotificationSettings get(Context context, int subId, int channelId) {
+        sLookupCount.incrementAndGet();
+        SparseArray<CellBroadcastNotificationSettings> channels = sCache.get(subId);
+        if (channels == null) {
+            ContentResolver resolver = context.getApplicationContext().getContentResolver();
+            if (sObserverRegistered.compareAndSet(false, true)) {
+                resolver.registerContentObserver(CellBroadcastContentProvider.CHANNEL_URI, true,
+                        sObserver);
+                resolver.registerContentObserver(CommonSettingTableDefine.COMMON_SETTING_URI,
+                        true, sObserver);
+            }
+            int generation = sGeneration.get();
+            channels = load(resolver, subId);
+            if (channels == null) {
+                // Not cached, so that the next notification tries again.
+                return NO_ROW;
+            }
+            if (sGeneration.get() == generation) {
+                sCache.put(subId, channels);
+            }
+        }
+        // With per slot settings, all the channels share the entry at key -1.
+        CellBroadcastNotificationSettings settings = channels.get(
+                CellBroadcastAlertService.DEPEND_ON_SLOT ? -1 : channelId);
+        return settings != null ? settings : NO_ROW;
+    }
+
+    /** Loads the settings of all the channels of a subscription, or returns null on failure. */
+    private static SparseArray<CellBroadcastNotificationSettings> load(ContentResolver resolver,
+            int subId) {
+        sQueryCount.incrementAndGet();
+        SparseArray<CellBroadcastNotificationSettings> channels =
+                new SparseArray<CellBroadcastNotificationSettings>();
+        String selection = ChannelTableDefine.SUB_ID + "=" + subId;
+        Cursor c = null;
+        try {
+            if (CellBroadcastAlertService.DEPEND_ON_SLOT) {
+                c = resolver.query(CommonSettingTableDefine.COMMON_SETTING_URI,
+                        COMMON_SETTING_PROJECTION, selection, null, null);
+                if (c != null && c.moveToFirst()) {
+                    channels.put(-1, new CellBroadcastNotificationSettings(
+                            parseUri(c.getString(0)), true));
+                }
+            } else {
+                c = resolver.query(CellBroadcastContentProvider.CHANNEL_URI,
+                        CHANNEL_PROJECTION, selection, null, null);
+                while (c != null && c.moveToNext()) {
+                    int channelId = c.getInt(0);
+                    // The first row of a channel wins, as with the single channel query.
+                    if (channels.get(channelId) == null) {
+                        channels.put(channelId, new CellBroadcastNotificationSettings(
+                                parseUri(c.getString(1)), c.getInt(2) == 1));
+                    }
+                }
+            }
+            Log.d(TAG, "Loaded " + channels.size() + " channels of sub " + subId);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't load the notification settings of sub " + subId, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return channels;
+    }
+
+    private static Uri parseUri(String uri) {
+        return uri != null ? Uri.parse(uri) : null;
+    }
+
+    /** Returns the sound of the notifications of the channel, or null for none. */
+    Uri getSoundUri() {
+        return mSoundUri;
+    }
+
+    /** Returns true if the notifications of the channel vibrate (its notification column). */
+    boolean isVibrateEnabled() {
+        return mVibrate;
+    }
+
+    /** Prints the lookup, query and invalidation counters. */
+    static void dump(PrintWriter pw) {
+        pw.println("Notification settings: cached=" + sCache.size() + " lookups="
+                + sLookupCount.get() + " providerQueries=" + sQueryCount.get()
+                + " invalidations=" + sInvalidationCount.get());
+    }
+}
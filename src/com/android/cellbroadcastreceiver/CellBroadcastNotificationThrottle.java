@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.telephony.CellBroadcastMessage;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+
+/**
+ * Rate limits the notification updates of non-emergency broadcasts. Every broadcast used to
+ * rebuild and post the notification; during a broadcast storm, e.g. operator spam on channel
+ * 50, that loads system_server for nothing, since the notification only shows the latest
+ * message or the unread count.
+ *
+ * <p>Each subscription gets at most one update per interval. Messages received in between
+ * are merged into one deferred update, which shows the unread count at the time it runs. A
+ * burst is a run of messages from one subscription less than an interval apart; only the
+ * first message of a burst makes sound and vibrates, later updates are silent.
+ *
+ * <p>This class is not thread-safe; it is only used from the main thread of
+ * {@link CellBroadcastAlertService}.
+ */
+final class CellBroadcastNotificationThrottle {
+
+    /** Posts the notification of non-emergency broadcasts. */
+    interface Notifier {
+        /**
+         * @param latest the latest message of the subscription
+         * @param alert whether the update makes sound and vibrates
+         */
+        void updateNotification(CellBroadcastMessage latest, boolean alert);
+    }
+
+    /** Update state of one subscription. */
+    private static final class SubState {
+        long lastMessageTime = Long.MIN_VALUE / 2;
+        long lastNotifyTime = Long.MIN_VALUE / 2;
+        CellBroadcastMessage pending;
+        boolean pendingAlert;
+        Runnable flush;
+    }
+
+    private final Handler mHandler;
+    private final Notifier mNotifier;
+    private final long mIntervalMillis;
+    private final SparseArray<SubState> mSubStates = new SparseArray<SubState>();
+
+    private long mMessageCount;
+    private long mNotifyCount;
+    private long mSuppressedCount;
+
+    /**
+     * @param handler handler of the main thread, which runs the deferred updates
+     * @param intervalMillis shortest time between two updates of a subscription; 0 or less
+     *        updates the notification for every message
+     */
+    CellBroadcastNotificationThrottle(Handler handler, Notifier notifier, long intervalMillis) {
+        mHandler = handler;
+        mNotifier = notifier;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /** Updates the notification for a new message now, or merges it into a deferred update. */
+    void onNewMessage(CellBroadcastMessage message) {
+        final int subId = message.getSubId();
+        long now = SystemClock.elapsedRealtime();
+        SubState state = mSubStates.get(subId);
+        if (state == null) {
+            state = new SubState();
+            mSubStates.put(subId, state);
+        }
+        mMessageCount++;
+        boolean burstStart = now - state.lastMessageTime >= mIntervalMillis;
+        state.lastMessageTime = now;
+
+        if (state.flush == null && now - state.lastNotifyTime >= mIntervalMillis) {
+            state.lastNotifyTime = now;
+            mNotifyCount++;
+            mNotifier.updateNotification(message, burstStart);
+            return;
+        }
+
+        if (state.pending != null) {
+            mSuppressedCount++;
+        }
+        state.pending = message;
+        state.pendingAlert |= burstStart;
+        if (state.flush == null) {
+            state.flush = new Runnable() {
+                @Override
+                public void run() {
+                    flush(subId);
+                }
+            };
+            mHandler.postDelayed(state.flush, state.lastNotifyTime + mIntervalMillis - now);
+        }
+    }
+
+    private void flush(int subId) {
+        SubState state = mSubStates.get(subId);
+        if (state == null || state.pending == null) {
+            return;
+        }
+        CellBroadcastMessage message = state.pending;
+        boolean alert = state.pendingAlert;
+        state.pending = null;
+        state.pendingAlert = false;
+        state.flush = null;
+        state.lastNotifyTime = SystemClock.elapsedRealtime();
+        mNotifyCount++;
+        mNotifier.updateNotification(message, alert);
+    }
+
+    /** Runs the deferred updates right away, e.g. when the service is destroyed. */
+    void flushAll() {
+        for (int i = 0; i < mSubStates.size(); i++) {
+            SubState state = mSubStates.valueAt(i);
+            if (state.flush != null) {
+                mHandler.removeCallbacks(state.flush);
+                flush(mSubStates.keyAt(i));
+            }
+        }
+    }
+
+    /** Prints the message and update counters. */
+    void dump(PrintWriter pw) {
+        pw.println("Notification updates: interval=" + mIntervalMillis + "ms messages="
+                + mMessageCount + " notified=" + mNotifyCount + " suppressed="
+                + mSuppressedCount);
+    }
+}
@@ -24,6 +24,7 @@ import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.preference.PreferenceManager;
@@ -76,7 +77,12 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
     // add for bug 916677 end
 
     private static final String TAG = "CellBroadcastReceiver";
-    static final boolean DBG = true;    // STOPSHIP: change to false before ship
+    /**
+     * Verbose logging of the receiver and alert pipeline, opt-in with
+     * "setprop log.tag.CellBroadcastReceiver DEBUG". The pipeline events are always
+     * recorded in {@link CellBroadcastTrace}.
+     */
+    static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
     private static PhoneState mServiceState = null;
 
     public static final String CELLBROADCAST_START_CONFIG_ACTION =
@@ -104,6 +110,8 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
             }
             ServiceState serviceState = ServiceState.newFromBundle(intent.getExtras());
             if (serviceState != null) {
+                CellBroadcastRegionProfile.onServiceStateChanged(subId,
+                        serviceState.getOperatorNumeric());
                 int newState = serviceState.getState();
                 if (newState != mServiceState.getServiceState(subId)) {
                     Log.d(TAG, "Service state changed! " + newState + " Full: " + serviceState +
@@ -116,8 +124,15 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
                     }
                 }
             }
+        } else if (TelephonyIntents.ACTION_SIM_STATE_CHANGED.equals(action)) {
+            // A swapped SIM may belong to another country.
+            CellBroadcastRegionProfile.onSimStateChanged(intent.getIntExtra(
+                    PhoneConstants.SUBSCRIPTION_KEY,
+                    SubscriptionManager.INVALID_SUBSCRIPTION_ID));
         } else if (TelephonyIntents.ACTION_DEFAULT_SMS_SUBSCRIPTION_CHANGED.equals(action) ||
                 CELLBROADCAST_START_CONFIG_ACTION.equals(action)) {
+            // The SIMs behind the subscriptions may have changed.
+            CellBroadcastRegionProfile.invalidateAll();
             // Todo: Add the service state check once the new get service state API is done.
             // Do not rely on mServiceState as it gets reset to -1 time to time because
             // the process of CellBroadcastReceiver gets killed every time once the job is done.
@@ -140,6 +155,8 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
             // means someone has tried to spoof the message by delivering it outside the normal
             // permission-checked route, so we just ignore it.
             if (privileged) {
+                intent.putExtra(CellBroadcastLatency.RECEIVE_TIME_EXTRA,
+                        SystemClock.elapsedRealtimeNanos());
                 intent.setClass(context, CellBroadcastAlertService.class);
                 context.startService(intent);
             } else {
@@ -205,25 +222,25 @@ public class CellBroadcastReceiver extends BroadcastReceiver {
     private void tryCdmaSetCategory(Context context, int category, boolean enable, int subId) {
         switch (category) {
             case SmsEnvelope.SERVICE_CATEGORY_CMAS_EXTREME_THREAT:
-                SubscriptionManager.setSubscriptionProperty(subId,
+                CellBroadcastSubSettings.setSubscriptionProperty(subId,
                         SubscriptionManager.CB_EXTREME_THREAT_ALERT,
                         (enable ? "1" : "0"));
                 break;
 
             case SmsEnvelope.SERVICE_CATEGORY_CMAS_SEVERE_THREAT:
-                SubscriptionManager.setSubscriptionProperty(subId,
+                CellBroadcastSubSettings.setSubscriptionProperty(subId,
                         SubscriptionManager.CB_SEVERE_THREAT_ALERT,
                         (enable ? "1" : "0"));
                 break;
 
             case SmsEnvelope.SERVICE_CATEGORY_CMAS_CHILD_ABDUCTION_EMERGENCY:
-                SubscriptionManager.setSubscriptionProperty(subId,
+                CellBroadcastSubSettings.setSubscriptionProperty(subId,
                         SubscriptionManager.CB_AMBER_ALERT,
                         (enable ? "1" : "0"));
                 break;
 
             case SmsEnvelope.SERVICE_CATEGORY_CMAS_TEST_MESSAGE:
-                SubscriptionManager.setSubscriptionProperty(subId,
+                CellBroadcastSubSettings.setSubscriptionProperty(subId,
                         SubscriptionManager.CB_CMAS_TEST_ALERT,
                         (enable ? "1" : "0"));
                 break;
@@ -21,12 +21,19 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.graphics.Color;
+import android.os.SystemClock;
 import android.telephony.CellBroadcastMessage;
+import android.text.TextUtils;
 import android.util.Log;
 import android.preference.PreferenceManager;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The application class loads the default preferences at first start,
@@ -41,6 +48,9 @@ public class CellBroadcastReceiverApp extends Application {
         super.onCreate();
         // TODO: fix strict mode violation from the following method call during app creation
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
+        sNewMessageCapacity = getResources().getInteger(R.integer.unread_message_capacity);
+        CellBroadcastMessageRegistry.setCapacity(
+                getResources().getInteger(R.integer.message_registry_capacity));
         //Bug950322 begin
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
             final NotificationManager notificationManager=(NotificationManager)this.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -56,27 +66,143 @@ public class CellBroadcastReceiverApp extends Application {
         //Bug950322 end
     }
 
-    /** List of unread non-emergency alerts to show when user selects the notification. */
-    private static final ArrayList<CellBroadcastMessage> sNewMessageList =
-            new ArrayList<CellBroadcastMessage>(4);
+    /**
+     * Intent extra with the {@link CellBroadcastMessageRegistry} handles of unread
+     * non-emergency alerts to show.
+     */
+    static final String NEW_MESSAGE_KEYS_EXTRA = "new_message_keys";
+
+    /** An unread non-emergency alert and the fingerprint of its body. */
+    private static final class NewMessage {
+        final CellBroadcastMessage mMessage;
+        final long mFingerprint;
+
+        NewMessage(CellBroadcastMessage message, long fingerprint) {
+            mMessage = message;
+            mFingerprint = fingerprint;
+        }
+    }
+
+    /** Largest number of unread alerts kept; set from config in {@link #onCreate}. */
+    private static int sNewMessageCapacity = 64;
+
+    /**
+     * Unread non-emergency alerts to show when user selects the notification, by key and
+     * oldest first. When full, the oldest alert is dropped; it is still in the database.
+     */
+    private static final LinkedHashMap<Long, NewMessage> sNewMessages =
+            new LinkedHashMap<Long, NewMessage>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, NewMessage> eldest) {
+                    return size() > sNewMessageCapacity;
+                }
+            };
 
     /** Latest area info cell broadcast received. */
-    private static CellBroadcastMessage sLatestAreaInfo;
+    private static volatile CellBroadcastMessage sLatestAreaInfo;
+
+    /** Latest area info broadcast of a subscription, and when it was last sent to apps. */
+    private static final class AreaInfo {
+        final CellBroadcastMessage mMessage;
+        final long mSentTime;
+
+        AreaInfo(CellBroadcastMessage message, long sentTime) {
+            mMessage = message;
+            mSentTime = sentTime;
+        }
+    }
+
+    /** Latest area info broadcast received, per subscription. */
+    private static final ConcurrentHashMap<Integer, AreaInfo> sAreaInfos =
+            new ConcurrentHashMap<Integer, AreaInfo>();
+
+    private static final AtomicLong sAreaInfoReceivedCount = new AtomicLong();
+    private static final AtomicLong sAreaInfoSentCount = new AtomicLong();
+
+    /** Adds a new unread non-emergency message. */
+    static void addNewMessage(CellBroadcastMessage message, long fingerprint) {
+        sNewMessages.put(CellBroadcastMessageRegistry.handleOf(message),
+                new NewMessage(message, fingerprint));
+    }
 
-    /** Adds a new unread non-emergency message and returns the current list. */
-    static ArrayList<CellBroadcastMessage> addNewMessageToList(CellBroadcastMessage message) {
-        sNewMessageList.add(message);
-        return sNewMessageList;
+    /** Returns the number of unread non-emergency messages. */
+    static int getNewMessageCount() {
+        return sNewMessages.size();
+    }
+
+    /** Returns the keys of the unread non-emergency messages, oldest first. */
+    static long[] getNewMessageKeys() {
+        long[] keys = new long[sNewMessages.size()];
+        int i = 0;
+        for (long key : sNewMessages.keySet()) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the unread messages with the given keys, in key order, skipping the keys that
+     * are no longer in the list. The fingerprints of the messages are added to
+     * {@code fingerprints}.
+     */
+    static ArrayList<CellBroadcastMessage> getNewMessages(long[] keys,
+            ArrayList<Long> fingerprints) {
+        ArrayList<CellBroadcastMessage> messages =
+                new ArrayList<CellBroadcastMessage>(keys.length);
+        for (long key : keys) {
+            NewMessage newMessage = sNewMessages.get(key);
+            if (newMessage != null) {
+                messages.add(newMessage.mMessage);
+                fingerprints.add(newMessage.mFingerprint);
+            }
+        }
+        return messages;
     }
 
     /** Clears the list of unread non-emergency messages. */
     static void clearNewMessageList() {
-        sNewMessageList.clear();
+        sNewMessages.clear();
     }
 
-    /** Saves the latest area info broadcast received. */
-    static void setLatestAreaInfo(CellBroadcastMessage areaInfo) {
+    /**
+     * Saves the latest area info broadcast received. Operators repeat the same area info
+     * every few seconds, so it is only sent on to apps if its text changed, or if the last
+     * time it was sent is at least {@code resendIntervalMillis} ago.
+     * @param resendIntervalMillis how often unchanged area info is sent again; 0 for never
+     * @return true if the area info should be sent to apps
+     */
+    static boolean setLatestAreaInfo(CellBroadcastMessage areaInfo, long resendIntervalMillis) {
+        sAreaInfoReceivedCount.incrementAndGet();
         sLatestAreaInfo = areaInfo;
+        long now = SystemClock.elapsedRealtime();
+        AreaInfo previous = sAreaInfos.get(areaInfo.getSubId());
+        boolean send = previous == null
+                || !TextUtils.equals(previous.mMessage.getMessageBody(),
+                        areaInfo.getMessageBody())
+                || !TextUtils.equals(previous.mMessage.getLanguageCode(),
+                        areaInfo.getLanguageCode())
+                || (resendIntervalMillis > 0 && now - previous.mSentTime >= resendIntervalMillis);
+        sAreaInfos.put(areaInfo.getSubId(),
+                new AreaInfo(areaInfo, send ? now : previous.mSentTime));
+        if (send) {
+            sAreaInfoSentCount.incrementAndGet();
+        }
+        return send;
+    }
+
+    /** Returns the latest area info broadcast received on each subscription. */
+    static ArrayList<CellBroadcastMessage> getAreaInfos() {
+        ArrayList<CellBroadcastMessage> areaInfos = new ArrayList<CellBroadcastMessage>();
+        for (AreaInfo areaInfo : sAreaInfos.values()) {
+            areaInfos.add(areaInfo.mMessage);
+        }
+        return areaInfos;
+    }
+
+    /** Prints how many area info broadcasts were received, and how many sent to apps. */
+    static void dumpAreaInfo(PrintWriter pw) {
+        pw.println("Area info: received=" + sAreaInfoReceivedCount.get() + " sent="
+                + sAreaInfoSentCount.get());
     }
 
     /** Returns the latest area info broadcast received. */
@@ -85,26 +211,11 @@ public class CellBroadcastReceiverApp extends Application {
     }
 
     // add for bug606395 start
-    /** Remove a new unread non-emergency message and returns the current list. */
-    static ArrayList<CellBroadcastMessage> removeNewMessageFromList(
-            CellBroadcastMessage message) {
-
-
-        if (sNewMessageList != null && sNewMessageList.size() > 0) {
-            for (int i = sNewMessageList.size()-1; i >=0; i--) {
-                if (sNewMessageList.get(i).getMessageBody()
-                        .equals(message.getMessageBody())
-                        && sNewMessageList.get(i).getDeliveryTime() == message
-                                .getDeliveryTime()) {
-                    Log.d(TAG, " removeNewMessageFromList "
-                            + sNewMessageList.get(i).getMessageBody());
-                    sNewMessageList.remove(i);
-                    Log.d(TAG, " removeNewMessageFromList " + sNewMessageList.size());
-                    return sNewMessageList;
-                }
-            }
+    /** Remove a new unread non-emergency message. */
+    static void removeNewMessageFromList(CellBroadcastMessage message) {
+        if (sNewMessages.remove(CellBroadcastMessageRegistry.handleOf(message)) != null) {
+            Log.d(TAG, " removeNewMessageFromList " + sNewMessages.size());
         }
-        return sNewMessageList;
     }
     // add for bug606395 end
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable region profile of one subscription: which of the regions with special alert
+ * handling the SIM and the serving network belong to, and whether the device shows the
+ * settings of each region. The country codes used to be fetched from telephony at every
+ * check, two binder calls per region per message; a profile fetches them once.
+ *
+ * <p>Profiles are cached per subscription. A profile is dropped when the serving network
+ * of its subscription changes operator or its SIM changes state, e.g. when a SIM is
+ * swapped, and all profiles are dropped when the subscriptions change. A profile whose
+ * SIM country is not known yet is not cached.
+ */
+final class CellBroadcastRegionProfile {
+    private static final String TAG = "CellBroadcastRegionProfile";
+
+    static final int REGION_CHILE = 1 << 0;
+    static final int REGION_PERU = 1 << 1;
+    static final int REGION_DUBAI = 1 << 2;
+    static final int REGION_TAIWAN = 1 << 3;
+    static final int REGION_NEWZEALAND = 1 << 4;
+    static final int REGION_BRAZIL = 1 << 5;
+    static final int REGION_ISRAEL = 1 << 6;
+
+    /** Country code of each region, in bit order. */
+    private static final String[] COUNTRIES = {
+            CellBroadcastConfigService.COUNTRY_CHL,
+            CellBroadcastConfigService.COUNTRY_PERU,
+            CellBroadcastConfigService.COUNTRY_DUBAI,
+            CellBroadcastConfigService.COUNTRY_TAIWAN,
+            CellBroadcastConfigService.COUNTRY_NEWZEALAND,
+            CellBroadcastConfigService.COUNTRY_BRAZIL,
+            CellBroadcastConfigService.COUNTRY_ISRAEL,
+    };
+
+    private static final ConcurrentHashMap<Integer, CellBroadcastRegionProfile> sCache =
+            new ConcurrentHashMap<Integer, CellBroadcastRegionProfile>();
+
+    /** Last network operator seen in a service state change, per subscription. */
+    private static final ConcurrentHashMap<Integer, String> sNetworkOperators =
+            new ConcurrentHashMap<Integer, String>();
+
+    /** Bumped on every invalidation, so that a resolve racing with one is not cached. */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final AtomicLong sLookupCount = new AtomicLong();
+    private static final AtomicLong sResolveCount = new AtomicLong();
+
+    /** Country code calls the checks made through profiles would have cost without them. */
+    private static final AtomicLong sReplacedCallCount = new AtomicLong();
+
+    private final String mSimIso;
+    private final String mNetworkIso;
+    private final int mSimRegions;
+    private final int mNetworkRegions;
+    private final int mShownRegions;
+
+    private CellBroadcastRegionProfile(String simIso, String networkIso, int shownRegions) {
+        mSimIso = simIso;
+        mNetworkIso = networkIso;
+        mSimRegions = regionsOf(simIso);
+        mNetworkRegions = regionsOf(networkIso);
+        mShownRegions = shownRegions;
+    }
+
+    /** Returns the profile of a subscription, resolving it if it isn't cached. */
+    static CellBroadcastRegionProfile get(Context context, int subId) {
+        sLookupCount.incrementAndGet();
+        CellBroadcastRegionProfile profile = sCache.get(subId);
+        if (profile == null) {
+            int generation = sGeneration.get();
+            profile = resolve(context, subId);
+            if (!TextUtils.isEmpty(profile.mSimIso) && sGeneration.get() == generation) {
+                sCache.put(subId, profile);
+                // An invalidation between the check and the put must not be lost.
+                if (sGeneration.get() != generation) {
+                    sCache.remove(subId, profile);
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Called on every service state change of a subscription. Drops the profile of the
+     * subscription if its network operator changed, since the network country may have.
+     */
+    static void onServiceStateChanged(int subId, String networkOperator) {
+        String operator = networkOperator != null ? networkOperator : "";
+        String previous = sNetworkOperators.put(subId, operator);
+        if (!operator.equals(previous)) {
+            Log.d(TAG, "Network operator of sub " + subId + " changed to " + operator);
+            sGeneration.incrementAndGet();
+            sCache.remove(subId);
+        }
+    }
+
+    /**
+     * Called when the SIM of a subscription changes state. Drops the profile of the
+     * subscription, or all profiles if the subscription isn't known yet, since the SIM
+     * country may have changed.
+     */
+    static void onSimStateChanged(int subId) {
+        Log.d(TAG, "SIM state of sub " + subId + " changed");
+        if (!SubscriptionManager.isValidSubscriptionId(subId)) {
+            invalidateAll();
+            return;
+        }
+        sGeneration.incrementAndGet();
+        sCache.remove(subId);
+    }
+
+    /** Drops all profiles, e.g. when SIMs are swapped or the subscriptions change. */
+    static void invalidateAll() {
+        sGeneration.incrementAndGet();
+        sCache.clear();
+    }
+
+    private static CellBroadcastRegionProfile resolve(Context context, int subId) {
+        sResolveCount.incrementAndGet();
+        TelephonyManager tm = (TelephonyManager) context.getSystemService(
+                Context.TELEPHONY_SERVICE);
+        Resources res = context.getResources();
+        int shown = REGION_ISRAEL;
+        if (res.getBoolean(R.bool.show_chile_settings)) shown |= REGION_CHILE;
+        if (res.getBoolean(R.bool.show_peru_settings)) shown |= REGION_PERU;
+        if (res.getBoolean(R.bool.show_dubai_settings)) shown |= REGION_DUBAI;
+        if (res.getBoolean(R.bool.show_taiwan_settings)) shown |= REGION_TAIWAN;
+        if (res.getBoolean(R.bool.show_newzealand_settings)) shown |= REGION_NEWZEALAND;
+        if (res.getBoolean(R.bool.show_brazil_settings)) shown |= REGION_BRAZIL;
+        CellBroadcastRegionProfile profile = new CellBroadcastRegionProfile(
+                tm.getSimCountryIso(subId), tm.getNetworkCountryIso(subId), shown);
+        Log.d(TAG, "Resolved sub " + subId + ": " + profile);
+        return profile;
+    }
+
+    private static int regionsOf(String iso) {
+        int regions = 0;
+        for (int i = 0; i < COUNTRIES.length; i++) {
+            if (COUNTRIES[i].equals(iso)) {
+                regions |= 1 << i;
+            }
+        }
+        return regions;
+    }
+
+    /** Returns true if the SIM or the serving network belongs to any of {@code regions}. */
+    boolean isIn(int regions) {
+        // The old check asked for the SIM country, then for the network country if needed.
+        sReplacedCallCount.addAndGet((mSimRegions & regions) != 0 ? 1 : 2);
+        return ((mSimRegions | mNetworkRegions) & regions) != 0;
+    }
+
+    /** Returns true if the SIM belongs to any of {@code regions}. */
+    boolean isSimIn(int regions) {
+        sReplacedCallCount.incrementAndGet();
+        return (mSimRegions & regions) != 0;
+    }
+
+    /**
+     * Returns true if the device shows the settings of {@code region} and the SIM or the
+     * serving network belongs to it.
+     */
+    boolean supports(int region) {
+        return (mShownRegions & region) != 0 && isIn(region);
+    }
+
+    String getSimCountryIso() {
+        return mSimIso;
+    }
+
+    String getNetworkCountryIso() {
+        return mNetworkIso;
+    }
+
+    @Override
+    public String toString() {
+        return "sim=" + mSimIso + " network=" + mNetworkIso + " regions=0x"
+                + Integer.toHexString(mSimRegions | mNetworkRegions);
+    }
+
+    /**
+     * Prints the lookup counters, and the country code calls saved per alert out of
+     * {@code alerts} alerts shown.
+     */
+    static void dump(PrintWriter pw, long alerts) {
+        long calls = sResolveCount.get() * 2;
+        long saved = sReplacedCallCount.get() - calls;
+        pw.println("Region profiles: cached=" + sCache.size() + " lookups=" + sLookupCount.get()
+                + " resolves=" + sResolveCount.get() + " countryCalls=" + calls
+                + " countryCallsSaved=" + saved
+                + (alerts > 0 ? " savedPerAlert=" + String.format("%.1f",
+                        (double) saved / alerts) : ""));
+    }
+}
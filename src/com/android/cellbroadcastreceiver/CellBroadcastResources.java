@@ -17,13 +17,10 @@
 package com.android.cellbroadcastreceiver;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.telephony.CellBroadcastMessage;
 import android.telephony.SmsCbCmasInfo;
 import android.telephony.SmsCbEtwsInfo;
-import android.telephony.TelephonyManager;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.style.StyleSpan;
@@ -36,16 +33,10 @@ import static com.android.cellbroadcastreceiver.CellBroadcastReceiver.DBG;
  */
 public class CellBroadcastResources {
 
-    private static final String COUNTRY_CHILE = "cl";
-    private static final String COUNTRY_PERU = "pe";
-    private static final String COUNTRY_DUBAI = "ae";
-    private static final String ARED_TAIWAN = "tw";
-    private static final String ARED_NEWZEALAND = "nz";
     private static final String TAG = "CellBroadcastResources";
     private CellBroadcastResources() {
     }
     private static Context mContext;
-    private static final String PREFERENCE_NAME="custom_config";
     //add for Dubai PWS setting
     public static void setContext(Context context) {
         mContext = context;
@@ -261,101 +252,24 @@ public class CellBroadcastResources {
             return R.string.cb_other_message_identifiers;
         }
         if (context == null) return 0;
-        Resources res = context.getResources();
-        TelephonyManager tm = (TelephonyManager) context.getSystemService(context.TELEPHONY_SERVICE);
-        SharedPreferences sp =context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
-        boolean isRequestModifyPopTitle= sp.getBoolean("isRequestModifyPopTitle", false);
         int messageId = cbm.getServiceCategory();
         int subId = cbm.getSubId();
-        boolean isChileSupport = res.getBoolean(R.bool.show_chile_settings)
-                && (COUNTRY_CHILE.equals(tm.getSimCountryIso(subId)) || COUNTRY_CHILE.equals(tm.getNetworkCountryIso(subId)));
-        boolean isPeruSupport = res.getBoolean(R.bool.show_peru_settings)
-                && (COUNTRY_PERU.equals(tm.getSimCountryIso(subId)) || COUNTRY_PERU.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableDubaiPwsSupport = res.getBoolean(R.bool.show_dubai_settings)
-                && (COUNTRY_DUBAI.equals(tm.getSimCountryIso(subId)) || COUNTRY_DUBAI.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableTaiwanPwsSupport = res.getBoolean(R.bool.show_taiwan_settings)
-                && (ARED_TAIWAN.equals(tm.getSimCountryIso(subId)) || ARED_TAIWAN.equals(tm.getNetworkCountryIso(subId)));
-        boolean enableNewZealandPwsSupport = res.getBoolean(R.bool.show_newzealand_settings)
-                && (ARED_NEWZEALAND.equals(tm.getSimCountryIso(subId)) || ARED_NEWZEALAND.equals(tm.getNetworkCountryIso(subId)));
+        CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(context, subId);
+        boolean enableDubaiPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_DUBAI);
+        boolean enableTaiwanPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_TAIWAN);
         if (DBG){
-            Log.d(TAG, "subId : =" + subId + " messageId = " + messageId + " isRequestModifyPopTitle = " + isRequestModifyPopTitle
-            + " isChileSupport = " + isChileSupport + " isPeruSupport = " + isPeruSupport
-            + " enableDubaiPwsSupport = " + enableDubaiPwsSupport + " enableTaiwanPwsSupport :" +enableTaiwanPwsSupport);
+            Log.d(TAG, "subId : =" + subId + " messageId = " + messageId + " " + region);
         }
         if(enableTaiwanPwsSupport){
             return getTaiwanDialogTitleResource(cbm,messageId);
         }
 
-        if (isRequestModifyPopTitle){
-            if (enableDubaiPwsSupport){
-                //if messageId in range 4371-4378, displaying primary language.
-                boolean pwsPrimaryLanguage = messageId >= 0x1113 && messageId <= 0x111A;
-                //if messageId in range 4384-4391, displaying secondary language.
-                boolean pwsSecondLanguage = messageId >= 0x1120 && messageId <=0x1127;
-                //PWS messageId is 4370 and 4383
-                if (messageId == 0x1112) {
-                    return R.string.cmas_presidential_level_alert_ar;
-                } else if (messageId == 0x111F) {
-                    return R.string.cmas_presidential_level_alert_en;
-                }
-                if (pwsPrimaryLanguage) {
-                    return R.string.cmas_extreme_alert_ar;
-                } else if (pwsSecondLanguage) {
-                    return R.string.cmas_extreme_alert_en;
-                }
-                if (messageId == 0x111B) {
-                    return R.string.cmas_amber_alert_ar;
-                } else if (messageId == 0x1128) {
-                    return R.string.cmas_amber_alert_en;
-                }
-                if (messageId == 0x111C || messageId == 0x112E) {
-                    return R.string.cmas_required_monthly_test_ar;
-                } else if (messageId == 0x1129 || messageId == 0x112F) {
-                    return R.string.cmas_required_monthly_test_en;
-                }
-                if (messageId == 0x111D) {
-                    return R.string.cmas_exercise_alert_ar;
-                } else if (messageId == 0x112A) {
-                    return R.string.cmas_exercise_alert_en;
-                }
-                if (messageId == 0x112C) {
-                    return R.string.cmas_public_safety_alert_ar;
-                } else if (messageId == 0x112D) {
-                    return R.string.cmas_public_safety_alert_en;
-                }
-            }
-            if (isChileSupport){
-                if (messageId ==4370 || messageId == 919)
-                    return R.string.cmas_presidential_level_alert_4370_919_title;
-            }
-            if(isPeruSupport){
-                if(messageId == 50 || messageId == 919 || messageId == 4370 || messageId == 4383 || (messageId >= 4396 && messageId <= 4399)){
-                    return R.string.cmas_presidential_level_alert_4370_919_title;
-                }
-                if(messageId == 4382){
-                    return R.string.cmas_information_alert_4382_title;
-                }
-
-                if(messageId == 4380 || messageId == 519){
-                    return R.string.cmas_test_alert_4380_519_title;
-                }
-
-                if(messageId == 4381){
-                    return R.string.cmas_test_alert_4381_title;
-                }
-            }
-            if (enableNewZealandPwsSupport) {
-                if (messageId == 4370) {
-                    return R.string.cmas_extreme_alert1;
-                } else if (messageId == 4371 || messageId == 4372) {
-                    return R.string.nz_control_4371_4372_alert_title;
-                } else if (messageId >= 4373 && messageId <= 4378) {
-                    return R.string.nz_control_4373_4378_alert_title;
-                }
-            }
+        // Region specific titles, if the carrier asks for them (isRequestModifyPopTitle).
+        int regionTitle = CellBroadcastChannelTable.get(context, subId).getTitle(messageId);
+        if (regionTitle != 0) {
+            return regionTitle;
         }
 
-
         //add bug659116 end
         SmsCbEtwsInfo etwsInfo = cbm.getEtwsWarningInfo();
         if (etwsInfo != null) {
@@ -522,13 +436,11 @@ public class CellBroadcastResources {
     public static int getDialogButtonResource(Context context, CellBroadcastMessage cbm) {
         //add for Dubai PWS setting
         if (context == null) return 0;
-        Resources res = context.getResources();
-        TelephonyManager tm = (TelephonyManager) context.getSystemService(context.TELEPHONY_SERVICE);
         int messageId = cbm.getServiceCategory();
-        boolean enableDubaiPwsSupport = res.getBoolean(R.bool.show_dubai_settings)
-                && ("ae".equals(tm.getSimCountryIso(cbm.getSubId())) || "ae".equals(tm.getNetworkCountryIso(cbm.getSubId())));
-        boolean enableChlSupport = res.getBoolean(R.bool.show_chile_settings) && ("cl".equals(tm.getSimCountryIso(cbm.getSubId())) || "cl".equals(tm.getNetworkCountryIso(cbm.getSubId())));
-        boolean enablePeSupport = res.getBoolean(R.bool.show_peru_settings) && ("pe".equals(tm.getSimCountryIso(cbm.getSubId())) || "pe".equals(tm.getNetworkCountryIso(cbm.getSubId())));
+        CellBroadcastRegionProfile region = CellBroadcastRegionProfile.get(context, cbm.getSubId());
+        boolean enableDubaiPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_DUBAI);
+        boolean enableChlSupport = region.supports(CellBroadcastRegionProfile.REGION_CHILE);
+        boolean enablePeSupport = region.supports(CellBroadcastRegionProfile.REGION_PERU);
         //if messageId in range 4371-4378, displaying primary language.
         boolean pwsPrimaryLanguage = messageId >= 0x1113 && messageId <= 0x111A;
         //if messageId in range 4384-4391, displaying secondary language.
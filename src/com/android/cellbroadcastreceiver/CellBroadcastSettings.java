@@ -135,12 +135,6 @@ public class CellBroadcastSettings extends PreferenceActivity{
     // First time use
     public static final String KEY_FIRST_TIME = "first_time";
 
-    // Brazil country code
-    private static final String COUNTRY_BRAZIL = "br";
-    private static final String COUNTRY_PERU="pe";
-    private static final String COUNTRY_DUBAI="ae";
-    private static final String COUNTRY_NEWZEALAND = "nz";
-
     public static final String KEY_CATEGORY_MTC_SETTINGS = "category_mtc_settings";
 
     public static final String KEY_ENABLE_CHANNEL_4370_919 = "enable_channel_4370_919_alerts";
@@ -572,16 +566,11 @@ public class CellBroadcastSettings extends PreferenceActivity{
             updateTaiwanPreferences(preferenceScreen);
             // used control different areas
             if (mSir != null) {
-                Resources res = getResources();
-                enableDubaiPwsSupport = res.getBoolean(R.bool.show_dubai_settings) &&
-                        (COUNTRY_DUBAI.equals(mTelephonyManager.getSimCountryIso(mSir.getSubscriptionId()))
-                                || COUNTRY_DUBAI.equals(mTelephonyManager.getNetworkCountryIso(mSir.getSubscriptionId())));
-                enablePeruPwsSupport = res.getBoolean(R.bool.show_peru_settings) &&
-                        (COUNTRY_PERU.equals(mTelephonyManager.getSimCountryIso(mSir.getSubscriptionId()))
-                                || COUNTRY_PERU.equals(mTelephonyManager.getNetworkCountryIso(mSir.getSubscriptionId())));
-                enableNzPwsSupport = res.getBoolean(R.bool.show_newzealand_settings) &&
-                        (COUNTRY_NEWZEALAND.equals(mTelephonyManager.getSimCountryIso(mSir.getSubscriptionId()))
-                                || COUNTRY_NEWZEALAND.equals(mTelephonyManager.getNetworkCountryIso(mSir.getSubscriptionId())));
+                CellBroadcastRegionProfile region =
+                        CellBroadcastRegionProfile.get(this, mSir.getSubscriptionId());
+                enableDubaiPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_DUBAI);
+                enablePeruPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_PERU);
+                enableNzPwsSupport = region.supports(CellBroadcastRegionProfile.REGION_NEWZEALAND);
             }
 
             if(mSir == null) {
@@ -619,29 +608,29 @@ public class CellBroadcastSettings extends PreferenceActivity{
                             switch (pref.getKey()) {
                                 case KEY_ENABLE_EMERGENCY_ALERTS:
                                     enabledStateChanged(((Boolean) newValue).booleanValue());
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_EMERGENCY_ALERT,
                                                     newVal + "");
                                     break;
                                 case KEY_ENABLE_CHANNEL_50_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_CHANNEL_50_ALERT,
                                                     newVal + "");
                                     break;
                                 case KEY_ENABLE_ETWS_TEST_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_ETWS_TEST_ALERT,
                                                     newVal + "");
                                     break;
                                 case KEY_ENABLE_CMAS_EXTREME_THREAT_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_EXTREME_THREAT_ALERT,
                                                     newVal + "");
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_SEVERE_THREAT_ALERT,
                                                     "0");
@@ -655,19 +644,19 @@ public class CellBroadcastSettings extends PreferenceActivity{
                                     }
                                     break;
                                 case KEY_ENABLE_CMAS_SEVERE_THREAT_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_SEVERE_THREAT_ALERT,
                                                     newVal + "");
                                     break;
                                 case KEY_ENABLE_CMAS_AMBER_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_AMBER_ALERT,
                                                     newVal + "");
                                     break;
                                 case KEY_ENABLE_CMAS_TEST_ALERTS:
-                                    SubscriptionManager
+                                    CellBroadcastSubSettings
                                             .setSubscriptionProperty(mSir.getSubscriptionId(),
                                                     SubscriptionManager.CB_CMAS_TEST_ALERT,
                                                     newVal + "");
@@ -835,7 +824,7 @@ public class CellBroadcastSettings extends PreferenceActivity{
                                 final ListPreference listPref = (ListPreference) pref;
                                 final int idx = listPref.findIndexOfValue((String) newValue);
                                 listPref.setSummary(listPref.getEntries()[idx]);
-                                SubscriptionManager.setSubscriptionProperty(mSir.getSubscriptionId(),
+                                CellBroadcastSubSettings.setSubscriptionProperty(mSir.getSubscriptionId(),
                                         SubscriptionManager.CB_ALERT_REMINDER_INTERVAL,
                                         String.valueOf((String) newValue));
                                 return true;
@@ -845,7 +834,8 @@ public class CellBroadcastSettings extends PreferenceActivity{
             boolean enableChannel50Support = SubscriptionManager.getResourcesForSubId(
                     getApplicationContext(), mSir.getSubscriptionId()).getBoolean(
                     R.bool.show_brazil_settings) ||
-                    COUNTRY_BRAZIL.equals(mTelephonyManager.getSimCountryIso(mSir.getSubscriptionId()));
+                    CellBroadcastRegionProfile.get(this, mSir.getSubscriptionId())
+                            .isSimIn(CellBroadcastRegionProfile.REGION_BRAZIL);
 
             if (!enableChannel50Support) {
                 preferenceScreen.removePreference(findPreference(KEY_CATEGORY_BRAZIL_SETTINGS));
@@ -954,7 +944,7 @@ public class CellBroadcastSettings extends PreferenceActivity{
                             @Override
                             public boolean onPreferenceChange(Preference pref, Object newValue) {
                                 int newVal = (((Boolean) newValue).booleanValue()) ? 1 : 0;
-                                SubscriptionManager.setSubscriptionProperty(
+                                CellBroadcastSubSettings.setSubscriptionProperty(
                                         mSir.getSubscriptionId(),
                                         SubscriptionManager.CB_ALERT_SPEECH, newVal + "");
                                 return true;
@@ -979,7 +969,7 @@ public class CellBroadcastSettings extends PreferenceActivity{
                             @Override
                             public boolean onPreferenceChange(Preference pref, Object newValue) {
                                 int newVal = (((Boolean) newValue).booleanValue()) ? 1 : 0;
-                                SubscriptionManager.setSubscriptionProperty(
+                                CellBroadcastSubSettings.setSubscriptionProperty(
                                         mSir.getSubscriptionId(),
                                         SubscriptionManager.CB_ALERT_VIBRATE, newVal + "");
                                 return true;
@@ -1070,7 +1060,7 @@ public class CellBroadcastSettings extends PreferenceActivity{
                             @Override
                             public boolean onPreferenceChange(Preference pref, Object newValue) {
                                 int newVal = (((Boolean) newValue).booleanValue()) ? 1 : 0;
-                                SubscriptionManager.setSubscriptionProperty(
+                                CellBroadcastSubSettings.setSubscriptionProperty(
                                         mSir.getSubscriptionId(),
                                         SubscriptionManager.CB_OPT_OUT_DIALOG, newVal + "");
                                 return true;
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable snapshot of the cell broadcast subscription properties (the CB_* columns of the
+ * subscription table) of one subscription. Checking whether a broadcast is enabled used to
+ * cost up to four telephony provider queries per message; now the boolean properties are
+ * loaded in one query into a bitmask, and a check is a mask test.
+ *
+ * <p>Snapshots are cached per subscription and replaced as a whole. Properties must be
+ * changed through {@link #setSubscriptionProperty}, which drops the cached snapshot so the
+ * next lookup loads a fresh one. If the properties can't be loaded, the defaults are used
+ * for that lookup only, so that a transient failure does not turn alert classes the user
+ * disabled back on for the life of the process.
+ */
+final class CellBroadcastSubSettings {
+    private static final String TAG = "CellBroadcastSubSettings";
+
+    static final int EMERGENCY_ALERT = 1 << 0;
+    static final int EXTREME_THREAT_ALERT = 1 << 1;
+    static final int SEVERE_THREAT_ALERT = 1 << 2;
+    static final int AMBER_ALERT = 1 << 3;
+    static final int ETWS_TEST_ALERT = 1 << 4;
+    static final int CMAS_TEST_ALERT = 1 << 5;
+    static final int CHANNEL_50_ALERT = 1 << 6;
+    static final int ALERT_VIBRATE = 1 << 7;
+    static final int ALERT_SPEECH = 1 << 8;
+    static final int OPT_OUT_DIALOG = 1 << 9;
+
+    /** Boolean properties, in bit order, with the defaults used when a value is missing. */
+    private static final String[] BOOLEAN_COLUMNS = {
+            SubscriptionManager.CB_EMERGENCY_ALERT,
+            SubscriptionManager.CB_EXTREME_THREAT_ALERT,
+            SubscriptionManager.CB_SEVERE_THREAT_ALERT,
+            SubscriptionManager.CB_AMBER_ALERT,
+            SubscriptionManager.CB_ETWS_TEST_ALERT,
+            SubscriptionManager.CB_CMAS_TEST_ALERT,
+            SubscriptionManager.CB_CHANNEL_50_ALERT,
+            SubscriptionManager.CB_ALERT_VIBRATE,
+            SubscriptionManager.CB_ALERT_SPEECH,
+            SubscriptionManager.CB_OPT_OUT_DIALOG,
+    };
+    private static final int DEFAULT_FLAGS = EMERGENCY_ALERT | EXTREME_THREAT_ALERT
+            | SEVERE_THREAT_ALERT | AMBER_ALERT | CHANNEL_50_ALERT | ALERT_VIBRATE
+            | ALERT_SPEECH | OPT_OUT_DIALOG;
+
+    private static final String[] PROJECTION;
+    static {
+        PROJECTION = new String[BOOLEAN_COLUMNS.length + 1];
+        System.arraycopy(BOOLEAN_COLUMNS, 0, PROJECTION, 0, BOOLEAN_COLUMNS.length);
+        PROJECTION[BOOLEAN_COLUMNS.length] = SubscriptionManager.CB_ALERT_REMINDER_INTERVAL;
+    }
+
+    private static final ConcurrentHashMap<Integer, CellBroadcastSubSettings> sCache =
+            new ConcurrentHashMap<Integer, CellBroadcastSubSettings>();
+
+    /** Bumped on every change, so that a load racing with a change is not cached. */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final AtomicLong sLookupCount = new AtomicLong();
+    private static final AtomicLong sQueryCount = new AtomicLong();
+    private static final AtomicLong sFailureCount = new AtomicLong();
+
+    /** Snapshot used, uncached, while the properties of a subscription can't be loaded. */
+    private static final CellBroadcastSubSettings DEFAULTS =
+            new CellBroadcastSubSettings(DEFAULT_FLAGS, 0);
+
+    private final int mFlags;
+    private final int mReminderInterval;
+
+    private CellBroadcastSubSettings(int flags, int reminderInterval) {
+        mFlags = flags;
+        mReminderInterval = reminderInterval;
+    }
+
+    /** Returns the snapshot of a subscription, loading it if it isn't cached. */
+    static CellBroadcastSubSettings get(Context context, int subId) {
+        sLookupCount.incrementAndGet();
+        CellBroadcastSubSettings settings = sCache.get(subId);
+        if (settings == null) {
+            int generation = sGeneration.get();
+            settings = load(context, subId);
+            if (settings == null) {
+                // Not cached, so that the next lookup tries again.
+                sFailureCount.incrementAndGet();
+                return DEFAULTS;
+            }
+            sCache.put(subId, settings);
+            if (sGeneration.get() != generation) {
+                // Changed while loading; the snapshot may be stale. The change dropped what
+                // was cached before it, this drops what was cached after it.
+                sCache.remove(subId, settings);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Sets a subscription property and drops the cached snapshot of the subscription. Use
+     * this instead of {@link SubscriptionManager#setSubscriptionProperty}.
+     */
+    static void setSubscriptionProperty(int subId, String propKey, String propValue) {
+        SubscriptionManager.setSubscriptionProperty(subId, propKey, propValue);
+        sGeneration.incrementAndGet();
+        sCache.remove(subId);
+    }
+
+    /** Loads the snapshot of a subscription, or returns null if there is no row or on error. */
+    private static CellBroadcastSubSettings load(Context context, int subId) {
+        sQueryCount.incrementAndGet();
+        int flags = DEFAULT_FLAGS;
+        int reminderInterval = 0;
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(SubscriptionManager.CONTENT_URI, PROJECTION,
+                    SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID + "=?",
+                    new String[] {Integer.toString(subId)}, null);
+            if (c != null && c.moveToFirst()) {
+                for (int i = 0; i < BOOLEAN_COLUMNS.length; i++) {
+                    String value = c.getString(i);
+                    if (value == null) {
+                        continue;
+                    }
+                    try {
+                        if (Integer.parseInt(value) == 1) {
+                            flags |= 1 << i;
+                        } else {
+                            flags &= ~(1 << i);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Keep the default, as getBooleanSubscriptionProperty() does.
+                    }
+                }
+                reminderInterval = c.getInt(BOOLEAN_COLUMNS.length);
+            } else {
+                Log.w(TAG, "No subscription properties for sub " + subId);
+                return null;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Can't load subscription properties of sub " + subId, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return new CellBroadcastSubSettings(flags, reminderInterval);
+    }
+
+    /** Returns true if all the properties in {@code mask} are on. */
+    boolean isEnabled(int mask) {
+        return (mFlags & mask) == mask;
+    }
+
+    int getReminderInterval() {
+        return mReminderInterval;
+    }
+
+    /** Prints the lookup, provider query and failed load counters. */
+    static void dump(PrintWriter pw) {
+        pw.println("Subscription settings: cached=" + sCache.size() + " lookups="
+                + sLookupCount.get() + " providerQueries=" + sQueryCount.get()
+                + " failedLoads=" + sFailureCount.get());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.os.SystemClock;
+import android.telephony.CellBroadcastMessage;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of the last {@link #SIZE} events of the alert pipeline, for dumpsys. It takes
+ * the place of the per-message debug logs, which built several strings for every broadcast.
+ *
+ * <p>An event is two longs in a preallocated array: the elapsed realtime in nanoseconds, and
+ * the stage, subscription, service category and serial number packed as
+ * <pre>
+ *   stage (8 bits) | sub id (24 bits) | service category (16 bits) | serial number (16 bits)
+ * </pre>
+ * Recording an event allocates nothing. Events are decoded into text only by {@link #dump}.
+ *
+ * <p>Any thread may record events. A slot is claimed with an atomic counter; an event that
+ * is being written while the ring is dumped may show up torn, which is acceptable for a
+ * debugging aid.
+ */
+final class CellBroadcastTrace {
+
+    /** A broadcast was received from the framework. */
+    static final int RECEIVED = 0;
+    /** Ignored by the user preferences. */
+    static final int REJECTED_BY_USER = 1;
+    /** Ignored by the language filter. */
+    static final int REJECTED_BY_LANGUAGE = 2;
+    /** Ignored as a duplicate. */
+    static final int DUPLICATE = 3;
+    /** Collapsed into the copy received on the other subscription. */
+    static final int CROSS_SUB_COPY = 4;
+    /** An ETWS secondary notification that upgrades its primary. */
+    static final int ETWS_UPGRADE = 5;
+    /** Dropped for its empty body. */
+    static final int EMPTY_BODY = 6;
+    /** Shown before it is written (display-first fast lane). */
+    static final int FAST_LANE = 7;
+    /** Queued on the ingest writer. */
+    static final int QUEUED = 8;
+    /** Written to the database. */
+    static final int WRITTEN = 9;
+    /** The database write failed; it is retried. */
+    static final int WRITE_FAILED = 10;
+    /** Shed from a full queue; shown but not stored. */
+    static final int SHED = 11;
+    /** Shown as a full-screen alert. */
+    static final int ALERT_SHOWN = 12;
+    /** Added to the notification of non-emergency broadcasts. */
+    static final int NOTIFIED = 13;
+    /** Not stored or shown, as a newer version of it is in the database. */
+    static final int SUPERSEDED = 14;
+
+    private static final String[] STAGE_NAMES = {
+            "received", "rejectedByUser", "rejectedByLanguage", "duplicate", "crossSubCopy",
+            "etwsUpgrade", "emptyBody", "fastLane", "queued", "written", "writeFailed",
+            "shed", "alertShown", "notified", "superseded",
+    };
+
+    /** Number of events kept; a power of two. */
+    private static final int SIZE = 1024;
+
+    private static final long[] sEvents = new long[SIZE * 2];
+
+    /** Number of events ever recorded; the next one goes to slot sCount % SIZE. */
+    private static final AtomicLong sCount = new AtomicLong();
+
+    private CellBroadcastTrace() {
+    }
+
+    /** Records an event. */
+    static void event(int stage, int subId, int category, int serialNumber) {
+        int slot = (int) (sCount.getAndIncrement() & (SIZE - 1)) * 2;
+        sEvents[slot] = SystemClock.elapsedRealtimeNanos();
+        sEvents[slot + 1] = ((long) stage << 56) | ((long) (subId & 0xffffff) << 32)
+                | ((long) (category & 0xffff) << 16) | (serialNumber & 0xffff);
+    }
+
+    /** Records an event of a broadcast. */
+    static void event(int stage, CellBroadcastMessage message) {
+        event(stage, message.getSubId(), message.getServiceCategory(),
+                message.getSerialNumber());
+    }
+
+    /** Prints the number of events recorded. */
+    static void dumpSummary(PrintWriter pw) {
+        pw.println("Pipeline trace: events=" + sCount.get() + " (dump with \"trace\" to decode)");
+    }
+
+    /** Decodes and prints the events in the ring, oldest first. */
+    static void dump(PrintWriter pw) {
+        long count = sCount.get();
+        long first = Math.max(0, count - SIZE);
+        long now = SystemClock.elapsedRealtimeNanos();
+        pw.println("Pipeline trace: " + (count - first) + " of " + count + " events");
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i & (SIZE - 1)) * 2;
+            long time = sEvents[slot];
+            long packed = sEvents[slot + 1];
+            int stage = (int) (packed >>> 56);
+            // The sub id is stored as 24 bits; sign extend it back.
+            int subId = ((int) (packed >> 32)) << 8 >> 8;
+            pw.println("  -" + (now - time) / 1000000 + "ms "
+                    + (stage < STAGE_NAMES.length ? STAGE_NAMES[stage] : "stage" + stage)
+                    + " sub=" + subId + " category=" + ((packed >> 16) & 0xffff)
+                    + " serial=0x" + Long.toHexString(packed & 0xffff));
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 
 public class IntRangeManager {
     private final String TAG = "CBIntRangeManager";
+    private static final boolean DBG = CellBroadcastReceiver.DBG;
 
     private ArrayList<IntRange> mIntRange;
 
@@ -38,14 +39,14 @@ public class IntRangeManager {
             return false;
         }
         if (ir.getStartId() > ir.getEndId()) {
-            Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
+            if (DBG) Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
             return false;
         }
         for (int i = mIntRange.size() - 1; i >= 0; i--) {
             IntRange current = mIntRange.get(i);
             if (current.including(ir)) {
                 //ir was aleady included in mIntRange, do nothing & return
-                Log.d(TAG, "mIntRange aleady include " + ir.toString());
+                if (DBG) Log.d(TAG, "mIntRange aleady include " + ir.toString());
                 return true;
             }
         }
@@ -78,9 +79,9 @@ public class IntRangeManager {
         if (ir == null) {
             return;
         }
-        Log.d(TAG, "add " + ir.toString() + " begin...");
+        if (DBG) Log.d(TAG, "add " + ir.toString() + " begin...");
         if (ir.getStartId() > ir.getEndId()) {
-            Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
+            if (DBG) Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
             return;
         }
         if (mIntRange == null) {
@@ -88,14 +89,14 @@ public class IntRangeManager {
         }
         if (mIntRange.size() == 0) {
             mIntRange.add(ir);
-            Log.d(TAG, "mIntRange is null or empty, add " + ir.toString() + " directly");
+            if (DBG) Log.d(TAG, "mIntRange is null or empty, add " + ir.toString() + " directly");
             return;
         }
         for (int i = mIntRange.size() - 1; i >= 0; i--) {
             IntRange current = mIntRange.get(i);
             if (current.including(ir)) {
                 //ir was aleady included in mIntRange, do nothing & return
-                Log.d(TAG, "mIntRange aleady include " + ir.toString() + ", do nothing!");
+                if (DBG) Log.d(TAG, "mIntRange aleady include " + ir.toString() + ", do nothing!");
                 return;
             }
             if (ir.including(current)) {
@@ -104,7 +105,7 @@ public class IntRangeManager {
         }
         if (mIntRange.size() == 0) {
             mIntRange.add(ir);
-            Log.d(TAG, "delete all mIntRange's elements, add " + ir.toString() + " directly");
+            if (DBG) Log.d(TAG, "delete all mIntRange's elements, add " + ir.toString() + " directly");
             return;
         }
         //find the index of ir's startId and endId in mIntRange
@@ -125,22 +126,22 @@ public class IntRangeManager {
                 break;  //finder complete its task
             }
         }
-        Log.d(TAG, "find " + ir.toString() + "\'s position between " + first + " and " + second);
+        if (DBG) Log.d(TAG, "find " + ir.toString() + "\'s position between " + first + " and " + second);
         IntRange fstIR = mIntRange.get(first);
         IntRange sndIR = mIntRange.get(second);
-        Log.d(TAG, "first IntRange: " + fstIR.toString() + ", second IntRange: " + sndIR.toString());
+        if (DBG) Log.d(TAG, "first IntRange: " + fstIR.toString() + ", second IntRange: " + sndIR.toString());
 
         if (ir.getEndId() < fstIR.getStartId() -1) {
             //add before first
             mIntRange.add(0, ir);
-            Log.d(TAG, "add " + ir.toString() + " at the first position.");
+            if (DBG) Log.d(TAG, "add " + ir.toString() + " at the first position.");
             return;
         }
 
         if (ir.getStartId() > sndIR.getEndId() + 1) {
             //add after last
             mIntRange.add(ir);
-            Log.d(TAG, "add " + ir.toString() + " at the last position.");
+            if (DBG) Log.d(TAG, "add " + ir.toString() + " at the last position.");
             return;
         }
 
@@ -167,15 +168,15 @@ public class IntRangeManager {
             } else {
                 mIntRange.add(second, ir);
             }
-            Log.d(TAG, "add " + ir.toString() + " at [" + (rmvFirst ? first : second) + "]");
+            if (DBG) Log.d(TAG, "add " + ir.toString() + " at [" + (rmvFirst ? first : second) + "]");
         } else if (rightJoin && !leftJoin) {
-            Log.d(TAG, ir.toString() + " is only right join with " + fstIR.toString());
+            if (DBG) Log.d(TAG, ir.toString() + " is only right join with " + fstIR.toString());
             fstIR.setEndId(ir.getEndId());
         } else if (!rightJoin && leftJoin) {
-            Log.d(TAG, ir.toString() + " is only left join with " + sndIR.toString());
+            if (DBG) Log.d(TAG, ir.toString() + " is only left join with " + sndIR.toString());
             sndIR.setStartId(ir.getStartId());
         } else {
-            Log.d(TAG, ir.toString() + " is right & left join with " + fstIR.toString() + ", " + sndIR.toString());
+            if (DBG) Log.d(TAG, ir.toString() + " is right & left join with " + fstIR.toString() + ", " + sndIR.toString());
             fstIR.setEndId(sndIR.getEndId());
             mIntRange.remove(sndIR);
         }
@@ -198,13 +199,13 @@ public class IntRangeManager {
         if (ir == null) {
             return;
         }
-        Log.d(TAG, "remove " + ir.toString() + " begin...");
+        if (DBG) Log.d(TAG, "remove " + ir.toString() + " begin...");
         if (ir.getStartId() > ir.getEndId()) {
-            Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
+            if (DBG) Log.d(TAG,  ir.toString() + " is invalid, mStartId must <= mEndId");
             return;
         }
         if (mIntRange == null || mIntRange.size() == 0) {
-            Log.d(TAG, "mIntRange is null or empty, do nothing!");
+            if (DBG) Log.d(TAG, "mIntRange is null or empty, do nothing!");
             return;
         }
 
@@ -212,12 +213,12 @@ public class IntRangeManager {
             IntRange current = mIntRange.get(i);
             if (ir.equals(current)) {
                 mIntRange.remove(current);
-                Log.d(TAG, "remove " + ir.toString() + " directly.");
+                if (DBG) Log.d(TAG, "remove " + ir.toString() + " directly.");
                 return;
             }
             if (ir.including(current)) {
                 mIntRange.remove(current);
-                Log.d(TAG, "remove " + current.toString() + " directly.");
+                if (DBG) Log.d(TAG, "remove " + current.toString() + " directly.");
                 i -= 1;
                 continue;
             }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.fail;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.Telephony;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.telephony.SmsCbCmasInfo;
+import android.telephony.SmsCbLocation;
+import android.telephony.SmsCbMessage;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.gsm.SmsCbConstants;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures time to first audio of presidential alerts, from the receive time that
+ * {@link CellBroadcastReceiver} would have stamped to the first sound of
+ * {@link CellBroadcastAlertAudio}, with the display-first fast lane on and off. Alerts are
+ * started one at a time in {@link CellBroadcastAlertService}, as the receiver does, and the
+ * next one is sent once the previous one has sounded. Run it on a device with the screen on.
+ * The stored alerts are deleted afterwards. Results go to logcat:
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.android.cellbroadcastreceiver.CellBroadcastAlertLatencyBenchmark \
+ *     com.android.cellbroadcastreceiver.tests/android.support.test.runner.AndroidJUnitRunner
+ * adb logcat -s AlertLatencyBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CellBroadcastAlertLatencyBenchmark {
+    private static final String TAG = "AlertLatencyBenchmark";
+
+    private static final int ALERTS = 20;
+
+    private static final long FIRST_PLAY_TIMEOUT_MS = 10000;
+
+    /** Time allowed for the ingest writer to store the alerts before they are deleted. */
+    private static final long WRITE_TIMEOUT_MS = 10000;
+
+    private static final int PRIORITY = CellBroadcastIngestWriter.PRIORITY_PRESIDENTIAL;
+
+    /** Body prefix of every alert sent, to find the rows to delete. */
+    private static final String BODY_PREFIX = "Latency benchmark alert ";
+
+    /** Number of alerts sent, each of which is stored. */
+    private static int sSent;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        CellBroadcastAlertService.sDisplayFirstOverride = null;
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.stopService(new Intent(context, CellBroadcastAlertAudio.class));
+        deleteBenchmarkRows(context);
+    }
+
+    /** Returns the row IDs of the alerts this benchmark stored. */
+    private static ArrayList<Long> queryBenchmarkRows(ContentResolver resolver) {
+        ArrayList<Long> rowIds = new ArrayList<Long>();
+        Cursor cursor = resolver.query(CellBroadcastContentProvider.CONTENT_URI,
+                new String[] {Telephony.CellBroadcasts._ID},
+                Telephony.CellBroadcasts.MESSAGE_BODY + " LIKE ?",
+                new String[] {BODY_PREFIX + "%"}, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    rowIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return rowIds;
+    }
+
+    /**
+     * Deletes the alerts this benchmark stored, once the ingest writer has written them all,
+     * so that they don't stay in the broadcast list of the device.
+     */
+    private static void deleteBenchmarkRows(Context context) throws InterruptedException {
+        ContentResolver resolver = context.getContentResolver();
+        long deadline = SystemClock.elapsedRealtime() + WRITE_TIMEOUT_MS;
+        ArrayList<Long> rowIds = queryBenchmarkRows(resolver);
+        while (rowIds.size() < sSent && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(50);
+            rowIds = queryBenchmarkRows(resolver);
+        }
+        ContentProviderClient client = resolver.acquireContentProviderClient(
+                CellBroadcastContentProvider.CB_AUTHORITY);
+        try {
+            CellBroadcastContentProvider provider =
+                    (CellBroadcastContentProvider) client.getLocalContentProvider();
+            for (long rowId : rowIds) {
+                provider.deleteBroadcast(rowId);
+            }
+        } finally {
+            client.release();
+        }
+        resolver.notifyChange(CellBroadcastContentProvider.CONTENT_URI, null, false);
+        sSent = 0;
+    }
+
+    private static SmsCbMessage createPresidentialAlert(int serialNumber) {
+        SmsCbCmasInfo cmasInfo = new SmsCbCmasInfo(
+                SmsCbCmasInfo.CMAS_CLASS_PRESIDENTIAL_LEVEL_ALERT,
+                SmsCbCmasInfo.CMAS_CATEGORY_UNKNOWN, SmsCbCmasInfo.CMAS_RESPONSE_TYPE_UNKNOWN,
+                SmsCbCmasInfo.CMAS_SEVERITY_UNKNOWN, SmsCbCmasInfo.CMAS_URGENCY_UNKNOWN,
+                SmsCbCmasInfo.CMAS_CERTAINTY_UNKNOWN);
+        return new SmsCbMessage(SmsCbMessage.MESSAGE_FORMAT_3GPP,
+                SmsCbMessage.GEOGRAPHICAL_SCOPE_PLMN_WIDE, serialNumber,
+                new SmsCbLocation("123456"),
+                SmsCbConstants.MESSAGE_ID_CMAS_ALERT_PRESIDENTIAL_LEVEL, "en",
+                BODY_PREFIX + serialNumber,
+                SmsCbMessage.MESSAGE_PRIORITY_EMERGENCY, null, cmasInfo);
+    }
+
+    /** Sends alerts one by one and logs the time to first audio and to the database. */
+    private static void measure(boolean displayFirst) throws InterruptedException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        CellBroadcastAlertService.sDisplayFirstOverride = displayFirst;
+        CellBroadcastLatency.reset();
+        // Serial numbers from the clock, so that alerts of earlier runs are not duplicates.
+        int firstSerial = (int) (SystemClock.elapsedRealtime() / 1000);
+        for (int i = 0; i < ALERTS; i++) {
+            Intent intent = new Intent(Telephony.Sms.Intents.SMS_EMERGENCY_CB_RECEIVED_ACTION);
+            intent.setClass(context, CellBroadcastAlertService.class);
+            intent.putExtra("message", createPresidentialAlert((firstSerial + i) & 0xffff));
+            intent.putExtra(PhoneConstants.SUBSCRIPTION_KEY,
+                    SubscriptionManager.getDefaultSubscriptionId());
+            intent.putExtra(CellBroadcastLatency.RECEIVE_TIME_EXTRA,
+                    SystemClock.elapsedRealtimeNanos());
+            context.startService(intent);
+            sSent++;
+
+            long deadline = SystemClock.elapsedRealtime() + FIRST_PLAY_TIMEOUT_MS;
+            while (CellBroadcastLatency.getCount(CellBroadcastLatency.FIRST_PLAY, PRIORITY)
+                    <= i) {
+                if (SystemClock.elapsedRealtime() > deadline) {
+                    fail("alert " + i + " did not sound within " + FIRST_PLAY_TIMEOUT_MS + "ms");
+                }
+                Thread.sleep(5);
+            }
+            context.stopService(new Intent(context, CellBroadcastAlertAudio.class));
+            Thread.sleep(200);
+        }
+        Log.i(TAG, (displayFirst ? "display first" : "write first") + ", " + ALERTS
+                + " alerts: firstPlay " + format(CellBroadcastLatency.FIRST_PLAY)
+                + ", dbCommit " + format(CellBroadcastLatency.DB_COMMIT));
+    }
+
+    /** Formats p50/p95/max of a stage in milliseconds. */
+    private static String format(int stage) {
+        return String.format("p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+                CellBroadcastLatency.getPercentile(stage, PRIORITY, 500) / 1000.0,
+                CellBroadcastLatency.getPercentile(stage, PRIORITY, 950) / 1000.0,
+                CellBroadcastLatency.getPercentile(stage, PRIORITY, 1000) / 1000.0);
+    }
+
+    @Test
+    public void testTimeToFirstAudio() throws InterruptedException {
+        measure(false);
+        measure(true);
+    }
+}
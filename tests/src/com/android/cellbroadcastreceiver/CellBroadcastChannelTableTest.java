@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.CHILE;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.DUBAI;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.MCC_UAE;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.MOVISTAR;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.NEWZEALAND;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.PERU;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.POP_TITLE;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.SIM_CHILE;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.SIM_PERU;
+import static com.android.cellbroadcastreceiver.CellBroadcastChannelTable.TAIWAN;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks {@link CellBroadcastChannelTable} against copies of the message identifier comparisons
+ * it replaced, for every combination of conditions and every message identifier.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CellBroadcastChannelTableTest {
+
+    /** One past the largest combination of condition bits. */
+    private static final int CONDITIONS_END = POP_TITLE << 1;
+
+    private static boolean is(int conditions, int condition) {
+        return (conditions & condition) != 0;
+    }
+
+    /** The non-emergency part of the full-screen decision of the alert service. */
+    private static boolean fullScreen(int c, int messageId) {
+        return (is(c, CHILE) && messageId == 919)
+                || ((messageId == 919 || messageId == 50
+                        || (messageId >= 4396 && messageId <= 4399))
+                        && (is(c, PERU) || is(c, DUBAI)))
+                || ((messageId >= 4370 && messageId <= 4394) && (is(c, DUBAI) || is(c, TAIWAN)));
+    }
+
+    /** The non-emergency part of the keep screen on check of the alert dialog. */
+    private static boolean keepScreenOn(int c, int messageId) {
+        return messageId == 919 || (messageId >= 4396 && messageId <= 4399);
+    }
+
+    /** The non-emergency part of the icon animation check of the alert dialog. */
+    private static boolean animateIcon(int c, int messageId) {
+        return (is(c, SIM_PERU) && messageId == 50)
+                || (messageId == 919 && (is(c, SIM_CHILE) || is(c, SIM_PERU)))
+                || (messageId >= 4396 && messageId <= 4399);
+    }
+
+    /** The non-ETWS part of the vibration check of the alert notification. */
+    private static boolean forceVibrate(int c, int messageId) {
+        return (messageId == 4370 || messageId == 919 || (messageId >= 4396 && messageId <= 4399)
+                || (messageId >= 4380 && messageId <= 4383)) && is(c, MOVISTAR);
+    }
+
+    /** The SMS tone check of the alert audio service. */
+    private static boolean infoTone(int c, int messageId) {
+        return is(c, MCC_UAE) && (messageId == 4380 || messageId == 4393 || messageId == 4396
+                || messageId == 4397 || messageId == 4398 || messageId == 4399);
+    }
+
+    /** The region titles of CellBroadcastResources, or 0 where it fell through. */
+    private static int title(int c, int messageId) {
+        if (is(c, POP_TITLE)) {
+            if (is(c, DUBAI)) {
+                boolean pwsPrimaryLanguage = messageId >= 0x1113 && messageId <= 0x111A;
+                boolean pwsSecondLanguage = messageId >= 0x1120 && messageId <= 0x1127;
+                if (messageId == 0x1112) {
+                    return R.string.cmas_presidential_level_alert_ar;
+                } else if (messageId == 0x111F) {
+                    return R.string.cmas_presidential_level_alert_en;
+                }
+                if (pwsPrimaryLanguage) {
+                    return R.string.cmas_extreme_alert_ar;
+                } else if (pwsSecondLanguage) {
+                    return R.string.cmas_extreme_alert_en;
+                }
+                if (messageId == 0x111B) {
+                    return R.string.cmas_amber_alert_ar;
+                } else if (messageId == 0x1128) {
+                    return R.string.cmas_amber_alert_en;
+                }
+                if (messageId == 0x111C || messageId == 0x112E) {
+                    return R.string.cmas_required_monthly_test_ar;
+                } else if (messageId == 0x1129 || messageId == 0x112F) {
+                    return R.string.cmas_required_monthly_test_en;
+                }
+                if (messageId == 0x111D) {
+                    return R.string.cmas_exercise_alert_ar;
+                } else if (messageId == 0x112A) {
+                    return R.string.cmas_exercise_alert_en;
+                }
+                if (messageId == 0x112C) {
+                    return R.string.cmas_public_safety_alert_ar;
+                } else if (messageId == 0x112D) {
+                    return R.string.cmas_public_safety_alert_en;
+                }
+            }
+            if (is(c, CHILE)) {
+                if (messageId == 4370 || messageId == 919) {
+                    return R.string.cmas_presidential_level_alert_4370_919_title;
+                }
+            }
+            if (is(c, PERU)) {
+                if (messageId == 50 || messageId == 919 || messageId == 4370 || messageId == 4383
+                        || (messageId >= 4396 && messageId <= 4399)) {
+                    return R.string.cmas_presidential_level_alert_4370_919_title;
+                }
+                if (messageId == 4382) {
+                    return R.string.cmas_information_alert_4382_title;
+                }
+                if (messageId == 4380 || messageId == 519) {
+                    return R.string.cmas_test_alert_4380_519_title;
+                }
+                if (messageId == 4381) {
+                    return R.string.cmas_test_alert_4381_title;
+                }
+            }
+            if (is(c, NEWZEALAND)) {
+                if (messageId == 4370) {
+                    return R.string.cmas_extreme_alert1;
+                } else if (messageId == 4371 || messageId == 4372) {
+                    return R.string.nz_control_4371_4372_alert_title;
+                } else if (messageId >= 4373 && messageId <= 4378) {
+                    return R.string.nz_control_4373_4378_alert_title;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static int flags(int c, int messageId) {
+        int flags = 0;
+        if (fullScreen(c, messageId)) flags |= CellBroadcastChannelTable.FULL_SCREEN;
+        if (keepScreenOn(c, messageId)) flags |= CellBroadcastChannelTable.KEEP_SCREEN_ON;
+        if (animateIcon(c, messageId)) flags |= CellBroadcastChannelTable.ANIMATE_ICON;
+        if (forceVibrate(c, messageId)) flags |= CellBroadcastChannelTable.FORCE_VIBRATE;
+        if (infoTone(c, messageId)) flags |= CellBroadcastChannelTable.INFO_TONE;
+        return flags;
+    }
+
+    @Test
+    public void testMatchesReplacedBranches() {
+        for (int conditions = 0; conditions < CONDITIONS_END; conditions++) {
+            CellBroadcastChannelTable table = new CellBroadcastChannelTable(conditions);
+            for (int messageId = 0; messageId <= 0xffff; messageId++) {
+                int flags = table.getFlags(messageId);
+                int title = table.getTitle(messageId);
+                int expectedFlags = flags(conditions, messageId);
+                int expectedTitle = title(conditions, messageId);
+                if (flags != expectedFlags || title != expectedTitle) {
+                    assertEquals("flags of " + messageId + " under " + conditions,
+                            expectedFlags, flags);
+                    assertEquals("title of " + messageId + " under " + conditions,
+                            expectedTitle, title);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfRangeIdsHaveNoFlagsOrTitle() {
+        CellBroadcastChannelTable table = new CellBroadcastChannelTable(CONDITIONS_END - 1);
+        assertEquals(0, table.getFlags(-1));
+        assertEquals(0, table.getFlags(0x10000 + 919));
+        assertEquals(0, table.getTitle(0x10000 + 4370));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Compares the cost of recording a message ID in the heap-only and the file-backed
+ * {@link CellBroadcastDuplicateTable} with the {@code HashSet} and {@code ArrayList} it
+ * replaced, and measures how long reopening a full file takes. Results go to logcat:
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.android.cellbroadcastreceiver.CellBroadcastDuplicateTableBenchmark \
+ *     com.android.cellbroadcastreceiver.tests/android.support.test.runner.AndroidJUnitRunner
+ * adb logcat -s DuplicateTableBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CellBroadcastDuplicateTableBenchmark {
+    private static final String TAG = "DuplicateTableBenchmark";
+
+    /** The capacity the alert service uses. */
+    private static final int CAPACITY = 65535;
+
+    /** Distinct message IDs; about a third of the adds are duplicates. */
+    private static final int ID_SPACE = 3 * CAPACITY;
+
+    private static final int ADDS = 4 * CAPACITY;
+
+    private static final int RUNS = 5;
+
+    /** The key the replaced HashSet held, with the same hashCode and equals. */
+    private static final class MessageId {
+        private final int mServiceCategory;
+        private final int mSerialNumber;
+        private final long mLocation;
+        private final long mBody;
+        private final boolean mIsEtwsPrimary;
+
+        MessageId(int serviceCategory, int serialNumber, long location, long body,
+                boolean isEtwsPrimary) {
+            mServiceCategory = serviceCategory;
+            mSerialNumber = serialNumber;
+            mLocation = location;
+            mBody = body;
+            mIsEtwsPrimary = isEtwsPrimary;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(mLocation) + 5 * mServiceCategory + 7 * mSerialNumber
+                    + 13 * Long.hashCode(mBody) + 17 * Boolean.hashCode(mIsEtwsPrimary);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (o instanceof MessageId) {
+                MessageId other = (MessageId) o;
+                return mServiceCategory == other.mServiceCategory
+                        && mSerialNumber == other.mSerialNumber
+                        && mLocation == other.mLocation
+                        && mBody == other.mBody
+                        && mIsEtwsPrimary == other.mIsEtwsPrimary;
+            }
+            return false;
+        }
+    }
+
+    private final int[] mCategory = new int[ID_SPACE];
+    private final int[] mSerial = new int[ID_SPACE];
+    private final long[] mKey = new long[ID_SPACE];
+    private final long[] mLocation = new long[ID_SPACE];
+    private final long[] mBody = new long[ID_SPACE];
+    private final int[] mStream = new int[ADDS];
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < ID_SPACE; i++) {
+            mCategory[i] = 4370 + random.nextInt(30);
+            mSerial[i] = random.nextInt(0x10000);
+            mKey[i] = CellBroadcastDuplicateTable.packKey(mCategory[i], mSerial[i],
+                    random.nextInt(0x10000), false);
+            mLocation[i] = random.nextLong();
+            mBody[i] = random.nextLong();
+        }
+        for (int i = 0; i < ADDS; i++) {
+            mStream[i] = random.nextInt(ID_SPACE);
+        }
+        mFile = File.createTempFile("duplicates", null,
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /** Replays the stream the way the alert service did before the table; returns accepts. */
+    private int runHashSet() {
+        HashSet<MessageId> set = new HashSet<MessageId>(8);
+        ArrayList<MessageId> list = new ArrayList<MessageId>(8);
+        int listIndex = 0;
+        int accepted = 0;
+        for (int i = 0; i < ADDS; i++) {
+            int id = mStream[i];
+            MessageId messageId = new MessageId(mCategory[id], mSerial[id], mLocation[id],
+                    mBody[id], false);
+            if (list.size() < CAPACITY) {
+                list.add(messageId);
+            } else {
+                set.remove(list.set(listIndex, messageId));
+                if (++listIndex >= CAPACITY) {
+                    listIndex = 0;
+                }
+            }
+            if (set.add(messageId)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /** Replays the stream into a table; returns accepts. */
+    private int runTable(CellBroadcastDuplicateTable table, long now) {
+        int accepted = 0;
+        for (int i = 0; i < ADDS; i++) {
+            int id = mStream[i];
+            if (table.add(mKey[id], mLocation[id], mBody[id],
+                    CellBroadcastDuplicatePolicy.NEVER, now)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static String nsPerAdd(long nanos) {
+        return String.format("%.1f ns/add", (double) nanos / ADDS);
+    }
+
+    @Test
+    public void testAddCost() {
+        long now = System.currentTimeMillis();
+        long bestHashSet = Long.MAX_VALUE;
+        long bestHeap = Long.MAX_VALUE;
+        long bestMapped = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            int expected = runHashSet();
+            bestHashSet = Math.min(bestHashSet, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            assertEquals(expected, runTable(new CellBroadcastDuplicateTable(CAPACITY), now));
+            bestHeap = Math.min(bestHeap, System.nanoTime() - start);
+
+            mFile.delete();
+            CellBroadcastDuplicateTable mapped = CellBroadcastDuplicateTable.open(mFile, CAPACITY);
+            start = System.nanoTime();
+            assertEquals(expected, runTable(mapped, now));
+            bestMapped = Math.min(bestMapped, System.nanoTime() - start);
+        }
+        Log.i(TAG, "add, best of " + RUNS + " runs of " + ADDS + ": HashSet "
+                + nsPerAdd(bestHashSet) + ", heap table " + nsPerAdd(bestHeap)
+                + ", mapped table " + nsPerAdd(bestMapped));
+    }
+
+    @Test
+    public void testReopenCost() {
+        long now = System.currentTimeMillis();
+        CellBroadcastDuplicateTable table = CellBroadcastDuplicateTable.open(mFile, CAPACITY);
+        runTable(table, now);
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            CellBroadcastDuplicateTable reopened =
+                    CellBroadcastDuplicateTable.open(mFile, CAPACITY);
+            best = Math.min(best, System.nanoTime() - start);
+
+            assertEquals(table.size(), reopened.size());
+            for (int id = 0; id < ID_SPACE; id++) {
+                assertEquals(table.contains(mKey[id], mLocation[id], mBody[id]),
+                        reopened.contains(mKey[id], mLocation[id], mBody[id]));
+            }
+        }
+        Log.i(TAG, "reopen of " + table.size() + " IDs, best of " + RUNS + " runs: "
+                + String.format("%.2f ms", best / 1e6));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays random message ID streams through {@link CellBroadcastDuplicateTable} and through a
+ * model of the {@code HashSet} plus {@code ArrayList} it replaced, and checks that every
+ * accept/reject decision is the same. Also checks that a mapped table survives a reopen, and
+ * that a corrupt or truncated file is discarded rather than loaded.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class CellBroadcastDuplicateTableTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    /** Offsets of the magic and of the header check in the file header. */
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CHECK_OFFSET = 20;
+
+    private static final int FILE_CAPACITY = 16;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("duplicates", null,
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * The replaced implementation: a set of IDs, plus a list of every received ID that evicts
+     * the oldest one from the set once the list is full. Expiry drops IDs from the set only.
+     */
+    private static final class HashSetModel {
+        private final int mCapacity;
+        private final HashMap<List<Long>, Long> mSet = new HashMap<List<Long>, Long>();
+        private final ArrayList<List<Long>> mList = new ArrayList<List<Long>>();
+        private int mListIndex;
+
+        HashSetModel(int capacity) {
+            mCapacity = capacity;
+        }
+
+        boolean add(List<Long> id, long expiryTime, long now) {
+            Iterator<Map.Entry<List<Long>, Long>> it = mSet.entrySet().iterator();
+            while (it.hasNext()) {
+                long expiry = it.next().getValue();
+                if (expiry != CellBroadcastDuplicatePolicy.NEVER
+                        && tickOf(now) >= tickOf(expiry + MINUTE - 1)) {
+                    it.remove();
+                }
+            }
+            if (mList.size() < mCapacity) {
+                mList.add(id);
+            } else {
+                mSet.remove(mList.set(mListIndex, id));
+                if (++mListIndex >= mCapacity) {
+                    mListIndex = 0;
+                }
+            }
+            if (mSet.containsKey(id)) {
+                return false;
+            }
+            mSet.put(id, expiryTime);
+            return true;
+        }
+
+        private static long tickOf(long time) {
+            return time / MINUTE;
+        }
+    }
+
+    /** Adds {@code count} random IDs from a small ID space to both and compares them. */
+    private static void replay(int capacity, int count, long seed, boolean windows) {
+        CellBroadcastDuplicateTable table = new CellBroadcastDuplicateTable(capacity);
+        HashSetModel model = new HashSetModel(capacity);
+        Random random = new Random(seed);
+        long now = 1500000000000L;
+        for (int i = 0; i < count; i++) {
+            long key = CellBroadcastDuplicateTable.packKey(4370 + random.nextInt(4),
+                    random.nextInt(8), random.nextBoolean() ? -1 : 1, random.nextBoolean());
+            long location = random.nextInt(3);
+            long body = random.nextInt(3) * 0x9e3779b97f4a7c15L;
+            long expiryTime = CellBroadcastDuplicatePolicy.NEVER;
+            if (windows) {
+                now += random.nextInt((int) MINUTE);
+                if (random.nextBoolean()) {
+                    expiryTime = now + random.nextInt(30) * MINUTE;
+                }
+            }
+            List<Long> id = Arrays.asList(key, location, body);
+            assertEquals("add " + i + " of " + id, model.add(id, expiryTime, now),
+                    table.add(key, location, body, expiryTime, now));
+        }
+        assertEquals(Math.min(capacity, count), table.size());
+    }
+
+    @Test
+    public void testCountBasedMatchesHashSet() {
+        replay(64, 50000, 1, false);
+    }
+
+    @Test
+    public void testCountBasedMatchesHashSetAtEdgeCapacities() {
+        replay(1, 10000, 2, false);
+        replay(7, 10000, 3, false);
+        replay(1000, 10000, 4, false);
+    }
+
+    @Test
+    public void testExpiryMatchesHashSetWithExpiry() {
+        replay(64, 50000, 5, true);
+        replay(1000, 20000, 6, true);
+    }
+
+    @Test
+    public void testExpiredIdIsAcceptedAgain() {
+        CellBroadcastDuplicateTable table = new CellBroadcastDuplicateTable(16);
+        long key = CellBroadcastDuplicateTable.packKey(4370, 0x1234, 1, false);
+        long now = 1500000000000L;
+        assertTrue(table.add(key, 0, 0, now + 10 * MINUTE, now));
+        assertFalse(table.add(key, 0, 0, now + 20 * MINUTE, now + 9 * MINUTE));
+        assertTrue(table.add(key, 0, 0, CellBroadcastDuplicatePolicy.NEVER, now + 11 * MINUTE));
+        assertFalse(table.add(key, 0, 0, CellBroadcastDuplicatePolicy.NEVER, now + 365 * 24 * 60
+                * MINUTE));
+    }
+
+    private static long fileKey(int serial) {
+        return CellBroadcastDuplicateTable.packKey(4370, serial, 1, false);
+    }
+
+    /** Opens the table file and adds serials 0 to {@code count - 1}. */
+    private CellBroadcastDuplicateTable fillFile(int count) {
+        CellBroadcastDuplicateTable table =
+                CellBroadcastDuplicateTable.open(mFile, FILE_CAPACITY);
+        for (int i = 0; i < count; i++) {
+            assertTrue(table.add(fileKey(i), 0, 0, CellBroadcastDuplicatePolicy.NEVER,
+                    System.currentTimeMillis()));
+        }
+        return table;
+    }
+
+    /** Flips every bit of the int at an offset of the table file. */
+    private void corruptInt(int offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.seek(offset);
+            int value = raf.readInt();
+            raf.seek(offset);
+            raf.writeInt(~value);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /** Reopens the table file and checks that it starts empty and works, across a reopen. */
+    private void assertReopensEmpty() {
+        CellBroadcastDuplicateTable table =
+                CellBroadcastDuplicateTable.open(mFile, FILE_CAPACITY);
+        assertEquals(0, table.size());
+        assertFalse(table.contains(fileKey(0), 0, 0));
+        assertTrue(table.add(fileKey(0), 0, 0, CellBroadcastDuplicatePolicy.NEVER,
+                System.currentTimeMillis()));
+
+        table = CellBroadcastDuplicateTable.open(mFile, FILE_CAPACITY);
+        assertEquals(1, table.size());
+        assertTrue(table.contains(fileKey(0), 0, 0));
+        assertFalse(table.contains(fileKey(1), 0, 0));
+    }
+
+    @Test
+    public void testMappedTableSurvivesReopen() {
+        fillFile(5);
+        CellBroadcastDuplicateTable table =
+                CellBroadcastDuplicateTable.open(mFile, FILE_CAPACITY);
+        assertEquals(5, table.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(table.contains(fileKey(i), 0, 0));
+        }
+        assertFalse(table.add(fileKey(4), 0, 0, CellBroadcastDuplicatePolicy.NEVER,
+                System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testBadMagicResetsTable() throws IOException {
+        fillFile(5);
+        corruptInt(MAGIC_OFFSET);
+        assertReopensEmpty();
+    }
+
+    @Test
+    public void testWrongHeaderCheckResetsTable() throws IOException {
+        fillFile(5);
+        corruptInt(CHECK_OFFSET);
+        assertReopensEmpty();
+    }
+
+    @Test
+    public void testOtherCapacityResetsTable() {
+        fillFile(5);
+        CellBroadcastDuplicateTable table =
+                CellBroadcastDuplicateTable.open(mFile, FILE_CAPACITY * 2);
+        assertEquals(0, table.size());
+        assertFalse(table.contains(fileKey(0), 0, 0));
+    }
+
+    @Test
+    public void testTruncatedRingResetsTable() throws IOException {
+        // The header is intact but the last ring columns are gone.
+        fillFile(5);
+        truncate(mFile.length() / 2);
+        assertReopensEmpty();
+    }
+
+    @Test
+    public void testTruncatedHeaderResetsTable() throws IOException {
+        fillFile(5);
+        truncate(CHECK_OFFSET);
+        assertReopensEmpty();
+    }
+
+    @Test
+    public void testPackKeyKeepsMissingLacDistinct() {
+        assertNotEquals(CellBroadcastDuplicateTable.packKey(4370, 1, -1, false),
+                CellBroadcastDuplicateTable.packKey(4370, 1, 0xffff, false));
+        assertNotEquals(CellBroadcastDuplicateTable.packKey(4370, 1, 1, true),
+                CellBroadcastDuplicateTable.packKey(4370, 1, 1, false));
+    }
+
+    @Test
+    public void testPlmnCodeIsExactForNumericPlmns() {
+        assertEquals(0, CellBroadcastDuplicateTable.plmnCode(null));
+        assertNotEquals(CellBroadcastDuplicateTable.plmnCode("31026"),
+                CellBroadcastDuplicateTable.plmnCode("310260"));
+        assertNotEquals(CellBroadcastDuplicateTable.plmnCode("001"),
+                CellBroadcastDuplicateTable.plmnCode("01"));
+        assertNotEquals(CellBroadcastDuplicateTable.plmnCode(""),
+                CellBroadcastDuplicateTable.plmnCode(null));
+    }
+}
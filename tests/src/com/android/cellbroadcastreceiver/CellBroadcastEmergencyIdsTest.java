@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for {@link CellBroadcastEmergencyIds}: parsing of single identifiers and ranges,
+ * skipping of bad entries, and merging of the ranges passed to the modem.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CellBroadcastEmergencyIdsTest {
+
+    /** Returns the ranges of a set as "start-end" strings. */
+    private static ArrayList<String> ranges(CellBroadcastEmergencyIds ids) {
+        final ArrayList<String> ranges = new ArrayList<String>();
+        ids.forEachRange(new CellBroadcastEmergencyIds.RangeCallback() {
+            @Override
+            public void onRange(int startId, int endId) {
+                ranges.add(startId + "-" + endId);
+            }
+        });
+        return ranges;
+    }
+
+    @Test
+    public void testEmptyHasNoIds() {
+        CellBroadcastEmergencyIds ids = new CellBroadcastEmergencyIds("");
+        assertFalse(ids.contains(0));
+        assertEquals(0, ranges(ids).size());
+    }
+
+    @Test
+    public void testSingleIds() {
+        CellBroadcastEmergencyIds ids = new CellBroadcastEmergencyIds("4352, 0x1110");
+        assertTrue(ids.contains(4352));
+        assertTrue(ids.contains(0x1110));
+        assertFalse(ids.contains(4353));
+        assertFalse(ids.contains(-1));
+        assertFalse(ids.contains(0x10000));
+    }
+
+    @Test
+    public void testRanges() {
+        CellBroadcastEmergencyIds ids = new CellBroadcastEmergencyIds("0x1100-0x1104 ,0-1");
+        assertTrue(ids.contains(0));
+        assertTrue(ids.contains(1));
+        assertFalse(ids.contains(2));
+        assertFalse(ids.contains(0x10ff));
+        assertTrue(ids.contains(0x1100));
+        assertTrue(ids.contains(0x1104));
+        assertFalse(ids.contains(0x1105));
+    }
+
+    @Test
+    public void testBadEntriesAreSkipped() {
+        // Not a number, reversed, out of range and negative; the entries after them count.
+        CellBroadcastEmergencyIds ids = new CellBroadcastEmergencyIds(
+                "abc,4400,4410-4405,4420-0x10000,-5,4430");
+        assertTrue(ids.contains(4400));
+        assertTrue(ids.contains(4430));
+        assertFalse(ids.contains(4405));
+        assertFalse(ids.contains(4420));
+        assertEquals(2, ranges(ids).size());
+    }
+
+    @Test
+    public void testRangesAreMerged() {
+        // Overlapping and adjacent entries become one range, in increasing order.
+        CellBroadcastEmergencyIds ids = new CellBroadcastEmergencyIds(
+                "4400,4373-4380,4370-4375,4381,0xFFFF");
+        ArrayList<String> ranges = ranges(ids);
+        assertEquals(3, ranges.size());
+        assertEquals("4370-4381", ranges.get(0));
+        assertEquals("4400-4400", ranges.get(1));
+        assertEquals("65535-65535", ranges.get(2));
+    }
+}
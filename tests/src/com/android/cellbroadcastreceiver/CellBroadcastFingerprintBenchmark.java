@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares {@link CellBroadcastFingerprint} with the {@link String#hashCode} it replaced:
+ * collisions over distinct synthetic bodies, and the cost of hashing a body that has not been
+ * hashed before, as every newly received broadcast is. Results go to logcat:
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.android.cellbroadcastreceiver.CellBroadcastFingerprintBenchmark \
+ *     com.android.cellbroadcastreceiver.tests/android.support.test.runner.AndroidJUnitRunner
+ * adb logcat -s FingerprintBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CellBroadcastFingerprintBenchmark {
+    private static final String TAG = "FingerprintBenchmark";
+
+    /** Distinct bodies hashed for the collision count. */
+    private static final int COLLISION_BODIES = 2000000;
+
+    /** Bodies hashed per timing run. */
+    private static final int TIMED_BODIES = 10000;
+
+    private static final int RUNS = 20;
+
+    private static final String[] WORDS = {
+            "Emergency", "Alert", "Tsunami", "warning", "for", "coastal", "areas", "evacuate",
+            "immediately", "to", "higher", "ground", "Flood", "Test", "Presidential", "AMBER",
+            "child", "abduction", "vehicle", "plate", "Extreme", "weather", "until", "PM",
+    };
+
+    /** Returns a distinct body: the index, then random words up to the length. */
+    private static String body(int index, Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        sb.append(index).append(' ');
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    private static int countCollisions(int[] hashes) {
+        Arrays.sort(hashes);
+        int collisions = 0;
+        for (int i = 1; i < hashes.length; i++) {
+            if (hashes[i] == hashes[i - 1]) {
+                collisions++;
+            }
+        }
+        return collisions;
+    }
+
+    private static int countCollisions(long[] hashes) {
+        Arrays.sort(hashes);
+        int collisions = 0;
+        for (int i = 1; i < hashes.length; i++) {
+            if (hashes[i] == hashes[i - 1]) {
+                collisions++;
+            }
+        }
+        return collisions;
+    }
+
+    @Test
+    public void testCollisions() {
+        Random random = new Random(1);
+        int[] hashCodes = new int[COLLISION_BODIES];
+        long[] fingerprints = new long[COLLISION_BODIES];
+        for (int i = 0; i < COLLISION_BODIES; i++) {
+            String body = body(i, random, 40 + random.nextInt(100));
+            hashCodes[i] = body.hashCode();
+            fingerprints[i] = CellBroadcastFingerprint.of(body);
+        }
+        int hashCodeCollisions = countCollisions(hashCodes);
+        int fingerprintCollisions = countCollisions(fingerprints);
+        Log.i(TAG, COLLISION_BODIES + " distinct bodies: String.hashCode " + hashCodeCollisions
+                + " collisions, fingerprint " + fingerprintCollisions + " collisions");
+        // About 2^-23 expected at this count; anything else is a broken mix.
+        assertEquals(0, fingerprintCollisions);
+    }
+
+    /** Returns the best time per body of hashing fresh copies, with hashCode or fingerprint. */
+    private static double timeBodies(int length, boolean fingerprint) {
+        Random random = new Random(length);
+        String[] bodies = new String[TIMED_BODIES];
+        for (int i = 0; i < TIMED_BODIES; i++) {
+            bodies[i] = body(i, random, length);
+        }
+        long best = Long.MAX_VALUE;
+        long sink = 0;
+        for (int run = 0; run < RUNS; run++) {
+            // Copies, so that String.hashCode can't return the hash cached by the last run.
+            String[] copies = new String[TIMED_BODIES];
+            for (int i = 0; i < TIMED_BODIES; i++) {
+                copies[i] = new String(bodies[i].toCharArray());
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMED_BODIES; i++) {
+                sink += fingerprint ? CellBroadcastFingerprint.of(copies[i])
+                        : copies[i].hashCode();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) {
+            Log.i(TAG, "sink");
+        }
+        return (double) best / TIMED_BODIES;
+    }
+
+    @Test
+    public void testThroughput() {
+        // A single GSM page, and the longest body of fifteen pages.
+        for (int length : new int[] {93, 1395}) {
+            Log.i(TAG, String.format("%d chars, best of %d runs: String.hashCode %.1f ns,"
+                    + " fingerprint %.1f ns per body", length, RUNS,
+                    timeBodies(length, false), timeBodies(length, true)));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.telephony.CellBroadcastMessage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for {@link CellBroadcastFingerprint}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CellBroadcastFingerprintTest {
+
+    @Test
+    public void testNullIsZero() {
+        assertEquals(0, CellBroadcastFingerprint.of((String) null));
+    }
+
+    @Test
+    public void testEqualBodiesHaveEqualFingerprints() {
+        String body = "Tsunami warning for coastal areas";
+        assertEquals(CellBroadcastFingerprint.of(body),
+                CellBroadcastFingerprint.of(new String(body.toCharArray())));
+    }
+
+    @Test
+    public void testEveryTailLengthIsDistinct() {
+        // Bodies of 0 to 8 NUL chars differ only in length, across every tail length.
+        HashSet<Long> fingerprints = new HashSet<Long>();
+        StringBuilder body = new StringBuilder();
+        for (int length = 0; length <= 8; length++) {
+            fingerprints.add(CellBroadcastFingerprint.of(body.toString()));
+            body.append('\0');
+        }
+        assertEquals(9, fingerprints.size());
+    }
+
+    @Test
+    public void testOrderAndHighBitsMatter() {
+        assertNotEquals(CellBroadcastFingerprint.of("ab"), CellBroadcastFingerprint.of("ba"));
+        assertNotEquals(CellBroadcastFingerprint.of("A"), CellBroadcastFingerprint.of("\u0141"));
+        // String.hashCode collides on these; the fingerprint does not.
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(CellBroadcastFingerprint.of("Aa"), CellBroadcastFingerprint.of("BB"));
+    }
+
+    @Test
+    public void testForListUsesCarriedFingerprintsOnlyIfTheyMatch() {
+        List<CellBroadcastMessage> messages = Collections.emptyList();
+        long[] carried = new long[0];
+        assertSame(carried, CellBroadcastFingerprint.forList(messages, carried));
+        assertEquals(0, CellBroadcastFingerprint.forList(messages, new long[1]).length);
+        assertEquals(0, CellBroadcastFingerprint.forList(messages, null).length);
+    }
+}
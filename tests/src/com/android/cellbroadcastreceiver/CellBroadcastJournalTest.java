@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+/**
+ * Tests for {@link CellBroadcastJournal}: records survive a reopen, and a torn or corrupt tail
+ * or a bad header is dropped rather than replayed.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CellBroadcastJournalTest {
+
+    /** Size of the file header, and of the header of every record. */
+    private static final int HEADER_SIZE = 8;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("journal", null,
+                InstrumentationRegistry.getTargetContext().getCacheDir());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static ContentValues row(int serial) {
+        ContentValues values = new ContentValues();
+        values.put("serial_number", serial);
+        values.put("date", 1500000000000L + serial);
+        values.put("body", "Test alert \u00e9 " + serial);
+        values.put("read", false);
+        values.putNull("plmn");
+        values.put("cmas_category", 1.5);
+        return values;
+    }
+
+    private static void assertRow(int serial, ContentValues values) {
+        assertEquals(Integer.valueOf(serial), values.getAsInteger("serial_number"));
+        assertEquals(Long.valueOf(1500000000000L + serial), values.getAsLong("date"));
+        assertEquals("Test alert \u00e9 " + serial, values.getAsString("body"));
+        assertEquals(Boolean.FALSE, values.getAsBoolean("read"));
+        assertTrue(values.containsKey("plmn"));
+        assertNull(values.get("plmn"));
+        assertEquals(Double.valueOf(1.5), values.getAsDouble("cmas_category"));
+    }
+
+    private CellBroadcastJournal appendRows(int count) {
+        CellBroadcastJournal journal = CellBroadcastJournal.open(mFile);
+        assertNotNull(journal);
+        for (int i = 0; i < count; i++) {
+            assertTrue(journal.append(row(i)));
+        }
+        journal.sync();
+        return journal;
+    }
+
+    @Test
+    public void testAppendedRecordsSurviveReopen() {
+        CellBroadcastJournal journal = appendRows(3);
+        assertEquals(3, journal.getUnimportedCount());
+
+        CellBroadcastJournal reopened = CellBroadcastJournal.open(mFile);
+        assertEquals(3, reopened.getUnimportedCount());
+        assertEquals(journal.getSize(), reopened.getSize());
+        List<ContentValues> rows = reopened.readAll(reopened.getSize());
+        assertEquals(3, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertRow(i, rows.get(i));
+        }
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws IOException {
+        long size = appendRows(3).getSize();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(size - 5);
+        } finally {
+            file.close();
+        }
+
+        CellBroadcastJournal reopened = CellBroadcastJournal.open(mFile);
+        assertEquals(2, reopened.getUnimportedCount());
+        assertEquals(2, reopened.readAll(reopened.getSize()).size());
+        assertEquals(reopened.getSize(), mFile.length());
+
+        // The next append goes where the torn record was.
+        assertTrue(reopened.append(row(7)));
+        List<ContentValues> rows = CellBroadcastJournal.open(mFile).readAll(Long.MAX_VALUE);
+        assertEquals(3, rows.size());
+        assertRow(7, rows.get(2));
+    }
+
+    @Test
+    public void testBadChecksumStopsReading() throws IOException {
+        CellBroadcastJournal journal = CellBroadcastJournal.open(mFile);
+        journal.append(row(0));
+        long second = journal.getSize();
+        journal.append(row(1));
+        journal.append(row(2));
+        journal.sync();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long payload = second + HEADER_SIZE + 4;
+            file.seek(payload);
+            int b = file.read();
+            file.seek(payload);
+            file.write(b ^ 0x01);
+        } finally {
+            file.close();
+        }
+
+        CellBroadcastJournal reopened = CellBroadcastJournal.open(mFile);
+        assertEquals(1, reopened.getUnimportedCount());
+        assertEquals(second, reopened.getSize());
+        List<ContentValues> rows = reopened.readAll(Long.MAX_VALUE);
+        assertEquals(1, rows.size());
+        assertRow(0, rows.get(0));
+    }
+
+    @Test
+    public void testMarkImportedTruncatesOnceAllAreImported() {
+        CellBroadcastJournal journal = appendRows(3);
+        journal.markImported(2);
+        assertEquals(1, journal.getUnimportedCount());
+        assertTrue(mFile.length() > HEADER_SIZE);
+
+        journal.markImported(1);
+        journal.sync();
+        assertEquals(0, journal.getUnimportedCount());
+        assertEquals(HEADER_SIZE, journal.getSize());
+        assertEquals(HEADER_SIZE, mFile.length());
+        assertEquals(0, CellBroadcastJournal.open(mFile).getUnimportedCount());
+    }
+
+    @Test
+    public void testBadHeaderIsDiscarded() throws IOException {
+        appendRows(2);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(0);
+            file.writeInt(0x12345678);
+        } finally {
+            file.close();
+        }
+
+        CellBroadcastJournal reopened = CellBroadcastJournal.open(mFile);
+        assertEquals(0, reopened.getUnimportedCount());
+        assertEquals(HEADER_SIZE, reopened.getSize());
+        assertEquals(0, reopened.readAll(Long.MAX_VALUE).size());
+
+        assertTrue(reopened.append(row(4)));
+        List<ContentValues> rows = CellBroadcastJournal.open(mFile).readAll(Long.MAX_VALUE);
+        assertEquals(1, rows.size());
+        assertRow(4, rows.get(0));
+    }
+
+    @Test
+    public void testReadAllLeavesLaterAppends() {
+        CellBroadcastJournal journal = appendRows(2);
+        long end = journal.getSize();
+        journal.append(row(2));
+
+        assertEquals(2, journal.readAll(end).size());
+        assertEquals(3, journal.readAll(journal.getSize()).size());
+    }
+}
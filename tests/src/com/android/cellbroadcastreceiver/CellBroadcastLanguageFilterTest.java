@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.MatrixCursor;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.sprd.cellbroadcastreceiver.provider.LangMapTableDefine;
+import com.sprd.cellbroadcastreceiver.util.LanguageIds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the lang_map rules of {@link CellBroadcastLanguageFilter}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CellBroadcastLanguageFilterTest {
+
+    private static final int GERMAN = LanguageIds.LANGUAGE_ID[0];
+    private static final int ENGLISH = LanguageIds.LANGUAGE_ID[1];
+    private static final int FRENCH = LanguageIds.LANGUAGE_ID[3];
+
+    private final MatrixCursor mRows = new MatrixCursor(new String[] {
+            LangMapTableDefine.LANG_ID, LangMapTableDefine.SHOW, LangMapTableDefine.ENABLE});
+
+    private void addRow(int languageId, boolean show, boolean enable) {
+        mRows.addRow(new Object[] {languageId, show ? 1 : 0, enable ? 1 : 0});
+    }
+
+    @Test
+    public void testHiddenRowIsIgnored() {
+        addRow(ENGLISH, true, true);
+        addRow(GERMAN, false, false);
+        CellBroadcastLanguageFilter filter = CellBroadcastLanguageFilter.compile(mRows);
+        assertTrue(filter.accepts("en"));
+        assertTrue(filter.accepts("de"));
+    }
+
+    @Test
+    public void testShownDisabledRowIsRejected() {
+        addRow(ENGLISH, true, true);
+        addRow(FRENCH, true, false);
+        CellBroadcastLanguageFilter filter = CellBroadcastLanguageFilter.compile(mRows);
+        assertTrue(filter.accepts("en"));
+        assertFalse(filter.accepts("fr"));
+    }
+
+    @Test
+    public void testNoEnabledLanguageAcceptsEverything() {
+        addRow(ENGLISH, true, false);
+        addRow(FRENCH, true, false);
+        addRow(GERMAN, false, true);
+        CellBroadcastLanguageFilter filter = CellBroadcastLanguageFilter.compile(mRows);
+        assertTrue(filter.accepts("en"));
+        assertTrue(filter.accepts("fr"));
+        assertTrue(filter.accepts("de"));
+        assertTrue(CellBroadcastLanguageFilter.compile(null).accepts("en"));
+    }
+
+    @Test
+    public void testUnknownLanguageIsAccepted() {
+        addRow(ENGLISH, true, true);
+        addRow(FRENCH, true, false);
+        CellBroadcastLanguageFilter filter = CellBroadcastLanguageFilter.compile(mRows);
+        assertTrue(filter.accepts("ja"));
+        assertTrue(filter.accepts(null));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cellbroadcastreceiver;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.telephony.SmsCbLocation;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the per-broadcast cost of the debug logs the alert service used to write for every
+ * accepted broadcast with that of the {@link CellBroadcastTrace} events that replaced them.
+ * The logs are written to logcat under their own tag, as the service did, so their cost
+ * includes logd. Results go to logcat:
+ * <pre>
+ * adb shell am instrument -w -e class \
+ *     com.android.cellbroadcastreceiver.CellBroadcastTraceBenchmark \
+ *     com.android.cellbroadcastreceiver.tests/android.support.test.runner.AndroidJUnitRunner
+ * adb logcat -s TraceBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CellBroadcastTraceBenchmark {
+    private static final String TAG = "TraceBenchmark";
+
+    /** Tag of the replaced logs, kept apart from the results. */
+    private static final String LOG_TAG = "TraceBenchmarkLog";
+
+    private static final int BROADCASTS = 2000;
+
+    private static final int RUNS = 5;
+
+    private static final SmsCbLocation LOCATION = new SmsCbLocation("310260", 0x1234, 0x5678);
+
+    /** The toString() of the message ID key the alert service used to log. */
+    private static String messageId(int category, int serialNumber) {
+        return "{mServiceCategory: " + category + " serial number: " + serialNumber
+                + " location: " + LOCATION.toString() + " body hash: " + 0
+                + " mIsEtwsPrimary: " + false + "}";
+    }
+
+    /**
+     * The three debug logs of an accepted broadcast once the message ID list is full, as the
+     * alert service wrote them.
+     */
+    private static void logBroadcast(int subId, int category, int serialNumber) {
+        Log.d(LOG_TAG, "handleCellBroadcastIntent: subId = " + subId);
+        Log.d(LOG_TAG, "message ID = " + messageId(category, serialNumber));
+        Log.d(LOG_TAG, "message ID limit reached, removing oldest message ID "
+                + messageId(category, serialNumber - 1));
+    }
+
+    /** The trace events of an accepted broadcast. */
+    private static void traceBroadcast(int subId, int category, int serialNumber) {
+        CellBroadcastTrace.event(CellBroadcastTrace.RECEIVED, subId, category, serialNumber);
+        CellBroadcastTrace.event(CellBroadcastTrace.QUEUED, subId, category, serialNumber);
+        CellBroadcastTrace.event(CellBroadcastTrace.ALERT_SHOWN, subId, category, serialNumber);
+    }
+
+    private static long run(boolean trace) {
+        long start = System.nanoTime();
+        for (int i = 0; i < BROADCASTS; i++) {
+            if (trace) {
+                traceBroadcast(1, 4370 + (i & 15), i);
+            } else {
+                logBroadcast(1, 4370 + (i & 15), i);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testLogsAgainstTrace() {
+        long bestLogs = Long.MAX_VALUE;
+        long bestTrace = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            bestLogs = Math.min(bestLogs, run(false));
+            bestTrace = Math.min(bestTrace, run(true));
+        }
+        Log.i(TAG, String.format("best of %d runs of %d broadcasts: debug logs %.0f ns,"
+                + " trace %.0f ns per broadcast", RUNS, BROADCASTS,
+                (double) bestLogs / BROADCASTS, (double) bestTrace / BROADCASTS));
+    }
+}